@@ -0,0 +1,11 @@
+// Notified by a ShoppingCart after its lines have changed; rows are CartLines rows
+public interface CartChangeListener {
+    void lineAdded(ShoppingCart cart, int row);
+
+    void quantityChanged(ShoppingCart cart, int row, int oldQuantity);
+
+    // The lines after row have moved up one row
+    void lineRemoved(ShoppingCart cart, int row, Product product);
+
+    void cartCleared(ShoppingCart cart);
+}
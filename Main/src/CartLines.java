@@ -0,0 +1,132 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+// The lines of a shopping cart: one product and its quantity per line, in the order the products were
+// first added, so a line keeps its row in the cart table for as long as it is in the cart.
+//
+// Products and quantities are kept in parallel arrays indexed by row, and a LongIntHashMap maps each
+// product's ProductKey to its row. Looking a line up by row or by product ID, adding a line and
+// changing a quantity are all O(1). Removing a line shifts the rows after it down by one.
+public class CartLines {
+    private Product[] products = new Product[8];
+    private int[] quantities = new int[8];
+    private final LongIntHashMap rowsByKey = new LongIntHashMap();
+    private int size;
+    private final List<Product> productView = new ProductView();
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public Product getProduct(int row) {
+        checkRow(row);
+        return products[row];
+    }
+
+    public int getQuantity(int row) {
+        checkRow(row);
+        return quantities[row];
+    }
+
+    // The row of the product with this key, or -1 if it isn't in the cart
+    public int rowOf(long productKey) {
+        return rowsByKey.get(productKey, -1);
+    }
+
+    // The row of the product with this ID, or -1 if it isn't in the cart
+    public int rowOf(String productId) {
+        long key = ProductKey.encode(productId);
+        return key == ProductKey.INVALID ? -1 : rowOf(key);
+    }
+
+    // Appends a line for a product that isn't in the cart yet and returns its row
+    public int add(Product product, int quantity) {
+        long key = product.getProductKey();
+        if (key == ProductKey.INVALID) {
+            throw new IllegalArgumentException("Product has no valid product ID: " + product.getProductId());
+        }
+        if (rowsByKey.containsKey(key)) {
+            throw new IllegalArgumentException("Product is already in the cart: " + product.getProductId());
+        }
+        if (size == products.length) {
+            products = Arrays.copyOf(products, size * 2);
+            quantities = Arrays.copyOf(quantities, size * 2);
+        }
+        products[size] = product;
+        quantities[size] = quantity;
+        rowsByKey.put(key, size, -1);
+        return size++;
+    }
+
+    // Sets the quantity of a line and returns the old one
+    public int setQuantity(int row, int quantity) {
+        checkRow(row);
+        int oldQuantity = quantities[row];
+        quantities[row] = quantity;
+        return oldQuantity;
+    }
+
+    // Removes a line and returns its product; the lines after it move up one row
+    public Product remove(int row) {
+        checkRow(row);
+        Product product = products[row];
+        rowsByKey.remove(product.getProductKey(), -1);
+        int moved = size - row - 1;
+        System.arraycopy(products, row + 1, products, row, moved);
+        System.arraycopy(quantities, row + 1, quantities, row, moved);
+        products[--size] = null;
+        for (int i = row; i < size; i++) {
+            rowsByKey.put(products[i].getProductKey(), i, -1);
+        }
+        return product;
+    }
+
+    public void clear() {
+        Arrays.fill(products, 0, size, null);
+        rowsByKey.clear();
+        size = 0;
+    }
+
+    // Read-only view of the products in row order; it isn't a copy, so it follows later changes
+    public List<Product> products() {
+        return productView;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + ", cart has " + size + " lines");
+        }
+    }
+
+    private final class ProductView extends AbstractList<Product> implements RandomAccess {
+        @Override
+        public Product get(int index) {
+            return getProduct(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Product && indexOf(o) >= 0;
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            if (!(o instanceof Product)) {
+                return -1;
+            }
+            int row = rowOf(((Product) o).getProductKey());
+            return row >= 0 && products[row] == o ? row : -1;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.function.Function;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+// Table model showing a cart's lines, one row per CartLines row. It reads the cart directly instead of
+// holding a copy and listens for cart changes, so an edit only repaints the rows it touched.
+// Call detach() when the table goes away so the cart drops the listener.
+public class CartTableModel extends AbstractTableModel implements CartChangeListener {
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] COLUMN_NAMES = {"Product Details", "Quantity", "Price"};
+    static final int QUANTITY_COLUMN = 1;
+
+    private final ShoppingCart cart;
+    private final Function<Product, String> details;
+
+    public CartTableModel(ShoppingCart cart, Function<Product, String> details) {
+        this.cart = cart;
+        this.details = details;
+        cart.addChangeListener(this);
+    }
+
+    public void detach() {
+        cart.removeChangeListener(this);
+    }
+
+    @Override
+    public int getRowCount() {
+        return cart.getLineCount();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == QUANTITY_COLUMN ? Integer.class : String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return column == QUANTITY_COLUMN;  // Only the "Quantity" column should be editable
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        switch (column) {
+            case 0:
+                return details.apply(cart.getLine(row));
+            case QUANTITY_COLUMN:
+                return cart.getLineQuantity(row);
+            default:
+                return Money.format(Money.times(cart.getLine(row).getPriceMinor(), cart.getLineQuantity(row))) + " €";
+        }
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        if (column != QUANTITY_COLUMN) {
+            return;
+        }
+        if (!(value instanceof Integer) || (Integer) value <= 0) {
+            JOptionPane.showMessageDialog(null, "Please enter a valid quantity.");
+            return;
+        }
+        // The cart reports the change back through quantityChanged
+        cart.updateQuantityAt(row, (Integer) value);
+    }
+
+    @Override
+    public void lineAdded(ShoppingCart cart, int row) {
+        onEventThread(() -> fireTableRowsInserted(row, row));
+    }
+
+    @Override
+    public void quantityChanged(ShoppingCart cart, int row, int oldQuantity) {
+        onEventThread(() -> fireTableRowsUpdated(row, row));
+    }
+
+    @Override
+    public void lineRemoved(ShoppingCart cart, int row, Product product) {
+        onEventThread(() -> fireTableRowsDeleted(row, row));
+    }
+
+    @Override
+    public void cartCleared(ShoppingCart cart) {
+        onEventThread(this::fireTableDataChanged);
+    }
+
+    // Row events are only exact on the thread that changed the cart; from elsewhere, redraw everything
+    private void onEventThread(Runnable event) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            event.run();
+        } else {
+            SwingUtilities.invokeLater(this::fireTableDataChanged);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compact binary catalog file.
+//
+// Layout (all numbers big-endian):
+//   header      magic, format version, record count, dictionary size, then the offsets of the
+//               dictionary and record sections
+//   dictionary  offset table (one int per string) followed by the UTF-8 bytes of every distinct string
+//   records     one fixed-width RECORD_SIZE record per product, strings stored as dictionary references
+//
+// The catalog keeps every product in memory, so loading decodes every record anyway. read() does it
+// in one buffered pass from the start of the file. Nothing stays open or mapped afterwards, so write()
+// can always replace the file. Version 1 files also had a sorted ID index for lookups in a mapped file;
+// nothing read it, so version 2 leaves it out, and read() skips it in version 1 files.
+public class CatalogFile {
+    public static final int MAGIC = 0x57534346; // "WSCF"
+    public static final int FORMAT_VERSION = 2;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int HEADER_SIZE_V1 = 40; // With the index offset
+    private static final int RECORD_SIZE = 48;
+    private static final int NO_STRING = -1;
+
+    private static final byte TYPE_PRODUCT = 0;
+    private static final byte TYPE_ELECTRONICS = 1;
+    private static final byte TYPE_CLOTHING = 2;
+
+    private CatalogFile() {
+    }
+
+    // Reads every product in the file, in record order
+    public static List<Product> read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a catalog file");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION && version != 1) {
+                throw new IOException("Unsupported catalog file version " + version);
+            }
+            int recordCount = in.readInt();
+            int dictionarySize = in.readInt();
+            long dictionaryOffset = in.readLong();
+            long recordsOffset = in.readLong();
+            int headerSize = HEADER_SIZE;
+            if (version == 1) {
+                in.readLong(); // Offset of the index, which follows the records and isn't read
+                headerSize = HEADER_SIZE_V1;
+            }
+            if (recordCount < 0 || dictionarySize < 0 || dictionaryOffset != headerSize) {
+                throw new IOException("Corrupt catalog file header");
+            }
+
+            // The sections are written back to back, the offset table is only needed for random access
+            in.skipNBytes(4L * dictionarySize);
+            long position = headerSize + 4L * dictionarySize;
+            String[] strings = new String[dictionarySize];
+            for (int reference = 0; reference < dictionarySize; reference++) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                strings[reference] = new String(bytes, StandardCharsets.UTF_8);
+                position += 4 + bytes.length;
+            }
+            if (position != recordsOffset) {
+                throw new IOException("Corrupt catalog file: records start at " + recordsOffset + ", not " + position);
+            }
+
+            List<Product> products = new ArrayList<>(recordCount);
+            for (int record = 0; record < recordCount; record++) {
+                products.add(readRecord(in, strings));
+            }
+            return products;
+        }
+    }
+
+    // Writes the products to the file, replacing it atomically once the new file is complete. When this
+    // returns the new file is on disk, contents and name, so a journal checkpoint can follow it.
+    public static void write(Path file, List<Product> products) throws IOException {
+        // Collect the distinct strings, each one is stored once and referenced by number
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (Product product : products) {
+            reference(dictionary, product.getName());
+            reference(dictionary, product.getCategory());
+            if (product instanceof Electronics) {
+                reference(dictionary, ((Electronics) product).getBrand());
+            } else if (product instanceof Clothing) {
+                reference(dictionary, ((Clothing) product).getSize());
+                reference(dictionary, ((Clothing) product).getColor());
+            }
+        }
+        List<byte[]> encodedStrings = new ArrayList<>(dictionary.size());
+        long dictionaryLength = 4L * dictionary.size();
+        for (String value : dictionary.keySet()) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            encodedStrings.add(bytes);
+            dictionaryLength += 4 + bytes.length;
+        }
+        long recordsOffset = HEADER_SIZE + dictionaryLength;
+
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(products.size());
+            out.writeInt(dictionary.size());
+            out.writeLong(HEADER_SIZE);
+            out.writeLong(recordsOffset);
+
+            int stringOffset = HEADER_SIZE + 4 * dictionary.size();
+            for (byte[] bytes : encodedStrings) {
+                out.writeInt(stringOffset);
+                stringOffset += 4 + bytes.length;
+            }
+            for (byte[] bytes : encodedStrings) {
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            for (Product product : products) {
+                writeRecord(out, product, dictionary);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileSync.syncDirectory(file.toAbsolutePath().getParent());
+    }
+
+    // Reads a products file written with Java serialization (a single list, or a sequence of
+    // segment lists ending with null) and rewrites it in the binary format
+    public static int convertLegacy(Path serializedFile, Path binaryFile) throws IOException {
+        List<Product> products = readLegacy(serializedFile);
+        write(binaryFile, products);
+        return products.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static List<Product> readLegacy(Path serializedFile) throws IOException {
+        List<Product> products = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(serializedFile));
+             ObjectInputStream ois = new ObjectInputStream(in)) {
+            Object segment;
+            while ((segment = ois.readObject()) != null) {
+                products.addAll((List<Product>) segment);
+            }
+        } catch (EOFException e) {
+            // Single-list files simply end after the list
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unexpected class in " + serializedFile, e);
+        }
+        return products;
+    }
+
+    private static Product readRecord(DataInputStream in, String[] strings) throws IOException {
+        byte type = in.readByte();
+        in.skipNBytes(3); // padding
+        int availableItems = in.readInt();
+        long key = in.readLong();
+        double price = in.readDouble();
+        LocalDate dateAdded = LocalDate.ofEpochDay(in.readInt());
+        String name = string(strings, in.readInt());
+        String category = string(strings, in.readInt());
+        int first = in.readInt();
+        int second = in.readInt();
+        in.readInt(); // reserved
+
+        String productId = ProductKey.decode(key);
+        Product product;
+        if (type == TYPE_ELECTRONICS) {
+            product = new Electronics(productId, name, availableItems, price, string(strings, first), second);
+        } else if (type == TYPE_CLOTHING) {
+            product = new Clothing(productId, name, availableItems, price, string(strings, first), string(strings, second));
+        } else {
+            product = new Product(productId, name, availableItems, price, category);
+        }
+        product.setDateAdded(dateAdded);
+        return product;
+    }
+
+    private static String string(String[] strings, int reference) throws IOException {
+        if (reference == NO_STRING) {
+            return null;
+        }
+        if (reference < 0 || reference >= strings.length) {
+            throw new IOException("Corrupt catalog file: string reference " + reference);
+        }
+        return strings[reference];
+    }
+
+    private static void writeRecord(DataOutputStream out, Product product, Map<String, Integer> dictionary) throws IOException {
+        long key = product.getProductKey();
+        if (key == ProductKey.INVALID) {
+            throw new IOException("Product ID can't be stored in the catalog file: " + product.getProductId());
+        }
+        int first = NO_STRING;
+        int second = NO_STRING;
+        byte type = TYPE_PRODUCT;
+        if (product instanceof Electronics) {
+            type = TYPE_ELECTRONICS;
+            first = reference(dictionary, ((Electronics) product).getBrand());
+            second = ((Electronics) product).getWarrantyPeriod();
+        } else if (product instanceof Clothing) {
+            type = TYPE_CLOTHING;
+            first = reference(dictionary, ((Clothing) product).getSize());
+            second = reference(dictionary, ((Clothing) product).getColor());
+        }
+        LocalDate dateAdded = product.getDateAdded() != null ? product.getDateAdded() : LocalDate.now();
+
+        out.writeByte(type);
+        out.writeByte(0);
+        out.writeShort(0);
+        out.writeInt(product.getAvailableItems());
+        out.writeLong(key);
+        out.writeDouble(product.getPrice());
+        out.writeInt((int) dateAdded.toEpochDay());
+        out.writeInt(reference(dictionary, product.getName()));
+        out.writeInt(reference(dictionary, product.getCategory()));
+        out.writeInt(first);
+        out.writeInt(second);
+        out.writeInt(0); // reserved
+    }
+
+    private static int reference(Map<String, Integer> dictionary, String value) {
+        if (value == null) {
+            return NO_STRING;
+        }
+        Integer reference = dictionary.get(value);
+        if (reference == null) {
+            reference = dictionary.size();
+            dictionary.put(value, reference);
+        }
+        return reference;
+    }
+}
@@ -0,0 +1,27 @@
+import java.util.Collections;
+import java.util.List;
+
+// Immutable view of the catalog's products at one catalog version.
+// Snapshots are safe to iterate and sort copies of from any thread while the catalog keeps changing.
+public final class CatalogSnapshot {
+    private final long version;
+    private final List<Product> products;
+
+    CatalogSnapshot(long version, List<Product> products) {
+        this.version = version;
+        this.products = Collections.unmodifiableList(products);
+    }
+
+    // Increases every time a product is added to or removed from the catalog
+    public long getVersion() {
+        return version;
+    }
+
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    public int size() {
+        return products.size();
+    }
+}
@@ -1,6 +1,9 @@
 public class Clothing extends Product {
-    private String size;
-    private String color;
+    // Same as the original class, see Product
+    private static final long serialVersionUID = 1984263150512739676L;
+
+    private volatile String size;
+    private volatile String color;
 
     // Constructor
     public Clothing(String productId, String name, int availableItems, double price, String size, String color) {
@@ -10,6 +13,13 @@ public class Clothing extends Product {
         this.color = color;
     }
 
+    @Override
+    Product snapshotCopy() {
+        Product copy = new Clothing(getProductId(), getName(), getStockOnHand(), getPrice(), size, color);
+        copy.setDateAdded(getDateAdded());
+        return copy;
+    }
+
     // Displaying Clothing details
     @Override
     public String toString() {
@@ -23,15 +33,19 @@ public class Clothing extends Product {
         return size;
     }
 
-    public void setSize(String size) {
+    public synchronized void setSize(String size) {
+        String oldSize = this.size;
         this.size = size;
+        fireAttributeChanged(ProductAttributeIndex.SIZE, oldSize);
     }
 
     public String getColor() {
         return color;
     }
 
-    public void setColor(String color) {
+    public synchronized void setColor(String color) {
+        String oldColor = this.color;
         this.color = color;
+        fireAttributeChanged(ProductAttributeIndex.COLOUR, oldColor);
     }
 }
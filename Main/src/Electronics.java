@@ -1,5 +1,8 @@
 public class Electronics extends Product {
-    private String brand;
+    // Same as the original class, see Product
+    private static final long serialVersionUID = 4649225631060439870L;
+
+    private volatile String brand;
     private int warrantyPeriod;
 
     // Constructor
@@ -10,6 +13,13 @@ public class Electronics extends Product {
         this.warrantyPeriod = warrantyPeriod;
     }
 
+    @Override
+    Product snapshotCopy() {
+        Product copy = new Electronics(getProductId(), getName(), getStockOnHand(), getPrice(), brand, warrantyPeriod);
+        copy.setDateAdded(getDateAdded());
+        return copy;
+    }
+
     // Displaying Electronics details
     @Override
     public String toString() {
@@ -23,8 +33,10 @@ public class Electronics extends Product {
         return brand;
     }
 
-    public void setBrand(String brand) {
+    public synchronized void setBrand(String brand) {
+        String oldBrand = this.brand;
         this.brand = brand;
+        fireAttributeChanged(ProductAttributeIndex.BRAND, oldBrand);
     }
 
     public int getWarrantyPeriod() {
@@ -0,0 +1,299 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+// Append-only journal of shop events (purchases, stock changes and registrations).
+//
+// Every event gets a sequence number when it is appended. A single writer thread drains all events
+// waiting at that moment, writes them with one channel write and makes them durable with one fsync,
+// so concurrent checkouts share the cost of a sync (group commit). The returned future completes once
+// the event is on disk.
+//
+// Record layout: payload length (int), sequence (long), payload, CRC32 of sequence and payload (int).
+// A torn record at the end of the file (crash during a write) fails its CRC and is dropped on replay.
+public class EventJournal implements AutoCloseable {
+    public static final byte PURCHASE = 1; // written before orders had IDs, the sequence serves as the ID
+    public static final byte STOCK_CHANGE = 2;
+    public static final byte REGISTRATION = 3;
+    public static final byte ORDER = 4; // a purchase with its order ID
+
+    private static final int RECORD_OVERHEAD = 4 + 8 + 4;
+
+    private final Path file;
+    private final Path checkpointFile;
+    private final BlockingQueue<PendingEvent> queue;
+    private final Thread writerThread;
+    private final Object fileLock = new Object(); // guards channel, which compaction replaces
+    private FileChannel channel;
+    private long lastSequence;
+    private long eventsSinceCheckpoint;
+    private volatile boolean closed;
+
+    // Receives each replayed event: its sequence, type and a stream positioned at the event's fields
+    public interface EventHandler {
+        void handle(long sequence, byte type, DataInputStream fields) throws IOException;
+    }
+
+    // Writes the fields of an event after its type byte
+    public interface EventWriter {
+        void write(DataOutputStream fields) throws IOException;
+    }
+
+    // Queued by close() after the last event, the writer thread stops when it reaches it
+    private static final PendingEvent CLOSE = new PendingEvent(-1, null);
+
+    private static class PendingEvent {
+        final long sequence;
+        final byte[] record;
+        final CompletableFuture<Long> durable = new CompletableFuture<>();
+
+        PendingEvent(long sequence, byte[] record) {
+            this.sequence = sequence;
+            this.record = record;
+        }
+    }
+
+    public EventJournal(Path file) throws IOException {
+        this.file = file;
+        this.checkpointFile = file.resolveSibling(file.getFileName() + ".checkpoint");
+        this.queue = new LinkedBlockingQueue<>();
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        this.lastSequence = readCheckpoint();
+        this.writerThread = new Thread(this::writeLoop, "event-journal-writer");
+        this.writerThread.setDaemon(true);
+    }
+
+    // Replays every event after the last checkpoint, in order, and then starts accepting appends.
+    // A torn record at the end of the journal is cut off so new events follow the last good one.
+    public synchronized void replay(EventHandler handler) throws IOException {
+        long checkpoint = readCheckpoint();
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new java.io.BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (java.io.EOFException e) {
+                    break;
+                }
+                if (length < 1 || length > (1 << 24)) {
+                    break;
+                }
+                byte[] body = new byte[8 + length];
+                int crc;
+                try {
+                    in.readFully(body);
+                    crc = in.readInt();
+                } catch (java.io.EOFException e) {
+                    break;
+                }
+                CRC32 checksum = new CRC32();
+                checksum.update(body);
+                if ((int) checksum.getValue() != crc) {
+                    break;
+                }
+                validLength += RECORD_OVERHEAD + length;
+                long sequence = ByteBuffer.wrap(body).getLong();
+                lastSequence = Math.max(lastSequence, sequence);
+                if (sequence > checkpoint) {
+                    DataInputStream fields = new DataInputStream(new ByteArrayInputStream(body, 8, length));
+                    handler.handle(sequence, fields.readByte(), fields);
+                    eventsSinceCheckpoint++;
+                }
+            }
+        }
+        channel.truncate(validLength);
+        channel.position(validLength);
+        start();
+    }
+
+    // Starts the writer thread, only needed when replay() isn't called
+    public synchronized void start() {
+        if (!writerThread.isAlive()) {
+            writerThread.start();
+        }
+    }
+
+    // Queues an event and returns its sequence number straight away; the future completes when it is durable
+    public synchronized CompletableFuture<Long> append(byte type, EventWriter writer) {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        long sequence = ++lastSequence;
+        byte[] record;
+        try {
+            ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(128);
+            DataOutputStream payload = new DataOutputStream(payloadBytes);
+            payload.writeByte(type);
+            writer.write(payload);
+            payload.flush();
+            byte[] fields = payloadBytes.toByteArray();
+
+            ByteBuffer body = ByteBuffer.allocate(8 + fields.length);
+            body.putLong(sequence).put(fields);
+            CRC32 checksum = new CRC32();
+            checksum.update(body.array());
+            record = ByteBuffer.allocate(RECORD_OVERHEAD + fields.length)
+                    .putInt(fields.length).put(body.array()).putInt((int) checksum.getValue()).array();
+        } catch (IOException e) {
+            lastSequence--;
+            CompletableFuture<Long> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        PendingEvent event = new PendingEvent(sequence, record);
+        queue.add(event);
+        eventsSinceCheckpoint++;
+        return event.durable;
+    }
+
+    // Sequence number of the most recently appended event
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    // Events appended since the last checkpoint, used to decide when to compact
+    public synchronized long getEventsSinceCheckpoint() {
+        return eventsSinceCheckpoint;
+    }
+
+    // Records that a snapshot now contains every event up to and including sequence,
+    // then drops those events from the journal
+    public void checkpoint(long sequence) throws IOException {
+        // The checkpoint must be on disk before the events it covers are dropped, or a crash could
+        // leave a compacted journal behind an older checkpoint
+        Path tempCheckpoint = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tempCheckpoint, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.write(ByteBuffer.allocate(8).putLong(sequence).flip());
+            out.force(true);
+        }
+        Files.move(tempCheckpoint, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileSync.syncDirectory(checkpointFile.toAbsolutePath().getParent());
+
+        synchronized (this) {
+            synchronized (fileLock) {
+                // Keep only the records after the checkpoint, events still queued are written to the new file
+                Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+                List<byte[]> kept = new ArrayList<>();
+                ByteBuffer contents = ByteBuffer.allocate((int) channel.size());
+                channel.read(contents, 0);
+                contents.flip();
+                while (contents.remaining() >= RECORD_OVERHEAD) {
+                    int length = contents.getInt(contents.position());
+                    if (contents.remaining() < RECORD_OVERHEAD + length) {
+                        break;
+                    }
+                    byte[] record = new byte[RECORD_OVERHEAD + length];
+                    contents.get(record);
+                    if (ByteBuffer.wrap(record, 4, 8).getLong() > sequence) {
+                        kept.add(record);
+                    }
+                }
+                try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    for (byte[] record : kept) {
+                        out.write(ByteBuffer.wrap(record));
+                    }
+                    out.force(true);
+                }
+                channel.close();
+                Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                FileSync.syncDirectory(file.toAbsolutePath().getParent()); // New events go to the new file
+                channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.READ);
+                channel.position(channel.size());
+                eventsSinceCheckpoint = kept.size() + queue.size();
+            }
+        }
+    }
+
+    // Stops accepting events and waits for the writer thread to write the ones already queued. The
+    // thread is told to stop with a CLOSE marker rather than an interrupt: interrupting a thread in
+    // a channel write or force closes the channel (ClosedByInterruptException).
+    @Override
+    public void close() {
+        synchronized (this) {
+            // append() holds the same lock, so no event can be queued behind the marker
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.add(CLOSE);
+        }
+        try {
+            writerThread.join(5000);
+            synchronized (fileLock) {
+                channel.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("Error closing journal: " + e.getMessage());
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingEvent> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue; // Only close() stops the writer, through the CLOSE marker
+            }
+            queue.drainTo(batch); // Everything that arrived meanwhile shares this write and fsync
+            if (batch.get(batch.size() - 1) == CLOSE) {
+                batch.remove(batch.size() - 1);
+                stopping = true;
+                if (batch.isEmpty()) {
+                    break;
+                }
+            }
+            try {
+                synchronized (fileLock) {
+                    ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+                    for (int i = 0; i < batch.size(); i++) {
+                        buffers[i] = ByteBuffer.wrap(batch.get(i).record);
+                    }
+                    long remaining = 0;
+                    for (ByteBuffer buffer : buffers) {
+                        remaining += buffer.remaining();
+                    }
+                    while (remaining > 0) {
+                        remaining -= channel.write(buffers);
+                    }
+                    channel.force(false);
+                }
+                for (PendingEvent event : batch) {
+                    event.durable.complete(event.sequence);
+                }
+            } catch (IOException e) {
+                for (PendingEvent event : batch) {
+                    event.durable.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (!Files.exists(checkpointFile)) {
+            return 0;
+        }
+        return ByteBuffer.wrap(Files.readAllBytes(checkpointFile)).getLong();
+    }
+}
@@ -0,0 +1,23 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Makes a rename durable. Forcing a file only covers its contents; the directory entry that a move
+// creates is written separately, and until the directory itself is synced a crash can bring back
+// the old file under the name.
+public final class FileSync {
+    private FileSync() {
+    }
+
+    public static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Windows can't open a directory as a channel; there a completed move is already durable
+            if (!System.getProperty("os.name").startsWith("Windows")) {
+                throw e;
+            }
+        }
+    }
+}
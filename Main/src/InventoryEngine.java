@@ -0,0 +1,198 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Reserves stock for checkouts without locks.
+//
+// Reserving takes the items off the product's available stock with a compare-and-set loop, so two
+// buyers can never both get the last item and stock can't go below zero. A reservation covers every
+// line of a cart: if any line is short, the lines already taken are given back and nothing is held.
+// A reservation is then either committed, just before the purchase is recorded, or released, which
+// returns its items; a committed reservation is released too if recording its purchase fails.
+// Reservations still held after the hold timeout (an abandoned or crashed checkout) are released by
+// a background sweep.
+//
+// Items held by a reservation count in Product.getStockOnHand(), which is what gets persisted, until
+// the reservation is committed.
+public class InventoryEngine implements AutoCloseable {
+    private final ConcurrentHashMap<Long, Reservation> held = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final long holdTimeoutNanos;
+    private final ScheduledExecutorService sweeper;
+
+    // Metrics
+    private final LongAdder reservations = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder expiries = new LongAdder();
+    private final LongAdder casRetries = new LongAdder();
+
+    // Items held for one checkout, until committed, released or expired
+    public static final class Reservation {
+        private static final int HELD = 0;
+        private static final int COMMITTED = 1;
+        private static final int RELEASED = 2;
+        private static final int EXPIRED = 3;
+        private static final AtomicIntegerFieldUpdater<Reservation> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Reservation.class, "state");
+
+        private final long id;
+        private final Product[] products;
+        private final int[] quantities;
+        private final long deadlineNanos;
+        private volatile int state = HELD;
+
+        Reservation(long id, Product[] products, int[] quantities, long deadlineNanos) {
+            this.id = id;
+            this.products = products;
+            this.quantities = quantities;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        public long getId() { return id; }
+        public boolean isHeld() { return state == HELD; }
+        public boolean isCommitted() { return state == COMMITTED; }
+
+        // The only way out of HELD, so exactly one of commit, release and expiry happens
+        private boolean finish(int newState) {
+            return STATE.compareAndSet(this, HELD, newState);
+        }
+
+        // A committed sale that couldn't be recorded, at most once
+        private boolean cancelCommit() {
+            return STATE.compareAndSet(this, COMMITTED, RELEASED);
+        }
+    }
+
+    public InventoryEngine(long holdTimeout, TimeUnit unit) {
+        this.holdTimeoutNanos = unit.toNanos(holdTimeout);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reservation-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Sweep a few times per timeout, so abandoned holds are back in stock at most a quarter of it late
+        long period = Math.max(TimeUnit.MILLISECONDS.toNanos(100), holdTimeoutNanos / 4);
+        sweeper.scheduleWithFixedDelay(this::releaseExpired, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    // Takes quantities[i] items of products[i] for every line, or nothing at all. Returns the
+    // reservation, or null if some product doesn't have enough items available.
+    public Reservation reserve(Product[] products, int[] quantities) {
+        for (int line = 0; line < products.length; line++) {
+            if (quantities[line] <= 0) {
+                throw new IllegalArgumentException("Quantity must be positive: " + quantities[line]);
+            }
+            if (!take(products[line], quantities[line])) {
+                // Give back the lines already taken, in reverse
+                for (int taken = line - 1; taken >= 0; taken--) {
+                    giveBack(products[taken], quantities[taken]);
+                }
+                rejections.increment();
+                return null;
+            }
+        }
+        Reservation reservation = new Reservation(nextId.incrementAndGet(), products.clone(), quantities.clone(),
+                System.nanoTime() + holdTimeoutNanos);
+        held.put(reservation.id, reservation);
+        reservations.increment();
+        return reservation;
+    }
+
+    // Makes the reservation's items sold. Returns false if it had already expired or been released,
+    // in which case its items went back to stock and the sale must not go ahead.
+    public boolean commit(Reservation reservation) {
+        if (!reservation.finish(Reservation.COMMITTED)) {
+            return reservation.isCommitted();
+        }
+        held.remove(reservation.id);
+        for (int line = 0; line < reservation.products.length; line++) {
+            reservation.products[line].addStockOnHand(-reservation.quantities[line]);
+        }
+        commits.increment();
+        return true;
+    }
+
+    // Returns the reservation's items to stock, whether it is still held or was committed for a purchase
+    // that then failed to be recorded. Does nothing if it was already released or expired.
+    public void release(Reservation reservation) {
+        if (reservation.finish(Reservation.RELEASED)) {
+            returnItems(reservation);
+            releases.increment();
+        } else if (reservation.cancelCommit()) {
+            // The commit took the items off the stock on hand, so they come back to that as well
+            for (int line = 0; line < reservation.products.length; line++) {
+                reservation.products[line].addStockOnHand(reservation.quantities[line]);
+                giveBack(reservation.products[line], reservation.quantities[line]);
+            }
+            releases.increment();
+        }
+    }
+
+    // Releases every reservation held for longer than the hold timeout, returns how many
+    public int releaseExpired() {
+        long now = System.nanoTime();
+        int expired = 0;
+        for (Reservation reservation : held.values()) {
+            if (now - reservation.deadlineNanos > 0 && reservation.finish(Reservation.EXPIRED)) {
+                returnItems(reservation);
+                expiries.increment();
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    public int getHeldCount() {
+        return held.size();
+    }
+
+    private void returnItems(Reservation reservation) {
+        held.remove(reservation.id);
+        for (int line = 0; line < reservation.products.length; line++) {
+            giveBack(reservation.products[line], reservation.quantities[line]);
+        }
+    }
+
+    // Held items stay in the stock on hand, so only availableItems changes
+    private boolean take(Product product, int quantity) {
+        while (true) {
+            int available = product.getAvailableItems();
+            if (available < quantity) {
+                return false;
+            }
+            if (product.compareAndSetAvailableItems(available, available - quantity)) {
+                return true;
+            }
+            casRetries.increment();
+        }
+    }
+
+    private void giveBack(Product product, int quantity) {
+        while (true) {
+            int available = product.getAvailableItems();
+            if (product.compareAndSetAvailableItems(available, available + quantity)) {
+                return;
+            }
+            casRetries.increment();
+        }
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "Reservations: " + held.size() + " held, " + reservations.sum() + " made, "
+                + rejections.sum() + " rejected for stock, " + commits.sum() + " committed, "
+                + releases.sum() + " released, " + expiries.sum() + " expired, "
+                + casRetries.sum() + " CAS retries";
+    }
+}
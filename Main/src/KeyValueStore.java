@@ -0,0 +1,464 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+// Embedded, single-process key-value store (a small log-structured merge tree).
+//
+// Writes go to a write-ahead log and an in-memory sorted memtable. When the memtable grows past
+// MEMTABLE_LIMIT bytes it is written out as an immutable sorted table file (SSTable) and the log is
+// emptied. Reads check the memtable, then the tables from newest to oldest. Each table keeps a sparse
+// index of every INDEX_INTERVAL-th key in memory, so a point read costs a binary search plus one small
+// positional read per table. Once there are more than MAX_TABLES tables they are merged into one.
+//
+// Files in the directory:
+//   wal.log          log records: length, CRC32, operation, key, value
+//   MANIFEST         names of the live tables, newest first, replaced atomically
+//   table-N.sst      records (key length, key, value length or -1 for a deletion, value), then the
+//                    sparse index (key length, key, record offset), then a footer
+//
+// Tables and the MANIFEST are written to a temporary file, forced and renamed, and the directory is
+// synced after each rename. Only then is the log emptied or an old table deleted, so after a crash the
+// MANIFEST names tables that exist and the log still holds anything not yet in one of them.
+//
+// A crash can lose nothing that put/delete with sync=true, or a later sync(), has returned from.
+// A torn record at the end of the log is cut off when the store is opened.
+public class KeyValueStore implements AutoCloseable {
+    private static final int TABLE_MAGIC = 0x57534B56; // "WSKV"
+    private static final int FOOTER_SIZE = 16;
+    private static final int INDEX_INTERVAL = 16;
+    private static final int MAX_TABLES = 4;
+    private static final long MEMTABLE_LIMIT = 4L << 20;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    private static final byte[] TOMBSTONE = new byte[0]; // compared by identity, marks a deleted key
+
+    private final Path directory;
+    private final Path walFile;
+    private final Path manifestFile;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ConcurrentSkipListMap<String, byte[]> memtable = new ConcurrentSkipListMap<>();
+    private final List<Table> tables = new ArrayList<>(); // newest first
+    private FileChannel wal;
+    private long memtableBytes;
+    private int nextTableNumber;
+
+    public KeyValueStore(Path directory) throws IOException {
+        this.directory = directory;
+        this.walFile = directory.resolve("wal.log");
+        this.manifestFile = directory.resolve("MANIFEST");
+        Files.createDirectories(directory);
+        boolean newLog = !Files.exists(walFile);
+        if (Files.exists(manifestFile)) {
+            for (String name : Files.readAllLines(manifestFile, StandardCharsets.UTF_8)) {
+                if (!name.isEmpty()) {
+                    tables.add(new Table(directory.resolve(name)));
+                    nextTableNumber = Math.max(nextTableNumber, tableNumber(name) + 1);
+                }
+            }
+        }
+        this.wal = FileChannel.open(walFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (newLog) {
+            FileSync.syncDirectory(directory); // Or a synced write to the new log could vanish with its name
+        }
+        recoverLog();
+    }
+
+    public byte[] get(String key) throws IOException {
+        lock.readLock().lock();
+        try {
+            byte[] value = memtable.get(key);
+            if (value == null) {
+                for (Table table : tables) {
+                    value = table.get(key);
+                    if (value != null) {
+                        break;
+                    }
+                }
+            }
+            return value == TOMBSTONE ? null : value;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String key) throws IOException {
+        return get(key) != null;
+    }
+
+    // Every live key with from <= key < to, in key order
+    public TreeMap<String, byte[]> scan(String from, String to) throws IOException {
+        lock.readLock().lock();
+        try {
+            TreeMap<String, byte[]> result = new TreeMap<>();
+            // Oldest first, so newer versions of a key replace older ones
+            for (int i = tables.size() - 1; i >= 0; i--) {
+                tables.get(i).scan(from, to, result);
+            }
+            result.putAll(memtable.subMap(from, true, to, false));
+            result.values().removeIf(value -> value == TOMBSTONE);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Every live key starting with prefix
+    public TreeMap<String, byte[]> scanPrefix(String prefix) throws IOException {
+        return scan(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    // Stores a value, with sync=false the write is durable after the next sync()
+    public void put(String key, byte[] value, boolean sync) throws IOException {
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null");
+        }
+        write(OP_PUT, key, value, sync);
+    }
+
+    public void delete(String key, boolean sync) throws IOException {
+        write(OP_DELETE, key, TOMBSTONE, sync);
+    }
+
+    // Forces every write so far to disk
+    public void sync() throws IOException {
+        lock.writeLock().lock();
+        try {
+            wal.force(false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int getTableCount() {
+        lock.readLock().lock();
+        try {
+            return tables.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getMemtableBytes() {
+        lock.readLock().lock();
+        try {
+            return memtableBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            wal.force(false);
+            wal.close();
+            for (Table table : tables) {
+                table.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void write(byte operation, String key, byte[] value, boolean sync) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = 1 + 4 + keyBytes.length + value.length;
+        ByteBuffer record = ByteBuffer.allocate(8 + bodyLength);
+        record.putInt(bodyLength).putInt(0).put(operation).putInt(keyBytes.length).put(keyBytes).put(value);
+        CRC32 checksum = new CRC32();
+        checksum.update(record.array(), 8, bodyLength);
+        record.putInt(4, (int) checksum.getValue());
+        record.flip();
+
+        lock.writeLock().lock();
+        try {
+            while (record.hasRemaining()) {
+                wal.write(record);
+            }
+            if (sync) {
+                wal.force(false);
+            }
+            byte[] previous = memtable.put(key, value);
+            memtableBytes += keyBytes.length + value.length - (previous != null ? previous.length : 0);
+            if (memtableBytes >= MEMTABLE_LIMIT) {
+                flush();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Rebuilds the memtable from the log after a restart
+    private void recoverLog() throws IOException {
+        ByteBuffer contents = ByteBuffer.allocate((int) wal.size());
+        wal.read(contents, 0);
+        contents.flip();
+        long validLength = 0;
+        while (contents.remaining() >= 8) {
+            int bodyLength = contents.getInt(contents.position());
+            int crc = contents.getInt(contents.position() + 4);
+            if (bodyLength < 5 || contents.remaining() < 8 + bodyLength) {
+                break;
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(contents.array(), contents.position() + 8, bodyLength);
+            if ((int) checksum.getValue() != crc) {
+                break;
+            }
+            contents.position(contents.position() + 8);
+            byte operation = contents.get();
+            byte[] keyBytes = new byte[contents.getInt()];
+            contents.get(keyBytes);
+            byte[] value = operation == OP_DELETE ? TOMBSTONE : new byte[bodyLength - 5 - keyBytes.length];
+            contents.get(value);
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            byte[] previous = memtable.put(key, value);
+            memtableBytes += keyBytes.length + value.length - (previous != null ? previous.length : 0);
+            validLength += 8 + bodyLength;
+        }
+        wal.truncate(validLength);
+        wal.position(validLength);
+    }
+
+    // Writes the memtable out as the newest table and empties the log
+    private void flush() throws IOException {
+        if (memtable.isEmpty()) {
+            return;
+        }
+        Table table = writeTable(memtable.entrySet().iterator(), true);
+        tables.add(0, table);
+        writeManifest();
+        // The memtable is safely in a table now, and the MANIFEST naming it is durable; a crash before
+        // this point replays the log again
+        wal.truncate(0);
+        wal.force(true);
+        memtable.clear();
+        memtableBytes = 0;
+        if (tables.size() > MAX_TABLES) {
+            compact();
+        }
+    }
+
+    // Merges every table into one; deletions can be dropped because no older table remains
+    private void compact() throws IOException {
+        TreeMap<String, byte[]> merged = new TreeMap<>();
+        for (int i = tables.size() - 1; i >= 0; i--) {
+            tables.get(i).scan("", null, merged);
+        }
+        Table table = writeTable(merged.entrySet().iterator(), false);
+        List<Table> old = new ArrayList<>(tables);
+        tables.clear();
+        tables.add(table);
+        writeManifest(); // Durable before the tables it no longer names are deleted
+        for (Table oldTable : old) {
+            oldTable.close();
+            Files.deleteIfExists(oldTable.file);
+        }
+    }
+
+    private Table writeTable(Iterator<Map.Entry<String, byte[]>> entries, boolean keepDeletions) throws IOException {
+        String name = "table-" + (nextTableNumber++) + ".sst";
+        Path file = directory.resolve(name);
+        Path tempFile = directory.resolve(name + ".tmp");
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBytes);
+        int indexCount = 0;
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            long offset = 0;
+            int records = 0;
+            while (entries.hasNext()) {
+                Map.Entry<String, byte[]> entry = entries.next();
+                byte[] value = entry.getValue();
+                if (value == TOMBSTONE && !keepDeletions) {
+                    continue;
+                }
+                byte[] keyBytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                if (records++ % INDEX_INTERVAL == 0) {
+                    index.writeInt(keyBytes.length);
+                    index.write(keyBytes);
+                    index.writeLong(offset);
+                    indexCount++;
+                }
+                out.writeInt(keyBytes.length);
+                out.write(keyBytes);
+                out.writeInt(value == TOMBSTONE ? -1 : value.length);
+                out.write(value);
+                offset += 8 + keyBytes.length + value.length;
+            }
+            out.write(indexBytes.toByteArray());
+            out.writeLong(offset);
+            out.writeInt(indexCount);
+            out.writeInt(TABLE_MAGIC);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileSync.syncDirectory(directory);
+        return new Table(file);
+    }
+
+    private void writeManifest() throws IOException {
+        StringBuilder names = new StringBuilder();
+        for (Table table : tables) {
+            names.append(table.file.getFileName()).append('\n');
+        }
+        Path tempFile = directory.resolve("MANIFEST.tmp");
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(names.toString().getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+        Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileSync.syncDirectory(directory);
+    }
+
+    private static int tableNumber(String name) {
+        return Integer.parseInt(name.substring("table-".length(), name.length() - ".sst".length()));
+    }
+
+    // One immutable sorted table file with its sparse index held in memory
+    private static class Table {
+        final Path file;
+        final FileChannel channel;
+        final String[] indexKeys;
+        final long[] indexOffsets;
+        final long dataLength;
+
+        Table(Path file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            channel.read(footer, channel.size() - FOOTER_SIZE);
+            footer.flip();
+            this.dataLength = footer.getLong();
+            int indexCount = footer.getInt();
+            if (footer.getInt() != TABLE_MAGIC) {
+                throw new IOException("Not a table file: " + file);
+            }
+            ByteBuffer index = ByteBuffer.allocate((int) (channel.size() - FOOTER_SIZE - dataLength));
+            channel.read(index, dataLength);
+            index.flip();
+            this.indexKeys = new String[indexCount];
+            this.indexOffsets = new long[indexCount];
+            for (int i = 0; i < indexCount; i++) {
+                byte[] keyBytes = new byte[index.getInt()];
+                index.get(keyBytes);
+                indexKeys[i] = new String(keyBytes, StandardCharsets.UTF_8);
+                indexOffsets[i] = index.getLong();
+            }
+        }
+
+        // The stored value, TOMBSTONE if the key was deleted, or null if this table doesn't know the key
+        byte[] get(String key) throws IOException {
+            int block = blockFor(key);
+            if (block < 0) {
+                return null;
+            }
+            ByteBuffer records = readBlock(block);
+            while (records.hasRemaining()) {
+                String recordKey = readKey(records);
+                int comparison = recordKey.compareTo(key);
+                if (comparison == 0) {
+                    return readValue(records);
+                } else if (comparison > 0) {
+                    return null;
+                }
+                skipValue(records);
+            }
+            return null;
+        }
+
+        // Adds the records with from <= key < to (to == null for no upper bound) to result
+        void scan(String from, String to, TreeMap<String, byte[]> result) throws IOException {
+            int block = Math.max(0, blockFor(from));
+            for (; block < indexKeys.length; block++) {
+                ByteBuffer records = readBlock(block);
+                while (records.hasRemaining()) {
+                    String key = readKey(records);
+                    if (to != null && key.compareTo(to) >= 0) {
+                        return;
+                    }
+                    byte[] value = readValue(records);
+                    if (key.compareTo(from) >= 0) {
+                        result.put(key, value);
+                    }
+                }
+            }
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+
+        // Index of the last block whose first key is <= key, -1 if key sorts before every block
+        private int blockFor(String key) {
+            int low = 0;
+            int high = indexKeys.length - 1;
+            int found = -1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (indexKeys[middle].compareTo(key) <= 0) {
+                    found = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return found;
+        }
+
+        private ByteBuffer readBlock(int block) throws IOException {
+            long start = indexOffsets[block];
+            long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataLength;
+            ByteBuffer records = ByteBuffer.allocate((int) (end - start));
+            while (records.hasRemaining()) {
+                if (channel.read(records, start + records.position()) < 0) {
+                    throw new IOException("Unexpected end of table file: " + file);
+                }
+            }
+            records.flip();
+            return records;
+        }
+
+        private static String readKey(ByteBuffer records) {
+            byte[] keyBytes = new byte[records.getInt()];
+            records.get(keyBytes);
+            return new String(keyBytes, StandardCharsets.UTF_8);
+        }
+
+        private static byte[] readValue(ByteBuffer records) {
+            int length = records.getInt();
+            if (length < 0) {
+                return TOMBSTONE;
+            }
+            byte[] value = new byte[length];
+            records.get(value);
+            return value;
+        }
+
+        private static void skipValue(ByteBuffer records) {
+            int length = records.getInt();
+            records.position(records.position() + Math.max(0, length));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Runs password hashing and verification on a small bounded pool, off the Swing event thread.
+//
+// The pool has one thread per CPU, so a burst of logins can't oversubscribe the machine, and a bounded
+// queue; work that doesn't fit is rejected straight away ("try again") rather than piling up. The
+// latency of the last LATENCY_SAMPLES verifications is kept for percentiles, together with how busy
+// the pool has been.
+public class LoginVerifier implements AutoCloseable {
+    private static final int LATENCY_SAMPLES = 1024;
+
+    private final ThreadPoolExecutor pool;
+    private final int queueCapacity;
+
+    // Metrics
+    private final long[] latencies = new long[LATENCY_SAMPLES]; // ring buffer of nanoseconds, queueing included
+    private long latencyCount;
+    private int maxQueueDepth;
+    private final AtomicLong rejected = new AtomicLong();
+
+    public LoginVerifier(int threads, int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "login-verifier");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    // Runs a hashing task on the pool; the future fails with RejectedExecutionException when the pool is full
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        long submitted = System.nanoTime();
+        try {
+            CompletableFuture<T> result = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return task.get();
+                } finally {
+                    recordLatency(System.nanoTime() - submitted);
+                }
+            }, pool);
+            recordQueueDepth(pool.getQueue().size());
+            return result;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Too many logins at once, please try again"));
+        }
+    }
+
+    // Latency percentile (0-100) of recent tasks in milliseconds, or 0 if none have run
+    public synchronized double getLatencyPercentile(double percentile) {
+        int count = (int) Math.min(latencyCount, LATENCY_SAMPLES);
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.min(count - 1, Math.ceil(percentile / 100 * count) - 1);
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+
+    public synchronized long getTasksCompleted() {
+        return latencyCount;
+    }
+
+    public synchronized int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Login verifications: %d, latency p50 %.1f ms, p90 %.1f ms, p99 %.1f ms"
+                        + ", pool: %d/%d busy, queue %d/%d (max %d), rejected %d",
+                getTasksCompleted(), getLatencyPercentile(50), getLatencyPercentile(90), getLatencyPercentile(99),
+                pool.getActiveCount(), pool.getMaximumPoolSize(), pool.getQueue().size(), queueCapacity,
+                getMaxQueueDepth(), getRejected());
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        latencies[(int) (latencyCount % LATENCY_SAMPLES)] = nanos;
+        latencyCount++;
+    }
+
+    private synchronized void recordQueueDepth(int depth) {
+        maxQueueDepth = Math.max(maxQueueDepth, depth);
+    }
+}
@@ -0,0 +1,104 @@
+import java.math.RoundingMode;
+
+// Fixed-point money: amounts are longs counting minor units (cents), so sums are exact and nothing is
+// allocated. Every operation that can lose a fraction of a cent takes an explicit RoundingMode.
+// Arithmetic that would overflow a long throws ArithmeticException instead of wrapping.
+public final class Money {
+    public static final long MINOR_PER_MAJOR = 100;
+    private static final long BASIS_POINTS_PER_WHOLE = 10_000; // 100% in hundredths of a percent
+
+    private Money() {
+    }
+
+    // Minor units of a decimal amount such as a product price, rounded half up to the nearest cent.
+    // Exact for amounts with at most two decimals, which is what prices are entered with.
+    public static long ofMajor(double amount) {
+        if (Double.isNaN(amount) || Double.isInfinite(amount) || Math.abs(amount) >= Long.MAX_VALUE / MINOR_PER_MAJOR) {
+            throw new ArithmeticException("Not a money amount: " + amount);
+        }
+        return Math.round(amount * MINOR_PER_MAJOR);
+    }
+
+    // The amount as a double, for display code and the double-based APIs; exact to the cent up to
+    // about 90 trillion
+    public static double toMajor(long minor) {
+        return (double) minor / MINOR_PER_MAJOR;
+    }
+
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    public static long times(long minor, long quantity) {
+        return Math.multiplyExact(minor, quantity);
+    }
+
+    // A percentage given in basis points (hundredths of a percent, 2000 = 20%) of an amount
+    public static long percentage(long minor, long basisPoints, RoundingMode mode) {
+        return divide(Math.multiplyExact(minor, basisPoints), BASIS_POINTS_PER_WHOLE, mode);
+    }
+
+    // A percentage such as 12.5 in basis points, rounded to the nearest basis point
+    public static long basisPoints(double percent) {
+        return Math.round(percent * 100);
+    }
+
+    // dividend / divisor rounded with mode; divisor must be positive
+    public static long divide(long dividend, long divisor, RoundingMode mode) {
+        if (divisor <= 0) {
+            throw new ArithmeticException("Divisor must be positive: " + divisor);
+        }
+        long quotient = dividend / divisor; // Truncated toward zero
+        long remainder = dividend % divisor;
+        if (remainder == 0) {
+            return quotient;
+        }
+        int sign = dividend < 0 ? -1 : 1;
+        long twiceRemainder = Math.abs(remainder) * 2; // remainder < divisor, so this can't overflow for divisor <= Long.MAX_VALUE / 2
+        boolean awayFromZero;
+        switch (mode) {
+            case UP:
+                awayFromZero = true;
+                break;
+            case DOWN:
+                awayFromZero = false;
+                break;
+            case CEILING:
+                awayFromZero = sign > 0;
+                break;
+            case FLOOR:
+                awayFromZero = sign < 0;
+                break;
+            case HALF_UP:
+                awayFromZero = twiceRemainder >= divisor;
+                break;
+            case HALF_DOWN:
+                awayFromZero = twiceRemainder > divisor;
+                break;
+            case HALF_EVEN:
+                awayFromZero = twiceRemainder > divisor || (twiceRemainder == divisor && (quotient & 1) != 0);
+                break;
+            default:
+                throw new ArithmeticException("Rounding necessary: " + dividend + " / " + divisor);
+        }
+        return awayFromZero ? quotient + sign : quotient;
+    }
+
+    // "1234.50", "-0.05". Negative amounts are split into major units and cents before the sign is
+    // dropped, since -Long.MIN_VALUE doesn't fit in a long but the two parts always do.
+    public static String format(long minor) {
+        StringBuilder text = new StringBuilder(24);
+        long major = minor / MINOR_PER_MAJOR;
+        long cents = minor % MINOR_PER_MAJOR;
+        if (minor < 0) {
+            text.append('-');
+            major = -major;
+            cents = -cents;
+        }
+        text.append(major).append('.');
+        if (cents < 10) {
+            text.append('0');
+        }
+        return text.append(cents).toString();
+    }
+}
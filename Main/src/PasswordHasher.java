@@ -0,0 +1,132 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+// Salted PBKDF2-HMAC-SHA256 password hashes, stored as "pbkdf2$<iterations>$<salt>$<hash>" with the
+// salt and hash in Base64. The iteration count is part of every stored hash, so it can be raised
+// (see calibrate) without invalidating existing ones; older hashes are upgraded at the next login.
+//
+// Accounts created before hashing hold the plain password. verify still accepts those, and
+// needsRehash tells the caller to replace them with a hash once the password has been checked.
+public class PasswordHasher {
+    private static final String PREFIX = "pbkdf2$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final int MIN_ITERATIONS = 10_000;
+    private static final int MAX_ITERATIONS = 10_000_000;
+    private static final double RECALIBRATION_MARGIN = 0.25; // see calibrate(long, int)
+    private static final int CALIBRATION_ROUND = 2_000; // iterations per timed calibration round
+    private static final int MIN_CALIBRATION_ITERATIONS = 300_000; // enough for the JIT to finish compiling
+
+    private final SecureRandom random = new SecureRandom();
+    private volatile int iterations = 210_000;
+
+    // Chooses the iteration count so one verification takes about targetMillis on this machine, once
+    // the JIT has compiled the hashing code (the first hundred thousand or so iterations run several
+    // times slower). Short rounds are timed until the fastest stops improving, for at most two seconds.
+    // Never goes below MIN_ITERATIONS, whatever the machine's speed.
+    public int calibrate(long targetMillis) {
+        byte[] salt = new byte[SALT_BYTES];
+        long deadline = System.nanoTime() + 2_000_000_000L;
+        double best = Double.MAX_VALUE; // nanoseconds per iteration
+        int roundsWithoutImprovement = 0;
+        long total = 0;
+        while ((total < MIN_CALIBRATION_ITERATIONS || roundsWithoutImprovement < 10) && System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            derive("calibration", salt, CALIBRATION_ROUND);
+            double perIteration = (double) (System.nanoTime() - start) / CALIBRATION_ROUND;
+            if (perIteration < best * 0.95) {
+                roundsWithoutImprovement = 0;
+            } else {
+                roundsWithoutImprovement++;
+            }
+            best = Math.min(best, perIteration);
+            total += CALIBRATION_ROUND;
+        }
+        long calibrated = (long) (targetMillis * 1_000_000.0 / best);
+        iterations = (int) Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, calibrated));
+        return iterations;
+    }
+
+    // Calibrates as above but keeps previous, the count an earlier run settled on (0 if none), unless
+    // this run measured more than RECALIBRATION_MARGIN above it. Every hash below the count in force is
+    // rewritten at its next login, and measurements move by tens of percent from one start to the next,
+    // mostly downwards on a JVM that has only just started; taking each one would re-hash users after
+    // ordinary restarts. A lower measurement never lowers the count, which would weaken new hashes.
+    public int calibrate(long targetMillis, int previous) {
+        int measured = calibrate(targetMillis);
+        if (previous >= MIN_ITERATIONS && previous <= MAX_ITERATIONS && measured <= previous * (1 + RECALIBRATION_MARGIN)) {
+            iterations = previous;
+        }
+        return iterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        int count = iterations;
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + count + "$" + base64.encodeToString(salt) + "$"
+                + base64.encodeToString(derive(password, salt, count));
+    }
+
+    // True if password matches the stored hash (or stored plain password), in time independent of
+    // where the two differ
+    public boolean verify(String password, String stored) {
+        if (stored == null) {
+            return false;
+        }
+        if (!isHashed(stored)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            int count = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(expected, derive(password, salt, count));
+        } catch (IllegalArgumentException e) {
+            return false; // Malformed hash
+        }
+    }
+
+    public static boolean isHashed(String stored) {
+        return stored != null && stored.startsWith(PREFIX);
+    }
+
+    // True if the stored credential is a plain password or uses fewer iterations than current hashes
+    public boolean needsRehash(String stored) {
+        if (!isHashed(stored)) {
+            return true;
+        }
+        String[] parts = stored.split("\\$");
+        try {
+            return parts.length != 4 || Integer.parseInt(parts[1]) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static byte[] derive(String password, byte[] salt, int count) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, count, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Writes snapshots on a single background thread so callers (the Swing event thread in particular)
+// never block on file I/O.
+//
+// A save starts by capturing a consistent copy of the state through the supplied capture function,
+// which is expected to hold the state lock only while copying. The copy is then written to disk
+// without any lock. Requests that arrive while a save is waiting to start are coalesced into it and
+// share its future, so a burst of requests costs one write.
+public class PersistenceService implements AutoCloseable {
+    private final Callable<Snapshot> capture;
+    private final ExecutorService writer;
+    private CompletableFuture<Void> pending; // save that has been requested but not started yet
+    private int pendingRequests;
+
+    // Metrics
+    private long savesCompleted;
+    private long savesFailed;
+    private long requestsCoalesced;
+    private int maxQueueDepth;
+    private long lastCaptureMillis;
+    private long lastWriteMillis;
+    private long maxWriteMillis;
+
+    // A captured copy of the state, ready to be written out
+    public interface Snapshot {
+        void write() throws IOException;
+    }
+
+    public PersistenceService(Callable<Snapshot> capture) {
+        this.capture = capture;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Asks for a save; the future completes once a snapshot taken after this call is on disk
+    public synchronized CompletableFuture<Void> requestSave() {
+        if (pending != null) {
+            pendingRequests++;
+            requestsCoalesced++;
+            maxQueueDepth = Math.max(maxQueueDepth, pendingRequests);
+            return pending;
+        }
+        pending = new CompletableFuture<>();
+        pendingRequests = 1;
+        maxQueueDepth = Math.max(maxQueueDepth, pendingRequests);
+        CompletableFuture<Void> result = pending;
+        writer.execute(this::save);
+        return result;
+    }
+
+    // Number of save requests waiting for the next snapshot
+    public synchronized int getQueueDepth() {
+        return pendingRequests;
+    }
+
+    public synchronized int getMaxQueueDepth() { return maxQueueDepth; }
+    public synchronized long getSavesCompleted() { return savesCompleted; }
+    public synchronized long getSavesFailed() { return savesFailed; }
+    public synchronized long getRequestsCoalesced() { return requestsCoalesced; }
+    public synchronized long getLastCaptureMillis() { return lastCaptureMillis; }
+    public synchronized long getLastWriteMillis() { return lastWriteMillis; }
+    public synchronized long getMaxWriteMillis() { return maxWriteMillis; }
+
+    @Override
+    public synchronized String toString() {
+        return "Snapshots written: " + savesCompleted + " (failed " + savesFailed + ")"
+                + ", coalesced requests: " + requestsCoalesced
+                + ", queue depth: " + pendingRequests + " (max " + maxQueueDepth + ")"
+                + ", last capture: " + lastCaptureMillis + " ms"
+                + ", last write: " + lastWriteMillis + " ms (max " + maxWriteMillis + " ms)";
+    }
+
+    // Finishes any queued save, then stops the writer thread
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void save() {
+        CompletableFuture<Void> future;
+        synchronized (this) {
+            // Later requests start a new save, they need a snapshot taken after they were made
+            future = pending;
+            pending = null;
+            pendingRequests = 0;
+        }
+        try {
+            long start = System.nanoTime();
+            Snapshot snapshot = capture.call();
+            long captured = System.nanoTime();
+            snapshot.write();
+            long written = System.nanoTime();
+            synchronized (this) {
+                savesCompleted++;
+                lastCaptureMillis = TimeUnit.NANOSECONDS.toMillis(captured - start);
+                lastWriteMillis = TimeUnit.NANOSECONDS.toMillis(written - captured);
+                maxWriteMillis = Math.max(maxWriteMillis, lastWriteMillis);
+            }
+            future.complete(null);
+        } catch (Exception e) {
+            synchronized (this) {
+                savesFailed++;
+            }
+            future.completeExceptionally(e);
+        }
+    }
+}
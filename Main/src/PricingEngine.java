@@ -0,0 +1,656 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Promotions and the discounts they give a cart.
+//
+// Rules are read from a text file, one rule per line, as key=value pairs (values containing spaces go
+// in double quotes). Blank lines and lines starting with # are ignored. For example:
+//
+//   name="Three in one category" type=percent category=* min-items=3 percent=20 priority=20
+//   name="First purchase" type=percent customer=first-purchase percent=10 priority=10
+//   name="Sony week" type=percent brand=Sony percent=15 priority=50 group=brand
+//   name="Socks 3 for 2" type=buy-n product=C0001,C0002 buy=2 free=1
+//   name="Desk set" type=bundle product=E0001,E0002 percent=25 priority=90 exclusive=true
+//
+// What a rule looks at, at most one of (none means the whole cart):
+//   category=<name>    products of that category; category=* means any one category on its own
+//   product=<id,...>   the listed products
+//   brand=<name>       electronics of that brand
+//   size=<size>        clothing of that size
+// customer=first-purchase limits a rule to users without earlier purchases.
+//
+// Types:
+//   percent  percent off the matched items once at least min-items (default 1) of them are in the
+//            cart. With applies-to=cart, and always for the whole cart or category=*, the percentage
+//            is taken off the whole subtotal.
+//   buy-n    for every buy+free items of one matched product, free of them cost nothing
+//   bundle   percent off every complete set of the listed products
+//
+// Rules are applied from the highest priority down, in file order for equal priorities. Each discount
+// is computed on the subtotal, so applying rules do not reduce one another. Of the rules sharing a
+// group only the first that applies counts. An exclusive rule that applies ends the evaluation.
+// Discounts never take the total below zero. Amounts are in cents (see Money) and percentages are
+// rounded half up to the cent.
+//
+// Loading compiles the rules into lookup tables keyed by what triggers them: category, product,
+// brand and size. Evaluating a cart therefore only visits the rules its lines can trigger, plus the
+// few that look at the whole cart, however many promotions there are.
+//
+// A cart also keeps a Totals of these rules: each rule's item count, amount and so on, updated as lines
+// are added, changed and removed. Pricing the cart then only re-computes the discounts of the rules the
+// edits touched, plus the few that follow the subtotal, so it takes the same time for 5 lines as for
+// 5,000.
+public class PricingEngine {
+    // The discounts the shop has always given, used when there is no promotions file
+    static final List<String> DEFAULT_RULES = Arrays.asList(
+            "name=\"Three Items in the same Category Discount (20%)\" type=percent category=* min-items=3 percent=20 priority=20",
+            "name=\"First Purchase Discount (10%)\" type=percent customer=first-purchase percent=10 priority=10");
+
+    private static final RoundingMode DISCOUNT_ROUNDING = RoundingMode.HALF_UP;
+
+    private static final int PERCENT = 0;
+    private static final int BUY_N = 1;
+    private static final int BUNDLE = 2;
+
+    private static final int WHOLE_CART = 0;
+    private static final int ANY_CATEGORY = 1;
+    private static final int CATEGORY = 2;
+    private static final int PRODUCT = 3;
+    private static final int BRAND = 4;
+    private static final int SIZE = 5;
+
+    private static volatile PricingEngine defaults;
+
+    private final String source;
+    private final Rule[] rules; // highest priority first, a rule's index is its ID in the tables below
+    private final int[] cartRules;
+    private final HashMap<String, int[]> rulesByCategory = new HashMap<>();
+    private final HashMap<String, int[]> rulesByBrand = new HashMap<>();
+    private final HashMap<String, int[]> rulesBySize = new HashMap<>();
+    private final LongIntHashMap productSlots = new LongIntHashMap(); // product key -> index in rulesByProduct
+    private final int[][] rulesByProduct;
+    private final int groupCount;
+    // Per-thread evaluation state, so evaluating a cart allocates nothing but its result
+    private final ThreadLocal<Evaluation> evaluations;
+
+    // One discount given to a cart
+    public static final class AppliedPromotion {
+        private final String name;
+        private final long amount; // cents
+
+        AppliedPromotion(String name, long amount) {
+            this.name = name;
+            this.amount = amount;
+        }
+
+        public String getName() { return name; }
+        public long getAmountMinor() { return amount; }
+        public double getAmount() { return Money.toMajor(amount); }
+    }
+
+    // Subtotal, discounts and total of one cart
+    public static final class Result {
+        private final long subtotal; // cents
+        private final long discount;
+        private final List<AppliedPromotion> applied;
+
+        Result(long subtotal, long discount, List<AppliedPromotion> applied) {
+            this.subtotal = subtotal;
+            this.discount = discount;
+            this.applied = applied;
+        }
+
+        public long getSubtotalMinor() { return subtotal; }
+        public long getDiscountMinor() { return discount; }
+        public long getTotalMinor() { return subtotal - discount; }
+        public double getTotal() { return Money.toMajor(subtotal - discount); }
+        public List<AppliedPromotion> getApplied() { return applied; }
+    }
+
+    // A parsed promotion
+    static final class Rule {
+        final String name;
+        final int type;
+        final int target;
+        final String[] values; // category, brand, size or product IDs, depending on target
+        final boolean firstPurchaseOnly;
+        final boolean appliesToCart;
+        final int minItems;
+        final long basisPoints; // the percentage in hundredths of a percent
+        final int buy;
+        final int free;
+        final int priority;
+        final boolean exclusive;
+        final String group;
+        int groupId = -1;
+
+        Rule(Map<String, String> fields) {
+            name = require(fields, "name");
+            type = choose(fields, "type", Arrays.asList("percent", "buy-n", "bundle"));
+            String category = fields.remove("category");
+            String product = fields.remove("product");
+            String brand = fields.remove("brand");
+            String size = fields.remove("size");
+            int targets = (category != null ? 1 : 0) + (product != null ? 1 : 0) + (brand != null ? 1 : 0) + (size != null ? 1 : 0);
+            if (targets > 1) {
+                throw new IllegalArgumentException("only one of category, product, brand and size can be given");
+            }
+            if (category != null) {
+                target = category.equals("*") ? ANY_CATEGORY : CATEGORY;
+                values = new String[]{category};
+            } else if (product != null) {
+                target = PRODUCT;
+                values = Arrays.stream(product.split(",")).map(String::trim).map(id -> id.toUpperCase(Locale.ROOT))
+                        .distinct().toArray(String[]::new);
+                for (String id : values) {
+                    if (!ProductKey.isValid(id)) {
+                        throw new IllegalArgumentException("invalid product ID " + id);
+                    }
+                }
+            } else if (brand != null) {
+                target = BRAND;
+                values = new String[]{brand};
+            } else if (size != null) {
+                target = SIZE;
+                values = new String[]{size.toUpperCase(Locale.ROOT)};
+            } else {
+                target = WHOLE_CART;
+                values = new String[0];
+            }
+            String customer = fields.remove("customer");
+            if (customer != null && !customer.equals("first-purchase")) {
+                throw new IllegalArgumentException("unknown customer " + customer);
+            }
+            firstPurchaseOnly = customer != null;
+            String appliesTo = fields.remove("applies-to");
+            if (appliesTo != null && !appliesTo.equals("cart") && !appliesTo.equals("matched")) {
+                throw new IllegalArgumentException("applies-to must be cart or matched");
+            }
+            appliesToCart = "cart".equals(appliesTo) || target == WHOLE_CART || target == ANY_CATEGORY;
+            minItems = intField(fields, "min-items", 1);
+            double percent = type == BUY_N ? 0 : doubleField(fields, "percent");
+            basisPoints = Money.basisPoints(percent);
+            if (percent < 0 || percent > 100) {
+                throw new IllegalArgumentException("percent must be between 0 and 100");
+            }
+            buy = type == BUY_N ? intField(fields, "buy", -1) : 0;
+            free = type == BUY_N ? intField(fields, "free", -1) : 0;
+            if (type == BUY_N && (buy < 1 || free < 1)) {
+                throw new IllegalArgumentException("buy-n needs buy and free of at least 1");
+            }
+            if ((type == BUY_N || type == BUNDLE) && (target == WHOLE_CART || target == ANY_CATEGORY)) {
+                throw new IllegalArgumentException(fieldName(type) + " needs a category, product, brand or size");
+            }
+            if (type == BUNDLE && target != PRODUCT) {
+                throw new IllegalArgumentException("bundle needs a product list");
+            }
+            priority = intField(fields, "priority", 0);
+            exclusive = Boolean.parseBoolean(fields.getOrDefault("exclusive", "false"));
+            fields.remove("exclusive");
+            group = fields.remove("group");
+            if (!fields.isEmpty()) {
+                throw new IllegalArgumentException("unknown field " + fields.keySet().iterator().next());
+            }
+        }
+
+        private static String fieldName(int type) {
+            return type == BUY_N ? "buy-n" : type == BUNDLE ? "bundle" : "percent";
+        }
+    }
+
+    // Per-rule sums over the cart lines, indexed by rule ID; only the touched entries are cleared by reset
+    private static final class Evaluation {
+        final boolean[] touched;
+        final int[] touchedRules;
+        int touchedCount;
+        final BitSet changed = new BitSet(); // rules whose sums changed since this was last cleared
+        final int[] items;
+        final long[] amount;
+        final long[] lineDiscount;
+        final int[] bundleProducts; // how many of the bundle's products are in the cart
+        final long[] bundlePrice; // one of each of them
+        final long[] discount; // what the rule gives on its own
+        final boolean[] groupUsed;
+
+        Evaluation(int ruleCount, int groupCount) {
+            touched = new boolean[ruleCount];
+            touchedRules = new int[ruleCount];
+            items = new int[ruleCount];
+            amount = new long[ruleCount];
+            lineDiscount = new long[ruleCount];
+            bundleProducts = new int[ruleCount];
+            bundlePrice = new long[ruleCount];
+            discount = new long[ruleCount];
+            groupUsed = new boolean[groupCount];
+        }
+
+        void touch(int rule) {
+            if (!touched[rule]) {
+                touched[rule] = true;
+                touchedRules[touchedCount++] = rule;
+            }
+            changed.set(rule);
+        }
+
+        void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                int rule = touchedRules[i];
+                touched[rule] = false;
+                items[rule] = 0;
+                amount[rule] = 0;
+                lineDiscount[rule] = 0;
+                bundleProducts[rule] = 0;
+                bundlePrice[rule] = 0;
+                discount[rule] = 0;
+            }
+            touchedCount = 0;
+            changed.clear();
+            Arrays.fill(groupUsed, false);
+        }
+    }
+
+    private PricingEngine(String source, List<Rule> parsed) {
+        this.source = source;
+        List<Rule> sorted = new ArrayList<>(parsed);
+        sorted.sort(Comparator.comparingInt((Rule rule) -> rule.priority).reversed()); // Stable, file order stays for ties
+        rules = sorted.toArray(new Rule[0]);
+
+        HashMap<String, Integer> groups = new HashMap<>();
+        List<Integer> cart = new ArrayList<>();
+        HashMap<String, List<Integer>> categories = new HashMap<>();
+        HashMap<String, List<Integer>> brands = new HashMap<>();
+        HashMap<String, List<Integer>> sizes = new HashMap<>();
+        LinkedHashMap<Long, List<Integer>> products = new LinkedHashMap<>();
+        for (int id = 0; id < rules.length; id++) {
+            Rule rule = rules[id];
+            if (rule.group != null) {
+                rule.groupId = groups.computeIfAbsent(rule.group, group -> groups.size());
+            }
+            switch (rule.target) {
+                case WHOLE_CART:
+                case ANY_CATEGORY:
+                    cart.add(id);
+                    break;
+                case CATEGORY:
+                    categories.computeIfAbsent(rule.values[0], key -> new ArrayList<>()).add(id);
+                    break;
+                case BRAND:
+                    brands.computeIfAbsent(rule.values[0], key -> new ArrayList<>()).add(id);
+                    break;
+                case SIZE:
+                    sizes.computeIfAbsent(rule.values[0], key -> new ArrayList<>()).add(id);
+                    break;
+                default:
+                    for (String productId : rule.values) {
+                        products.computeIfAbsent(ProductKey.encode(productId), key -> new ArrayList<>()).add(id);
+                    }
+                    break;
+            }
+        }
+        groupCount = groups.size();
+        cartRules = toArray(cart);
+        categories.forEach((key, ids) -> rulesByCategory.put(key, toArray(ids)));
+        brands.forEach((key, ids) -> rulesByBrand.put(key, toArray(ids)));
+        sizes.forEach((key, ids) -> rulesBySize.put(key, toArray(ids)));
+        rulesByProduct = new int[products.size()][];
+        int slot = 0;
+        for (Map.Entry<Long, List<Integer>> entry : products.entrySet()) {
+            productSlots.put(entry.getKey(), slot, -1);
+            rulesByProduct[slot++] = toArray(entry.getValue());
+        }
+        int ruleCount = rules.length;
+        evaluations = ThreadLocal.withInitial(() -> new Evaluation(ruleCount, groupCount));
+    }
+
+    // The shop's built-in discounts
+    public static PricingEngine defaults() {
+        PricingEngine engine = defaults;
+        if (engine == null) {
+            engine = parse(DEFAULT_RULES, "built-in rules");
+            defaults = engine;
+        }
+        return engine;
+    }
+
+    // Reads and compiles a promotions file; lines that can't be parsed are reported and skipped
+    public static PricingEngine load(Path file) throws IOException {
+        return parse(Files.readAllLines(file, StandardCharsets.UTF_8), file.toString());
+    }
+
+    static PricingEngine parse(List<String> lines, String source) {
+        List<Rule> parsed = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                parsed.add(new Rule(parseFields(line)));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Skipping promotion on line " + (i + 1) + " of " + source + ": " + e.getMessage());
+            }
+        }
+        return new PricingEngine(source, parsed);
+    }
+
+    // Prices the cart for the user (who may be null)
+    public Result evaluate(ShoppingCart cart, User user) {
+        Evaluation evaluation = evaluations.get();
+        try {
+            return evaluate(cart, user, evaluation);
+        } finally {
+            evaluation.reset();
+        }
+    }
+
+    private Result evaluate(ShoppingCart cart, User user, Evaluation evaluation) {
+        long subtotal = cart.getSubtotalMinor();
+        int totalItems = 0;
+        for (int i = 0; i < cart.getLineCount(); i++) {
+            int quantity = cart.getLineQuantity(i);
+            totalItems += quantity;
+            lineChanged(evaluation, cart.getLine(i), 0, quantity);
+        }
+        for (int rule : cartRules) {
+            evaluation.touch(rule);
+        }
+        // Rule IDs are in priority order, so the triggered rules only need sorting by ID
+        Arrays.sort(evaluation.touchedRules, 0, evaluation.touchedCount);
+        for (int i = 0; i < evaluation.touchedCount; i++) {
+            int id = evaluation.touchedRules[i];
+            evaluation.discount[id] = discountOf(rules[id], id, evaluation, cart, subtotal, totalItems);
+        }
+        return combine(evaluation.touchedRules, evaluation.touchedCount, evaluation.discount, evaluation.groupUsed, subtotal, user);
+    }
+
+    // Applies the discounts of the given rules, which are in ID order, honouring groups, first-purchase
+    // rules and exclusive rules
+    private Result combine(int[] ids, int count, long[] discounts, boolean[] groupUsed, long subtotal, User user) {
+        List<AppliedPromotion> applied = Collections.emptyList();
+        long discount = 0;
+        int firstPurchase = -1; // -1 not looked up yet, else 0 or 1
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            Rule rule = rules[id];
+            if (rule.groupId >= 0 && groupUsed[rule.groupId]) {
+                continue;
+            }
+            if (rule.firstPurchaseOnly) {
+                if (firstPurchase < 0) {
+                    firstPurchase = user != null && !user.hasPurchasedBefore() ? 1 : 0;
+                }
+                if (firstPurchase == 0) {
+                    continue;
+                }
+            }
+            long amount = Math.min(discounts[id], subtotal - discount);
+            if (amount <= 0) {
+                continue;
+            }
+            if (applied.isEmpty()) {
+                applied = new ArrayList<>(4);
+            }
+            applied.add(new AppliedPromotion(rule.name, amount));
+            discount += amount;
+            if (rule.groupId >= 0) {
+                groupUsed[rule.groupId] = true;
+            }
+            if (rule.exclusive) {
+                break;
+            }
+        }
+        Arrays.fill(groupUsed, false);
+        return new Result(subtotal, discount, applied);
+    }
+
+    // What the rule gives on its own, from its sums
+    private static long discountOf(Rule rule, int id, Evaluation evaluation, ShoppingCart cart, long subtotal, int totalItems) {
+        switch (rule.type) {
+            case BUY_N:
+                return evaluation.lineDiscount[id];
+            case BUNDLE:
+                if (evaluation.bundleProducts[id] < rule.values.length) {
+                    return 0; // Not every product of the bundle is in the cart
+                }
+                int sets = Integer.MAX_VALUE;
+                for (String productId : rule.values) {
+                    sets = Math.min(sets, cart.getProductQuantity(productId));
+                }
+                return Money.percentage(Money.times(evaluation.bundlePrice[id], sets), rule.basisPoints, DISCOUNT_ROUNDING);
+            default:
+                int items = rule.target == WHOLE_CART ? totalItems
+                        : rule.target == ANY_CATEGORY ? cart.getLargestCategoryCount()
+                        : evaluation.items[id];
+                if (items < rule.minItems) {
+                    return 0;
+                }
+                return Money.percentage(rule.appliesToCart ? subtotal : evaluation.amount[id], rule.basisPoints, DISCOUNT_ROUNDING);
+        }
+    }
+
+    // Updates the sums of the rules a cart line triggers for a change of its quantity
+    private void lineChanged(Evaluation evaluation, Product product, int oldQuantity, int newQuantity) {
+        if (!rulesByCategory.isEmpty()) {
+            lineChanged(evaluation, rulesByCategory.get(product.getCategory()), product, oldQuantity, newQuantity);
+        }
+        int slot = productSlots.get(product.getProductKey(), -1);
+        if (slot >= 0) {
+            lineChanged(evaluation, rulesByProduct[slot], product, oldQuantity, newQuantity);
+        }
+        if (!rulesByBrand.isEmpty() && product instanceof Electronics) {
+            lineChanged(evaluation, rulesByBrand.get(((Electronics) product).getBrand()), product, oldQuantity, newQuantity);
+        }
+        if (!rulesBySize.isEmpty() && product instanceof Clothing) {
+            String size = ((Clothing) product).getSize();
+            lineChanged(evaluation, size != null ? rulesBySize.get(size.toUpperCase(Locale.ROOT)) : null, product, oldQuantity, newQuantity);
+        }
+    }
+
+    private void lineChanged(Evaluation evaluation, int[] triggered, Product product, int oldQuantity, int newQuantity) {
+        if (triggered == null) {
+            return;
+        }
+        long price = product.getPriceMinor();
+        int delta = newQuantity - oldQuantity;
+        for (int id : triggered) {
+            Rule rule = rules[id];
+            evaluation.touch(id);
+            evaluation.items[id] += delta;
+            evaluation.amount[id] += Money.times(price, delta);
+            if (rule.type == BUY_N) {
+                int setSize = rule.buy + rule.free;
+                evaluation.lineDiscount[id] += Money.times(price, (long) (newQuantity / setSize - oldQuantity / setSize) * rule.free);
+            } else if (rule.type == BUNDLE && (oldQuantity == 0) != (newQuantity == 0)) {
+                evaluation.bundleProducts[id] += newQuantity > 0 ? 1 : -1;
+                evaluation.bundlePrice[id] += newQuantity > 0 ? price : -price;
+            }
+        }
+    }
+
+    // Running totals for one cart, kept by the cart and told of every change to its lines
+    Totals newTotals() {
+        return new Totals();
+    }
+
+    // The sums of every rule over one cart's lines, kept up to date as the lines change. Pricing the cart
+    // re-computes the discounts of the rules whose sums changed, of the whole-cart rules, and, when the
+    // subtotal moved, of the rules taken off the subtotal, then applies the rules that give anything.
+    // The sums are made at the price a line's product had at the time, so a price change, or a brand or
+    // size change, to any product makes the next pricing rebuild them from the lines, as the cart does
+    // its subtotal. Used only by the thread that changes the cart.
+    final class Totals {
+        private final Evaluation sums = new Evaluation(rules.length, groupCount);
+        private final BitSet giving = new BitSet(); // rules whose discount on their own is above zero
+        private final BitSet onSubtotal = new BitSet(); // percent off the subtotal, enough items matched
+        private int[] givingOrder = new int[8];
+        private int totalItems;
+        private long subtotal = -1; // the subtotal the discounts were last worked out on
+        private long pricedAt = -1; // Product.getPriceChangeCount() the sums were made at, -1 before any
+        private long attributesAt;
+
+        PricingEngine getEngine() {
+            return PricingEngine.this;
+        }
+
+        void lineChanged(Product product, int oldQuantity, int newQuantity) {
+            totalItems += newQuantity - oldQuantity;
+            PricingEngine.this.lineChanged(sums, product, oldQuantity, newQuantity);
+        }
+
+        void clear() {
+            sums.reset();
+            giving.clear();
+            onSubtotal.clear();
+            totalItems = 0;
+            subtotal = -1;
+        }
+
+        // Prices the cart for the user (who may be null)
+        Result total(ShoppingCart cart, User user) {
+            long priceChanges = Product.getPriceChangeCount();
+            long attributeChanges = Product.getAttributeChangeCount();
+            if (priceChanges != pricedAt || attributeChanges != attributesAt) {
+                clear();
+                for (int i = 0; i < cart.getLineCount(); i++) {
+                    lineChanged(cart.getLine(i), 0, cart.getLineQuantity(i));
+                }
+                pricedAt = priceChanges; // Read before the sums, so a change made during them is caught next time
+                attributesAt = attributeChanges;
+            }
+            long cartSubtotal = cart.getSubtotalMinor();
+            BitSet changed = sums.changed;
+            for (int id = changed.nextSetBit(0); id >= 0; id = changed.nextSetBit(id + 1)) {
+                refresh(id, cart, cartSubtotal);
+            }
+            changed.clear();
+            if (cartSubtotal != subtotal) {
+                for (int id = onSubtotal.nextSetBit(0); id >= 0; id = onSubtotal.nextSetBit(id + 1)) {
+                    refresh(id, cart, cartSubtotal);
+                }
+                subtotal = cartSubtotal;
+            }
+            for (int id : cartRules) {
+                refresh(id, cart, cartSubtotal); // Item counts over the whole cart aren't kept per rule
+            }
+
+            if (givingOrder.length < giving.cardinality()) {
+                givingOrder = new int[Math.max(giving.cardinality(), givingOrder.length * 2)];
+            }
+            int count = 0;
+            for (int id = giving.nextSetBit(0); id >= 0; id = giving.nextSetBit(id + 1)) {
+                givingOrder[count++] = id;
+            }
+            return combine(givingOrder, count, sums.discount, sums.groupUsed, cartSubtotal, user);
+        }
+
+        private void refresh(int id, ShoppingCart cart, long cartSubtotal) {
+            Rule rule = rules[id];
+            long discount = discountOf(rule, id, sums, cart, cartSubtotal, totalItems);
+            sums.discount[id] = discount;
+            giving.set(id, discount > 0);
+            onSubtotal.set(id, rule.type == PERCENT && rule.appliesToCart && sums.items[id] >= rule.minItems);
+        }
+    }
+
+    public int getRuleCount() {
+        return rules.length;
+    }
+
+    @Override
+    public String toString() {
+        return "Promotions: " + rules.length + " rules (" + cartRules.length + " on the whole cart) from " + source;
+    }
+
+    // key=value pairs separated by spaces, values with spaces in double quotes
+    static Map<String, String> parseFields(String line) {
+        Map<String, String> fields = new HashMap<>();
+        int i = 0;
+        while (i < line.length()) {
+            if (Character.isWhitespace(line.charAt(i))) {
+                i++;
+                continue;
+            }
+            int equals = line.indexOf('=', i);
+            if (equals < 0) {
+                throw new IllegalArgumentException("expected key=value at \"" + line.substring(i) + "\"");
+            }
+            String key = line.substring(i, equals).trim().toLowerCase(Locale.ROOT);
+            String value;
+            if (equals + 1 < line.length() && line.charAt(equals + 1) == '"') {
+                int close = line.indexOf('"', equals + 2);
+                if (close < 0) {
+                    throw new IllegalArgumentException("unterminated quote after " + key + "=");
+                }
+                value = line.substring(equals + 2, close);
+                i = close + 1;
+            } else {
+                int end = equals + 1;
+                while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+                    end++;
+                }
+                value = line.substring(equals + 1, end);
+                i = end;
+            }
+            if (fields.put(key, value) != null) {
+                throw new IllegalArgumentException("duplicate field " + key);
+            }
+        }
+        return fields;
+    }
+
+    private static String require(Map<String, String> fields, String key) {
+        String value = fields.remove(key);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("missing " + key);
+        }
+        return value;
+    }
+
+    private static int choose(Map<String, String> fields, String key, List<String> options) {
+        String value = require(fields, key).toLowerCase(Locale.ROOT);
+        int index = options.indexOf(value);
+        if (index < 0) {
+            throw new IllegalArgumentException(key + " must be one of " + options);
+        }
+        return index;
+    }
+
+    private static int intField(Map<String, String> fields, String key, int missing) {
+        String value = fields.remove(key);
+        try {
+            return value != null ? Integer.parseInt(value) : missing;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " is not a whole number: " + value);
+        }
+    }
+
+    private static double doubleField(Map<String, String> fields, String key) {
+        String value = require(fields, key);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " is not a number: " + value);
+        }
+    }
+
+    private static int[] toArray(List<Integer> ids) {
+        int[] array = new int[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
+        }
+        return array;
+    }
+}
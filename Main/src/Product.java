@@ -1,17 +1,41 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Product implements Serializable {
+    // Fixed at the value of the original class so existing users and products files stay readable
+    private static final long serialVersionUID = 4728406762588232691L;
+    // Compare-and-set access to the stock fields for InventoryEngine, without an AtomicInteger per product
+    private static final AtomicIntegerFieldUpdater<Product> AVAILABLE_ITEMS =
+            AtomicIntegerFieldUpdater.newUpdater(Product.class, "availableItems");
+    private static final AtomicIntegerFieldUpdater<Product> STOCK_ON_HAND =
+            AtomicIntegerFieldUpdater.newUpdater(Product.class, "stockOnHand");
+    // Counts price changes of every product, so carts can tell when their running subtotal may be stale
+    private static final AtomicLong PRICE_CHANGES = new AtomicLong();
+    // Likewise for attributes such as brand and size, which decide the promotions a cart line triggers
+    private static final AtomicLong ATTRIBUTE_CHANGES = new AtomicLong();
+
     private String productId;
     private String name;
-    private int availableItems;
-    private double price;
+    // Volatile so other threads never see a torn or stale price or stock value
+    private volatile int availableItems;
+    private volatile double price;
     private LocalDate dateAdded;
     private String category;
     private List<Product> products;
     private double totalCost;
     private LocalDate purchaseDate;
+    // Set by the catalog that holds this product so its indexes follow setter changes
+    private transient ProductChangeListener changeListener;
+    // availableItems plus the items held by reservations that are neither committed nor released yet.
+    // Kept as one counter rather than added up from two, which a reservation could change in between.
+    private transient volatile int stockOnHand;
+    // productId encoded with ProductKey, 0 until first computed
+    private transient long productKey;
 
     // Constructor for creating a Purchase instance
     public Product(List<Product> products, double totalCost, LocalDate purchaseDate) {
@@ -24,6 +48,7 @@ public class Product implements Serializable {
         this.productId = productId;
         this.name = name;
         this.availableItems = availableItems;
+        this.stockOnHand = availableItems;
         this.price = price;
         this.dateAdded = LocalDate.now();
         this.category = category;
@@ -32,20 +57,112 @@ public class Product implements Serializable {
     // Getters and setters
 
     public String getProductId() { return productId; }
+    public long getProductKey() {
+        if (productKey == 0) {
+            productKey = ProductKey.encode(productId);
+        }
+        return productKey;
+    }
     public String getName() { return name; }
     public int getAvailableItems() { return availableItems; }
     public double getPrice() { return price; }
+    // The price in cents; carts and checkout add these up instead of the doubles
+    public long getPriceMinor() { return Money.ofMajor(price); }
     public LocalDate getDateAdded() { return dateAdded; }
     public String getCategory() { return category; }
 
-    // Method to set available items (if needed)
-    public void setAvailableItems(int availableItems) {
-        this.availableItems = availableItems;
+    // Purchase record getters
+    public List<Product> getPurchasedProducts() { return products; }
+    public double getTotalCost() { return totalCost; }
+    public long getTotalCostMinor() { return Money.ofMajor(totalCost); }
+    public LocalDate getPurchaseDate() { return purchaseDate; }
+
+    // Method to set available items (if needed). Items held by reservations stay on hand on top of them.
+    public synchronized void setAvailableItems(int availableItems) {
+        int oldAvailableItems = AVAILABLE_ITEMS.getAndSet(this, availableItems);
+        STOCK_ON_HAND.getAndAdd(this, availableItems - oldAvailableItems);
+        if (changeListener != null && oldAvailableItems != availableItems) {
+            changeListener.stockChanged(this, oldAvailableItems);
+        }
+    }
+
+    // Sets the available items only if they are still expected; the listener hears of every success
+    boolean compareAndSetAvailableItems(int expected, int availableItems) {
+        if (!AVAILABLE_ITEMS.compareAndSet(this, expected, availableItems)) {
+            return false;
+        }
+        ProductChangeListener listener = changeListener;
+        if (listener != null && expected != availableItems) {
+            listener.stockChanged(this, expected);
+        }
+        return true;
+    }
+
+    // Items leaving or re-entering the shop, as opposed to moving between available and held
+    void addStockOnHand(int delta) {
+        STOCK_ON_HAND.getAndAdd(this, delta);
+    }
+
+    // Items in the shop, including those held by reservations; this is the stock that gets persisted,
+    // so a crash while items are held doesn't lose them. Reserving or giving items back doesn't change it.
+    public int getStockOnHand() {
+        return stockOnHand;
     }
 
     // Method to set price (if needed)
-    public void setPrice(double price) {
+    public synchronized void setPrice(double price) {
+        double oldPrice = this.price;
         this.price = price;
+        if (oldPrice != price) {
+            PRICE_CHANGES.incrementAndGet();
+            if (changeListener != null) {
+                changeListener.priceChanged(this, oldPrice);
+            }
+        }
+    }
+
+    // Number of price changes made to any product so far
+    static long getPriceChangeCount() {
+        return PRICE_CHANGES.get();
+    }
+
+    // Number of attribute changes made to any product so far
+    static long getAttributeChangeCount() {
+        return ATTRIBUTE_CHANGES.get();
+    }
+
+    // Used when a product is read back from a catalog file, so it keeps its original date
+    void setDateAdded(LocalDate dateAdded) {
+        this.dateAdded = dateAdded;
+    }
+
+    // Nothing is held in a product just read back, so all of its stock is on hand
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        stockOnHand = availableItems;
+    }
+
+    // Detached copy of the current field values, used for background snapshots
+    Product snapshotCopy() {
+        Product copy = new Product(productId, name, getStockOnHand(), price, category);
+        copy.setDateAdded(dateAdded);
+        return copy;
+    }
+
+    ProductChangeListener getChangeListener() {
+        return changeListener;
+    }
+
+    void setChangeListener(ProductChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    // Lets subclasses report changes to attributes such as brand, size or color
+    protected void fireAttributeChanged(String attribute, String oldValue) {
+        ATTRIBUTE_CHANGES.incrementAndGet();
+        if (changeListener != null) {
+            changeListener.attributeChanged(this, attribute, oldValue);
+        }
     }
 
     @Override
@@ -0,0 +1,125 @@
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Secondary indexes on product attributes (category, brand, size, colour, stock status).
+// Every attribute value maps to a bitmap of the catalog ordinals that have it,
+// so combined filters are answered by intersecting bitmaps instead of scanning the catalog.
+public class ProductAttributeIndex {
+    public static final String CATEGORY = "category";
+    public static final String BRAND = "brand";
+    public static final String SIZE = "size";
+    public static final String COLOUR = "colour";
+    public static final String STOCK_STATUS = "stockStatus";
+
+    public static final String IN_STOCK = "in stock";
+    public static final String OUT_OF_STOCK = "out of stock";
+
+    private final Map<String, Map<String, BitSet>> bitmaps;
+
+    public ProductAttributeIndex() {
+        this.bitmaps = new HashMap<>();
+    }
+
+    public void add(int ordinal, Product product) {
+        set(CATEGORY, product.getCategory(), ordinal);
+        set(STOCK_STATUS, stockStatus(product.getAvailableItems()), ordinal);
+        if (product instanceof Electronics) {
+            set(BRAND, ((Electronics) product).getBrand(), ordinal);
+        } else if (product instanceof Clothing) {
+            Clothing clothing = (Clothing) product;
+            set(SIZE, clothing.getSize(), ordinal);
+            set(COLOUR, clothing.getColor(), ordinal);
+        }
+    }
+
+    public void remove(int ordinal, Product product) {
+        remove(ordinal, product, product.getAvailableItems());
+    }
+
+    // Removes a product indexed with the given stock, which may differ from its stock by now
+    public void remove(int ordinal, Product product, int indexedAvailableItems) {
+        clear(CATEGORY, product.getCategory(), ordinal);
+        clear(STOCK_STATUS, stockStatus(indexedAvailableItems), ordinal);
+        if (product instanceof Electronics) {
+            clear(BRAND, ((Electronics) product).getBrand(), ordinal);
+        } else if (product instanceof Clothing) {
+            Clothing clothing = (Clothing) product;
+            clear(SIZE, clothing.getSize(), ordinal);
+            clear(COLOUR, clothing.getColor(), ordinal);
+        }
+    }
+
+    // Moves an ordinal from the old attribute value to the new one
+    public void update(int ordinal, String attribute, String oldValue, String newValue) {
+        clear(attribute, oldValue, ordinal);
+        set(attribute, newValue, ordinal);
+    }
+
+    public void stockChanged(int ordinal, int oldAvailableItems, int newAvailableItems) {
+        update(ordinal, STOCK_STATUS, stockStatus(oldAvailableItems), stockStatus(newAvailableItems));
+    }
+
+    // Ordinals matching every attribute/value pair in the criteria (an empty criteria map matches nothing)
+    public BitSet query(Map<String, String> criteria) {
+        BitSet result = null;
+        for (Map.Entry<String, String> criterion : criteria.entrySet()) {
+            BitSet matches = bitmap(criterion.getKey(), criterion.getValue());
+            if (matches == null || matches.isEmpty()) {
+                return new BitSet();
+            }
+            if (result == null) {
+                result = (BitSet) matches.clone();
+            } else {
+                result.and(matches);
+            }
+            if (result.isEmpty()) {
+                return result;
+            }
+        }
+        return result == null ? new BitSet() : result;
+    }
+
+    public void clear() {
+        bitmaps.clear();
+    }
+
+    public static String stockStatus(int availableItems) {
+        return availableItems > 0 ? IN_STOCK : OUT_OF_STOCK;
+    }
+
+    private BitSet bitmap(String attribute, String value) {
+        Map<String, BitSet> values = bitmaps.get(attribute);
+        return values == null || value == null ? null : values.get(normalize(value));
+    }
+
+    private void set(String attribute, String value, int ordinal) {
+        if (value == null) {
+            return;
+        }
+        bitmaps.computeIfAbsent(attribute, key -> new HashMap<>())
+                .computeIfAbsent(normalize(value), key -> new BitSet())
+                .set(ordinal);
+    }
+
+    private void clear(String attribute, String value, int ordinal) {
+        Map<String, BitSet> values = bitmaps.get(attribute);
+        if (values == null || value == null) {
+            return;
+        }
+        String key = normalize(value);
+        BitSet bitmap = values.get(key);
+        if (bitmap != null) {
+            bitmap.clear(ordinal);
+            if (bitmap.isEmpty()) {
+                values.remove(key);
+            }
+        }
+    }
+
+    // Attribute values are matched case-insensitively, e.g. "red" finds products stored as "Red"
+    private static String normalize(String value) {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,652 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+// Holds every product in the system, keyed by product ID so lookups don't scan the list.
+// Products live in a SegmentedProductStore; IDs are encoded as ProductKey longs and a primitive
+// LongIntHashMap points each key at the product's ordinal in the store.
+// The catalog listens to its products so the secondary indexes stay current when setters are called.
+//
+// The catalog is shared by the console thread and the Swing event thread. Writers take the write lock
+// and bump the version, index queries take the read lock, and getSnapshot() hands out an immutable
+// CatalogSnapshot that is read without any locking once it has been published for the current version.
+// Stock changes are the exception: checkouts make them at a high rate on a few hot products, so they
+// only mark the product stale without locking, and the stock indexes catch up before the next stock query.
+public class ProductCatalog implements ProductChangeListener {
+    private final SegmentedProductStore store;
+    private final LongIntHashMap ordinalsByKey;
+    private final ProductAttributeIndex attributeIndex;
+    private final ProductRangeIndex<Double> priceIndex;
+    private final ProductRangeIndex<Integer> stockIndex;
+    // Maintained sorted views, the price view is the price index itself
+    private final TreeMap<String, Product> idView;
+    private final ProductRangeIndex<String> nameView;
+    private final ProductSearchIndex searchIndex;
+    private ProductColumns columns; // null unless the columnar layout has been enabled
+    // Stock each product is filed under in the indexes, by ProductKey. Re-indexing compares the current
+    // stock with this rather than with the old value a notification carries, so it doesn't matter how
+    // many changes were made meanwhile or in what order.
+    private final LongIntHashMap indexedStock;
+    // ProductKeys whose stock changed since it was last indexed; many changes to one product are one entry
+    private final Set<Long> staleStock;
+    // Price and attribute values each product is filed under, by ordinal. Setters change the field
+    // before the catalog hears of it, so a remove racing a setter would look for the new value and
+    // leave the old entry behind; removals and changes clear the values kept here instead. Name and
+    // category have no setters, so the product's own are always the ones indexed.
+    private double[] indexedPrices;
+    private String[] indexedBrands;
+    private String[] indexedSizes;
+    private String[] indexedColours;
+    private final ReadWriteLock lock;
+    private volatile long version;
+    private volatile CatalogSnapshot snapshot;
+
+    public ProductCatalog() {
+        this.store = new SegmentedProductStore();
+        this.ordinalsByKey = new LongIntHashMap();
+        this.indexedStock = new LongIntHashMap();
+        this.staleStock = ConcurrentHashMap.newKeySet();
+        clearIndexedValues();
+        this.attributeIndex = new ProductAttributeIndex();
+        this.priceIndex = new ProductRangeIndex<>(Product::getPrice);
+        this.stockIndex = new ProductRangeIndex<>(Product::getAvailableItems);
+        this.idView = new TreeMap<>();
+        this.nameView = new ProductRangeIndex<>(ProductCatalog::nameKey);
+        this.searchIndex = new ProductSearchIndex();
+        this.lock = new ReentrantReadWriteLock();
+        this.snapshot = new CatalogSnapshot(0, new ArrayList<>());
+    }
+
+    // Adds a product, returns false if a product with the same ID is already present
+    public boolean add(Product product) {
+        lock.writeLock().lock();
+        try {
+            boolean added = insert(product);
+            if (added) {
+                version++;
+            }
+            return added;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Adds every product from the collection, skipping duplicate IDs, as a single catalog version
+    public int addAll(Collection<Product> products) {
+        lock.writeLock().lock();
+        try {
+            int added = 0;
+            for (Product product : products) {
+                if (insert(product)) {
+                    added++;
+                }
+            }
+            if (added > 0) {
+                version++;
+            }
+            return added;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Removes the product with the given ID and returns it, or null if it wasn't found
+    public Product remove(String productId) {
+        long key = ProductKey.encode(productId);
+        if (key == ProductKey.INVALID) {
+            return null;
+        }
+        lock.writeLock().lock();
+        try {
+            int ordinal = ordinalsByKey.remove(key, -1);
+            if (ordinal < 0) {
+                return null;
+            }
+            Product product = store.remove(ordinal);
+            int stock = indexedStock.remove(key, 0);
+            Product indexed = indexedAs(ordinal, product, stock);
+            attributeIndex.remove(ordinal, indexed, stock);
+            priceIndex.remove(indexed);
+            stockIndex.remove(stock, product);
+            idView.remove(product.getProductId());
+            nameView.remove(indexed);
+            searchIndex.remove(ordinal, indexed);
+            indexedBrands[ordinal] = null;
+            indexedSizes[ordinal] = null;
+            indexedColours[ordinal] = null;
+            if (columns != null) {
+                columns.clear(ordinal);
+            }
+            product.setChangeListener(null);
+            version++;
+            return product;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Product findById(String productId) {
+        long key = ProductKey.encode(productId);
+        return key == ProductKey.INVALID ? null : findByKey(key);
+    }
+
+    // Lookup by encoded ProductKey, doesn't allocate
+    public Product findByKey(long key) {
+        lock.readLock().lock();
+        try {
+            int ordinal = ordinalsByKey.get(key, -1);
+            return ordinal < 0 ? null : store.get(ordinal);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String productId) {
+        long key = ProductKey.encode(productId);
+        if (key == ProductKey.INVALID) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            return ordinalsByKey.containsKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Products matching all of the attribute criteria, e.g. {category=Clothing, size=XL, colour=Red}.
+    // Keys are the ProductAttributeIndex attribute names, values are compared case-insensitively.
+    public List<Product> findByAttributes(Map<String, String> criteria) {
+        return readStock(() -> toProducts(attributeIndex.query(criteria), Integer.MAX_VALUE));
+    }
+
+    // Same as findByAttributes, with the results listed in the given order
+    public List<Product> findByAttributes(Map<String, String> criteria, ProductSortOrder order) {
+        return readStock(() -> toProducts(attributeIndex.query(criteria), order, Integer.MAX_VALUE));
+    }
+
+    // Full text search over name, brand, colour and category, the last query word matches as a prefix.
+    // Results can be narrowed with attribute criteria (pass an empty map for none) and are capped at limit.
+    public List<Product> search(String query, Map<String, String> criteria, int limit) {
+        return search(query, criteria, null, limit);
+    }
+
+    // Search results listed in the given order, or in catalog order when order is null
+    public List<Product> search(String query, Map<String, String> criteria, ProductSortOrder order, int limit) {
+        return readStock(() -> {
+            BitSet matches = searchIndex.search(query);
+            if (!criteria.isEmpty()) {
+                matches.and(attributeIndex.query(criteria));
+            }
+            return order == null ? toProducts(matches, limit) : toProducts(matches, order, limit);
+        });
+    }
+
+    // Every product in the given order, read from a maintained sorted view so nothing is sorted here
+    public List<Product> getSortedProducts(ProductSortOrder order) {
+        return getSortedProducts(order, 0, Integer.MAX_VALUE);
+    }
+
+    // One page of getSortedProducts
+    public List<Product> getSortedProducts(ProductSortOrder order, int offset, int limit) {
+        if (order == ProductSortOrder.ID) {
+            // The snapshot is already kept in ID order
+            List<Product> products = getSnapshot().getProducts();
+            int from = Math.min(offset, products.size());
+            return products.subList(from, (int) Math.min((long) from + limit, products.size()));
+        }
+        return read(() -> {
+            List<Product> products = new ArrayList<>();
+            int skipped = 0;
+            for (Product product : sortedView(order)) {
+                if (products.size() >= limit) {
+                    break;
+                } else if (skipped < offset) {
+                    skipped++;
+                } else {
+                    products.add(product);
+                }
+            }
+            return products;
+        });
+    }
+
+    // Up to limit search terms starting with the last word of the prefix, most common first
+    public List<String> autocomplete(String prefix, int limit) {
+        return read(() -> searchIndex.autocomplete(prefix, limit));
+    }
+
+    // Products priced between minPrice and maxPrice (inclusive), cheapest first; null leaves a bound open
+    public List<Product> findByPriceRange(Double minPrice, Double maxPrice) {
+        return read(() -> priceIndex.range(minPrice, maxPrice));
+    }
+
+    // One page of findByPriceRange, e.g. offset 20 and limit 20 for the second page of 20
+    public List<Product> findByPriceRange(Double minPrice, Double maxPrice, int offset, int limit) {
+        return read(() -> priceIndex.range(minPrice, maxPrice, offset, limit));
+    }
+
+    public List<Product> findCheapest(int limit) {
+        return read(() -> priceIndex.lowest(limit));
+    }
+
+    public List<Product> findMostExpensive(int limit) {
+        return read(() -> priceIndex.highest(limit));
+    }
+
+    // Products whose available stock is between minStock and maxStock (inclusive), lowest stock first
+    public List<Product> findByStockRange(Integer minStock, Integer maxStock) {
+        return readStock(() -> stockIndex.range(minStock, maxStock));
+    }
+
+    public List<Product> findByStockRange(Integer minStock, Integer maxStock, int offset, int limit) {
+        return readStock(() -> stockIndex.range(minStock, maxStock, offset, limit));
+    }
+
+    // Products with fewer than threshold items in stock
+    public List<Product> findLowStock(int threshold) {
+        return readStock(() -> stockIndex.range(null, threshold - 1));
+    }
+
+    public int countByPriceRange(Double minPrice, Double maxPrice) {
+        return read(() -> priceIndex.count(minPrice, maxPrice));
+    }
+
+    public int countByStockRange(Integer minStock, Integer maxStock) {
+        return readStock(() -> stockIndex.count(minStock, maxStock));
+    }
+
+    public int size() {
+        return read(store::size);
+    }
+
+    // Keeps prices, stock and categories in primitive columns as well, so the aggregate queries below
+    // scan arrays instead of product objects. Worth enabling for large catalogs.
+    public void enableColumnarLayout() {
+        lock.writeLock().lock();
+        try {
+            if (columns == null) {
+                columns = new ProductColumns();
+                ordinalsByKey.forEach((key, ordinal) -> columns.set(ordinal, store.get(ordinal)));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isColumnarLayoutEnabled() {
+        return read(() -> columns != null);
+    }
+
+    // Sum of price * available items per category
+    public Map<String, Double> inventoryValueByCategory() {
+        return readStock(() -> {
+            if (columns != null) {
+                return columns.inventoryValueByCategory();
+            }
+            Map<String, Double> valueByCategory = new LinkedHashMap<>();
+            store.forEach(product -> valueByCategory.merge(product.getCategory(),
+                    product.getPrice() * product.getAvailableItems(), Double::sum));
+            return valueByCategory;
+        });
+    }
+
+    // Number of products with fewer than threshold items in stock
+    public int countLowStock(int threshold) {
+        return readStock(() -> columns != null ? columns.countLowStock(threshold) : stockIndex.count(null, threshold - 1));
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            store.forEach(product -> product.setChangeListener(null));
+            store.clear();
+            ordinalsByKey.clear();
+            indexedStock.clear();
+            staleStock.clear();
+            clearIndexedValues();
+            attributeIndex.clear();
+            priceIndex.clear();
+            stockIndex.clear();
+            idView.clear();
+            nameView.clear();
+            searchIndex.clear();
+            if (columns != null) {
+                columns.clear();
+            }
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Immutable snapshot of the current catalog contents, in product ID order.
+    // Readers get the already published snapshot without locking; only the first reader after a
+    // change rebuilds it, under the read lock so it never sees a half-applied write.
+    public CatalogSnapshot getSnapshot() {
+        CatalogSnapshot current = snapshot;
+        if (current.getVersion() == version) {
+            return current;
+        }
+        lock.readLock().lock();
+        try {
+            current = snapshot;
+            if (current.getVersion() != version) {
+                current = new CatalogSnapshot(version, new ArrayList<>(idView.values()));
+                snapshot = current;
+            }
+            return current;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Products of the current snapshot, the returned list is immutable
+    public List<Product> getProducts() {
+        return getSnapshot().getProducts();
+    }
+
+    // Must be called with the write lock held
+    private boolean insert(Product product) {
+        if (product == null) {
+            return false;
+        }
+        long key = product.getProductKey();
+        if (key == ProductKey.INVALID || ordinalsByKey.containsKey(key)) {
+            return false;
+        }
+        // Listening before anything is read, and recording the values before the indexes read them, so
+        // a setter running meanwhile is always followed by a notification that moves the entries from
+        // the recorded value to the current one
+        product.setChangeListener(this);
+        int ordinal = store.add(product);
+        ordinalsByKey.put(key, ordinal, -1);
+        indexedStock.put(key, product.getAvailableItems(), 0);
+        setIndexedValues(ordinal, product);
+        attributeIndex.add(ordinal, product);
+        priceIndex.add(product);
+        stockIndex.add(product);
+        idView.put(product.getProductId(), product);
+        nameView.add(product);
+        searchIndex.add(ordinal, product);
+        if (columns != null) {
+            columns.set(ordinal, product);
+        }
+        return true;
+    }
+
+    // Must be called with the write lock held
+    private void setIndexedValues(int ordinal, Product product) {
+        if (ordinal >= indexedPrices.length) {
+            int length = Math.max(ordinal + 1, indexedPrices.length * 2);
+            indexedPrices = Arrays.copyOf(indexedPrices, length);
+            indexedBrands = Arrays.copyOf(indexedBrands, length);
+            indexedSizes = Arrays.copyOf(indexedSizes, length);
+            indexedColours = Arrays.copyOf(indexedColours, length);
+        }
+        indexedPrices[ordinal] = product.getPrice();
+        if (product instanceof Electronics) {
+            indexedBrands[ordinal] = ((Electronics) product).getBrand();
+        } else if (product instanceof Clothing) {
+            indexedSizes[ordinal] = ((Clothing) product).getSize();
+            indexedColours[ordinal] = ((Clothing) product).getColor();
+        }
+    }
+
+    private void clearIndexedValues() {
+        indexedPrices = new double[1024];
+        indexedBrands = new String[1024];
+        indexedSizes = new String[1024];
+        indexedColours = new String[1024];
+    }
+
+    // A detached product with the values the given one is filed under, for clearing its index entries
+    private Product indexedAs(int ordinal, Product product, int stock) {
+        String productId = product.getProductId();
+        double price = indexedPrices[ordinal];
+        if (product instanceof Electronics) {
+            return new Electronics(productId, product.getName(), stock, price, indexedBrands[ordinal], 0);
+        } else if (product instanceof Clothing) {
+            return new Clothing(productId, product.getName(), stock, price, indexedSizes[ordinal], indexedColours[ordinal]);
+        }
+        return new Product(productId, product.getName(), stock, price, product.getCategory());
+    }
+
+    private <T> T read(Supplier<T> query) {
+        lock.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // For queries that read stock from the indexes: brings the stale products up to date first
+    private <T> T readStock(Supplier<T> query) {
+        if (!staleStock.isEmpty()) {
+            lock.writeLock().lock();
+            try {
+                reindexStaleStock();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return read(query);
+    }
+
+    // Must be called with the write lock held
+    private void reindexStaleStock() {
+        for (Iterator<Long> keys = staleStock.iterator(); keys.hasNext(); ) {
+            long key = keys.next();
+            keys.remove(); // Before the stock is read, so a change from here on marks it stale again
+            int ordinal = ordinalsByKey.get(key, -1);
+            if (ordinal < 0) {
+                continue; // Removed since
+            }
+            Product product = store.get(ordinal);
+            int current = product.getAvailableItems();
+            int indexed = indexedStock.get(key, current);
+            if (indexed == current) {
+                continue; // Changed and changed back
+            }
+            attributeIndex.stockChanged(ordinal, indexed, current);
+            stockIndex.update(product, indexed, current);
+            indexedStock.put(key, current, 0);
+            if (columns != null) {
+                columns.setStock(ordinal, current);
+            }
+        }
+    }
+
+    // Key of the name view, so it and SortEntry order names the same way
+    private static String nameKey(Product product) {
+        return product.getName() == null ? "" : product.getName().toLowerCase(Locale.ROOT);
+    }
+
+    private Iterable<Product> sortedView(ProductSortOrder order) {
+        switch (order) {
+            case NAME:
+                return nameView;
+            case PRICE:
+                return priceIndex;
+            default:
+                return idView.values();
+        }
+    }
+
+    // Lists the products whose ordinal is in the set in the given order. Only the matches are sorted,
+    // so a narrow search costs its own size rather than the catalog's; when the limit is smaller than
+    // the match count a bounded heap keeps just the best limit matches seen so far. When every product
+    // matches, walking the maintained sorted view is cheaper than sorting.
+    //
+    // In ID order the first limit matches are found by walking the ID view and stopping at the limit.
+    // With the matches spread over the catalog that visits about limit * size / matchCount products, so
+    // the matches are only sorted when they are too few for that to pay: fewer than
+    // sqrt(limit * size), where the walk would pass more products than there are matches.
+    private List<Product> toProducts(BitSet ordinals, ProductSortOrder order, int limit) {
+        int matchCount = ordinals.cardinality();
+        if (matchCount == 0 || limit <= 0) {
+            return new ArrayList<>();
+        } else if (matchCount == store.size()) {
+            List<Product> products = new ArrayList<>();
+            for (Product product : sortedView(order)) {
+                if (products.size() >= limit) {
+                    break;
+                }
+                products.add(product);
+            }
+            return products;
+        } else if (order == ProductSortOrder.ID && (long) limit * store.size() <= (long) matchCount * matchCount) {
+            List<Product> products = new ArrayList<>(Math.min(limit, matchCount));
+            for (Product product : idView.values()) {
+                if (products.size() >= limit) {
+                    break;
+                } else if (ordinals.get(ordinalsByKey.get(product.getProductKey(), -1))) {
+                    products.add(product);
+                }
+            }
+            return products;
+        }
+        Comparator<SortEntry> comparator = SortEntry.comparator(order);
+        List<SortEntry> entries;
+        if (matchCount <= limit) {
+            entries = new ArrayList<>(matchCount);
+            for (int ordinal = ordinals.nextSetBit(0); ordinal >= 0; ordinal = ordinals.nextSetBit(ordinal + 1)) {
+                entries.add(new SortEntry(store.get(ordinal)));
+            }
+        } else {
+            // Worst of the kept entries at the head, so it is the one dropped when a better one arrives
+            PriorityQueue<SortEntry> best = new PriorityQueue<>(limit + 1, comparator.reversed());
+            for (int ordinal = ordinals.nextSetBit(0); ordinal >= 0; ordinal = ordinals.nextSetBit(ordinal + 1)) {
+                best.add(new SortEntry(store.get(ordinal)));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+            entries = new ArrayList<>(best);
+        }
+        entries.sort(comparator);
+        List<Product> products = new ArrayList<>(entries.size());
+        for (SortEntry entry : entries) {
+            products.add(entry.product);
+        }
+        return products;
+    }
+
+    private List<Product> toProducts(BitSet ordinals, int limit) {
+        List<Product> products = new ArrayList<>();
+        for (int ordinal = ordinals.nextSetBit(0); ordinal >= 0 && products.size() < limit; ordinal = ordinals.nextSetBit(ordinal + 1)) {
+            products.add(store.get(ordinal));
+        }
+        return products;
+    }
+
+    @Override
+    public void priceChanged(Product product, double oldPrice) {
+        lock.writeLock().lock();
+        try {
+            int ordinal = ordinalsByKey.get(product.getProductKey(), -1);
+            if (ordinal < 0 || store.get(ordinal) != product) {
+                return; // Removed, perhaps replaced by another product with the same ID
+            }
+            double indexed = indexedPrices[ordinal];
+            double current = product.getPrice();
+            if (indexed == current) {
+                return; // Indexed at the new price already, when the product was added
+            }
+            priceIndex.update(product, indexed, current);
+            indexedPrices[ordinal] = current;
+            if (columns != null) {
+                columns.setPrice(ordinal, current);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    // Called on every reservation, so it only marks the product stale: no catalog lock, and adding a
+    // key that is already there doesn't lock either. Products not in the catalog are skipped when re-indexing.
+    public void stockChanged(Product product, int oldAvailableItems) {
+        staleStock.add(product.getProductKey());
+    }
+
+    @Override
+    public void attributeChanged(Product product, String attribute, String oldValue) {
+        lock.writeLock().lock();
+        try {
+            int ordinal = ordinalsByKey.get(product.getProductKey(), -1);
+            if (ordinal < 0 || store.get(ordinal) != product) {
+                return;
+            }
+            String[] indexedValues;
+            String newValue;
+            if (product instanceof Electronics && ProductAttributeIndex.BRAND.equals(attribute)) {
+                indexedValues = indexedBrands;
+                newValue = ((Electronics) product).getBrand();
+            } else if (product instanceof Clothing && ProductAttributeIndex.SIZE.equals(attribute)) {
+                indexedValues = indexedSizes;
+                newValue = ((Clothing) product).getSize();
+            } else if (product instanceof Clothing && ProductAttributeIndex.COLOUR.equals(attribute)) {
+                indexedValues = indexedColours;
+                newValue = ((Clothing) product).getColor();
+            } else {
+                return;
+            }
+            // The value it is filed under, oldValue may be newer if the product was added meanwhile
+            String indexed = indexedValues[ordinal];
+            attributeIndex.update(ordinal, attribute, indexed, newValue);
+            searchIndex.attributeChanged(ordinal, product, attribute, indexed);
+            indexedValues[ordinal] = newValue;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // A product with its sort keys read once. Prices change without the catalog lock held, so
+    // comparing live products could see a key move in the middle of a sort.
+    private static final class SortEntry {
+        private final Product product;
+        private final String id;
+        private final String name;
+        private final double price;
+
+        SortEntry(Product product) {
+            this.product = product;
+            this.id = product.getProductId();
+            this.name = nameKey(product);
+            this.price = product.getPrice();
+        }
+
+        // Same order as the sorted view for the order: its key, then product ID
+        static Comparator<SortEntry> comparator(ProductSortOrder order) {
+            Comparator<SortEntry> byId = Comparator.comparing(entry -> entry.id);
+            switch (order) {
+                case NAME:
+                    return Comparator.comparing((SortEntry entry) -> entry.name).thenComparing(byId);
+                case PRICE:
+                    return Comparator.comparingDouble((SortEntry entry) -> entry.price).thenComparing(byId);
+                default:
+                    return byId;
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+// Notified by a Product after one of its indexed fields has been changed through a setter
+public interface ProductChangeListener {
+    void priceChanged(Product product, double oldPrice);
+
+    void stockChanged(Product product, int oldAvailableItems);
+
+    // attribute is one of the ProductAttributeIndex attribute names, e.g. ProductAttributeIndex.BRAND
+    void attributeChanged(Product product, String attribute, String oldValue);
+}
@@ -0,0 +1,116 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Optional columnar copy of the hot numeric product fields.
+// Prices, stock counts and category codes are kept in primitive arrays indexed by the catalog ordinal,
+// split into the same segments as SegmentedProductStore, so aggregates run as plain loops over arrays
+// instead of following a Product pointer per item. Category code 0 marks an empty slot.
+public class ProductColumns {
+    private final List<double[]> prices;
+    private final List<int[]> stock;
+    private final List<byte[]> categoryCodes;
+    private final List<String> categoryNames; // index is the category code
+    private final Map<String, Byte> codesByCategory;
+
+    public ProductColumns() {
+        this.prices = new ArrayList<>();
+        this.stock = new ArrayList<>();
+        this.categoryCodes = new ArrayList<>();
+        this.categoryNames = new ArrayList<>();
+        this.codesByCategory = new HashMap<>();
+        categoryNames.add(null); // code 0 is reserved for empty slots
+    }
+
+    // Copies the product's values into the row at ordinal
+    public void set(int ordinal, Product product) {
+        int segment = ordinal >>> SegmentedProductStore.SEGMENT_SHIFT;
+        while (segment >= prices.size()) {
+            prices.add(new double[SegmentedProductStore.SEGMENT_SIZE]);
+            stock.add(new int[SegmentedProductStore.SEGMENT_SIZE]);
+            categoryCodes.add(new byte[SegmentedProductStore.SEGMENT_SIZE]);
+        }
+        int offset = ordinal & SegmentedProductStore.SEGMENT_MASK;
+        prices.get(segment)[offset] = product.getPrice();
+        stock.get(segment)[offset] = product.getAvailableItems();
+        categoryCodes.get(segment)[offset] = categoryCode(product.getCategory());
+    }
+
+    public void clear(int ordinal) {
+        int segment = ordinal >>> SegmentedProductStore.SEGMENT_SHIFT;
+        if (segment < prices.size()) {
+            int offset = ordinal & SegmentedProductStore.SEGMENT_MASK;
+            prices.get(segment)[offset] = 0;
+            stock.get(segment)[offset] = 0;
+            categoryCodes.get(segment)[offset] = 0;
+        }
+    }
+
+    public void setPrice(int ordinal, double price) {
+        prices.get(ordinal >>> SegmentedProductStore.SEGMENT_SHIFT)[ordinal & SegmentedProductStore.SEGMENT_MASK] = price;
+    }
+
+    public void setStock(int ordinal, int availableItems) {
+        stock.get(ordinal >>> SegmentedProductStore.SEGMENT_SHIFT)[ordinal & SegmentedProductStore.SEGMENT_MASK] = availableItems;
+    }
+
+    // Sum of price * available items for every category that has products
+    public Map<String, Double> inventoryValueByCategory() {
+        double[] totals = new double[categoryNames.size()];
+        int[] counts = new int[categoryNames.size()];
+        for (int s = 0; s < prices.size(); s++) {
+            double[] segmentPrices = prices.get(s);
+            int[] segmentStock = stock.get(s);
+            byte[] segmentCodes = categoryCodes.get(s);
+            for (int i = 0; i < segmentPrices.length; i++) {
+                int code = segmentCodes[i] & 0xFF;
+                totals[code] += segmentPrices[i] * segmentStock[i];
+                counts[code]++;
+            }
+        }
+        Map<String, Double> valueByCategory = new LinkedHashMap<>();
+        for (int code = 1; code < totals.length; code++) {
+            // A category whose products have all been removed keeps its code but is left out,
+            // as it is when the value is summed over the product objects
+            if (counts[code] > 0) {
+                valueByCategory.put(categoryNames.get(code), totals[code]);
+            }
+        }
+        return valueByCategory;
+    }
+
+    // Number of products with fewer than threshold items in stock
+    public int countLowStock(int threshold) {
+        int count = 0;
+        for (int s = 0; s < stock.size(); s++) {
+            int[] segmentStock = stock.get(s);
+            byte[] segmentCodes = categoryCodes.get(s);
+            for (int i = 0; i < segmentStock.length; i++) {
+                // Branch-free so the loop can be vectorized, empty slots have code 0 and are masked out
+                count += (segmentStock[i] < threshold ? 1 : 0) & (segmentCodes[i] != 0 ? 1 : 0);
+            }
+        }
+        return count;
+    }
+
+    public void clear() {
+        prices.clear();
+        stock.clear();
+        categoryCodes.clear();
+    }
+
+    private byte categoryCode(String category) {
+        Byte code = codesByCategory.get(category);
+        if (code == null) {
+            if (categoryNames.size() > 255) {
+                throw new IllegalStateException("Too many product categories for the columnar layout");
+            }
+            code = (byte) categoryNames.size();
+            categoryNames.add(category);
+            codesByCategory.put(category, code);
+        }
+        return code;
+    }
+}
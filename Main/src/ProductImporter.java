@@ -0,0 +1,336 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Bulk loads Electronics and Clothing products from a CSV or JSON-lines file.
+// The file is streamed in chunks of lines; chunks are parsed and validated in parallel and the
+// valid products of each chunk are inserted into the catalog as one batch, in file order.
+// Rows that fail validation or duplicate an existing ID are written to a separate rejects file.
+//
+// CSV columns (an optional header row starting with "type" is skipped):
+//   type,productId,name,availableItems,price,brand|size,warrantyPeriod|color
+// JSON lines use the same field names, e.g.
+//   {"type":"Clothing","productId":"C0001","name":"Shirt","availableItems":5,"price":9.99,"size":"M","color":"Red"}
+public class ProductImporter {
+    private static final int CHUNK_SIZE = 10_000;
+
+    private final ProductCatalog catalog;
+    private final int threads;
+
+    // Summary of an import run
+    public static class ImportResult {
+        private final long imported;
+        private final long rejected;
+        private final long elapsedMillis;
+
+        ImportResult(long imported, long rejected, long elapsedMillis) {
+            this.imported = imported;
+            this.rejected = rejected;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public long getImported() { return imported; }
+        public long getRejected() { return rejected; }
+        public long getElapsedMillis() { return elapsedMillis; }
+
+        @Override
+        public String toString() {
+            return "Imported " + imported + " products, rejected " + rejected + " rows in " + elapsedMillis + " ms";
+        }
+    }
+
+    // Parsed and validated contents of one chunk of lines
+    private static class ParsedChunk {
+        final List<Product> products = new ArrayList<>();
+        final List<Long> productLines = new ArrayList<>();
+        final List<String> rejects = new ArrayList<>();
+    }
+
+    public ProductImporter(ProductCatalog catalog) {
+        this(catalog, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ProductImporter(ProductCatalog catalog, int threads) {
+        this.catalog = catalog;
+        this.threads = Math.max(1, threads);
+    }
+
+    // Imports the file, rejected rows go to rejectsFile as "line number<TAB>reason<TAB>original row"
+    public ImportResult importFile(Path file, Path rejectsFile) throws IOException {
+        long start = System.currentTimeMillis();
+        boolean json = file.getFileName().toString().toLowerCase(Locale.ROOT).matches(".*\\.jsonl?$");
+        ExecutorService parsers = Executors.newFixedThreadPool(threads);
+        // Chunks still being parsed, bounded so a huge file never sits in memory all at once
+        ArrayDeque<Future<ParsedChunk>> pending = new ArrayDeque<>();
+        long imported = 0;
+        long rejected = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             BufferedWriter rejects = Files.newBufferedWriter(rejectsFile, StandardCharsets.UTF_8)) {
+            long lineNumber = 0;
+            List<String> lines = new ArrayList<>(CHUNK_SIZE);
+            long firstLine = 1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                lines.add(line);
+                if (lines.size() == CHUNK_SIZE) {
+                    pending.add(submit(parsers, lines, firstLine, json));
+                    lines = new ArrayList<>(CHUNK_SIZE);
+                    firstLine = lineNumber + 1;
+                    if (pending.size() >= threads * 2) {
+                        long[] counts = insert(pending.poll(), rejects);
+                        imported += counts[0];
+                        rejected += counts[1];
+                    }
+                }
+            }
+            if (!lines.isEmpty()) {
+                pending.add(submit(parsers, lines, firstLine, json));
+            }
+            while (!pending.isEmpty()) {
+                long[] counts = insert(pending.poll(), rejects);
+                imported += counts[0];
+                rejected += counts[1];
+            }
+        } finally {
+            parsers.shutdownNow();
+        }
+        return new ImportResult(imported, rejected, System.currentTimeMillis() - start);
+    }
+
+    private Future<ParsedChunk> submit(ExecutorService parsers, List<String> lines, long firstLine, boolean json) {
+        return parsers.submit(() -> parseChunk(lines, firstLine, json));
+    }
+
+    // Inserts one parsed chunk as a single catalog batch, returns {imported, rejected}
+    private long[] insert(Future<ParsedChunk> future, BufferedWriter rejects) throws IOException {
+        ParsedChunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to parse import chunk", e.getCause());
+        }
+        for (String reject : chunk.rejects) {
+            rejects.write(reject);
+            rejects.newLine();
+        }
+        long rejected = chunk.rejects.size();
+        int added = catalog.addAll(chunk.products);
+        if (added < chunk.products.size()) {
+            // Anything the catalog didn't take is a duplicate of an existing or earlier product ID
+            for (int i = 0; i < chunk.products.size(); i++) {
+                Product product = chunk.products.get(i);
+                if (catalog.findByKey(product.getProductKey()) != product) {
+                    rejects.write(chunk.productLines.get(i) + "\tDuplicate product ID\t" + product.getProductId());
+                    rejects.newLine();
+                    rejected++;
+                }
+            }
+        }
+        return new long[]{added, rejected};
+    }
+
+    private static ParsedChunk parseChunk(List<String> lines, long firstLine, boolean json) {
+        ParsedChunk chunk = new ParsedChunk();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            long lineNumber = firstLine + i;
+            if (line.trim().isEmpty() || (!json && lineNumber == 1 && line.trim().toLowerCase(Locale.ROOT).startsWith("type"))) {
+                continue; // Blank line or CSV header
+            }
+            try {
+                Map<String, String> fields = json ? parseJsonLine(line) : parseCsvLine(line);
+                chunk.products.add(toProduct(fields));
+                chunk.productLines.add(lineNumber);
+            } catch (IllegalArgumentException e) {
+                chunk.rejects.add(lineNumber + "\t" + e.getMessage() + "\t" + line);
+            }
+        }
+        return chunk;
+    }
+
+    // Builds and validates a product with the same rules as the console add dialogue
+    private static Product toProduct(Map<String, String> fields) {
+        String type = required(fields, "type").toLowerCase(Locale.ROOT);
+        String prefix;
+        if (type.equals("electronics")) {
+            prefix = "E";
+        } else if (type.equals("clothing")) {
+            prefix = "C";
+        } else {
+            throw new IllegalArgumentException("Unknown product type");
+        }
+
+        String productId = required(fields, "productId").toUpperCase(Locale.ROOT);
+        if (!ProductValidator.isValidProductId(productId, prefix)) {
+            throw new IllegalArgumentException("Invalid product ID");
+        }
+        String name = required(fields, "name");
+        if (!ProductValidator.isValidName(name)) {
+            throw new IllegalArgumentException("Invalid product name");
+        }
+        int availableItems = parseInt(required(fields, "availableItems"), "Invalid number of available items");
+        if (!ProductValidator.isValidAvailableItems(availableItems)) {
+            throw new IllegalArgumentException("Number of available items cannot be negative");
+        }
+        double price;
+        try {
+            price = Double.parseDouble(required(fields, "price"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid price");
+        }
+        if (!ProductValidator.isValidPrice(price)) {
+            throw new IllegalArgumentException("Price cannot be negative");
+        }
+
+        if (prefix.equals("E")) {
+            String brand = required(fields, "brand");
+            if (!ProductValidator.isValidBrand(brand)) {
+                throw new IllegalArgumentException("Invalid brand");
+            }
+            int warrantyPeriod = parseInt(required(fields, "warrantyPeriod"), "Invalid warranty period");
+            if (!ProductValidator.isValidWarrantyPeriod(warrantyPeriod)) {
+                throw new IllegalArgumentException("Warranty period must be positive");
+            }
+            return new Electronics(productId, name, availableItems, price, brand, warrantyPeriod);
+        }
+        String size = required(fields, "size").toUpperCase(Locale.ROOT);
+        if (!ProductValidator.isValidSize(size)) {
+            throw new IllegalArgumentException("Invalid size");
+        }
+        String color = fields.containsKey("color") ? required(fields, "color") : required(fields, "colour");
+        if (!ProductValidator.isValidColor(color)) {
+            throw new IllegalArgumentException("Invalid color");
+        }
+        return new Clothing(productId, name, availableItems, price, size, color);
+    }
+
+    private static Map<String, String> parseCsvLine(String line) {
+        String[] columns = line.split(",", -1);
+        if (columns.length != 7) {
+            throw new IllegalArgumentException("Expected 7 columns but found " + columns.length);
+        }
+        Map<String, String> fields = new HashMap<>();
+        fields.put("type", columns[0].trim());
+        fields.put("productId", columns[1].trim());
+        fields.put("name", columns[2].trim());
+        fields.put("availableItems", columns[3].trim());
+        fields.put("price", columns[4].trim());
+        boolean electronics = columns[0].trim().equalsIgnoreCase("electronics");
+        fields.put(electronics ? "brand" : "size", columns[5].trim());
+        fields.put(electronics ? "warrantyPeriod" : "color", columns[6].trim());
+        return fields;
+    }
+
+    // Minimal parser for one flat JSON object per line with string, number, boolean or null values
+    private static Map<String, String> parseJsonLine(String line) {
+        Map<String, String> fields = new HashMap<>();
+        int[] position = {skipWhitespace(line, 0)};
+        expect(line, position, '{');
+        if (peek(line, position) == '}') {
+            return fields;
+        }
+        while (true) {
+            String key = readJsonString(line, position);
+            expect(line, position, ':');
+            String value;
+            if (peek(line, position) == '"') {
+                value = readJsonString(line, position);
+            } else {
+                int start = position[0];
+                while (position[0] < line.length() && ",} \t".indexOf(line.charAt(position[0])) < 0) {
+                    position[0]++;
+                }
+                value = line.substring(start, position[0]);
+                if (value.equals("null")) {
+                    value = null;
+                }
+            }
+            fields.put(key, value);
+            char next = peek(line, position);
+            position[0]++;
+            if (next == '}') {
+                return fields;
+            } else if (next != ',') {
+                throw new IllegalArgumentException("Malformed JSON");
+            }
+        }
+    }
+
+    private static String readJsonString(String line, int[] position) {
+        expect(line, position, '"');
+        StringBuilder value = new StringBuilder();
+        while (position[0] < line.length()) {
+            char c = line.charAt(position[0]++);
+            if (c == '"') {
+                return value.toString();
+            } else if (c == '\\' && position[0] < line.length()) {
+                char escaped = line.charAt(position[0]++);
+                if (escaped == 'u' && position[0] + 4 <= line.length()) {
+                    value.append((char) Integer.parseInt(line.substring(position[0], position[0] + 4), 16));
+                    position[0] += 4;
+                } else {
+                    value.append(escaped == 'n' ? '\n' : escaped == 't' ? '\t' : escaped);
+                }
+            } else {
+                value.append(c);
+            }
+        }
+        throw new IllegalArgumentException("Malformed JSON");
+    }
+
+    private static void expect(String line, int[] position, char expected) {
+        if (peek(line, position) != expected) {
+            throw new IllegalArgumentException("Malformed JSON");
+        }
+        position[0]++;
+    }
+
+    private static char peek(String line, int[] position) {
+        position[0] = skipWhitespace(line, position[0]);
+        if (position[0] >= line.length()) {
+            throw new IllegalArgumentException("Malformed JSON");
+        }
+        return line.charAt(position[0]);
+    }
+
+    private static int skipWhitespace(String line, int position) {
+        while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static String required(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        return value.trim();
+    }
+
+    private static int parseInt(String value, String message) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+}
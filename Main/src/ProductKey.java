@@ -0,0 +1,56 @@
+// Encodes product IDs such as "E0001" into a single long so they can be stored and compared
+// without String objects. The encoding is reversible: decode(encode(id)) returns the same ID.
+//
+// Layout: bits 36-51 hold the prefix letter, bits 32-35 the number of digits (1-9, so leading
+// zeros survive) and bits 0-29 the numeric part. Valid keys are always positive.
+public final class ProductKey {
+    public static final long INVALID = -1L;
+    public static final int MAX_DIGITS = 9;
+
+    private ProductKey() {
+    }
+
+    // Returns the key for the ID, or INVALID if it isn't one letter followed by 1 to 9 digits
+    public static long encode(String productId) {
+        if (productId == null || productId.length() < 2 || productId.length() > MAX_DIGITS + 1) {
+            return INVALID;
+        }
+        char prefix = productId.charAt(0);
+        if (!Character.isLetter(prefix)) {
+            return INVALID;
+        }
+        int digits = productId.length() - 1;
+        long number = 0;
+        for (int i = 1; i < productId.length(); i++) {
+            char c = productId.charAt(i);
+            if (c < '0' || c > '9') {
+                return INVALID;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return ((long) prefix << 36) | ((long) digits << 32) | number;
+    }
+
+    public static String decode(long key) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Not a product key: " + key);
+        }
+        char prefix = (char) (key >>> 36);
+        int digits = (int) ((key >>> 32) & 0xF);
+        long number = key & 0x3FFFFFFFL;
+        StringBuilder productId = new StringBuilder(digits + 1).append(prefix);
+        String numericPart = Long.toString(number);
+        for (int i = numericPart.length(); i < digits; i++) {
+            productId.append('0');
+        }
+        return productId.append(numericPart).toString();
+    }
+
+    public static boolean isValid(String productId) {
+        return encode(productId) != INVALID;
+    }
+
+    public static char prefixOf(long key) {
+        return (char) (key >>> 36);
+    }
+}
@@ -0,0 +1,166 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+// Sorted index of products on a comparable key such as price or available stock.
+// Products sharing a key are kept in product ID order so range results and pages are stable.
+// Iterating the index walks every product in key order, so it also serves as a maintained sorted view.
+public class ProductRangeIndex<K extends Comparable<K>> implements Iterable<Product> {
+    private final Function<Product, K> keyExtractor;
+    private final TreeMap<K, TreeMap<String, Product>> productsByKey;
+    private int size;
+
+    public ProductRangeIndex(Function<Product, K> keyExtractor) {
+        this.keyExtractor = keyExtractor;
+        this.productsByKey = new TreeMap<>();
+    }
+
+    public void add(Product product) {
+        put(keyExtractor.apply(product), product);
+    }
+
+    public void remove(Product product) {
+        remove(keyExtractor.apply(product), product);
+    }
+
+    // Re-files a product whose key has changed, oldKey is the value before the change
+    public void update(Product product, K oldKey) {
+        remove(oldKey, product);
+        add(product);
+    }
+
+    // Re-files a product from oldKey to newKey, for keys that can change again while this runs
+    public void update(Product product, K oldKey, K newKey) {
+        remove(oldKey, product);
+        put(newKey, product);
+    }
+
+    // Products with from <= key <= to, a null bound leaves that end of the range open
+    public List<Product> range(K from, K to) {
+        return range(from, to, 0, Integer.MAX_VALUE);
+    }
+
+    // One page of the products with from <= key <= to, skipping the first offset matches
+    public List<Product> range(K from, K to, int offset, int limit) {
+        return collect(slice(from, to).values().iterator(), offset, limit);
+    }
+
+    // The limit products with the lowest keys
+    public List<Product> lowest(int limit) {
+        return collect(productsByKey.values().iterator(), 0, limit);
+    }
+
+    // The limit products with the highest keys, highest first
+    public List<Product> highest(int limit) {
+        List<Product> products = new ArrayList<>(Math.min(limit, size));
+        for (TreeMap<String, Product> sameKey : productsByKey.descendingMap().values()) {
+            for (Product product : sameKey.values()) {
+                if (products.size() >= limit) {
+                    return products;
+                }
+                products.add(product);
+            }
+        }
+        return products;
+    }
+
+    // Number of products with from <= key <= to
+    public int count(K from, K to) {
+        int count = 0;
+        for (TreeMap<String, Product> sameKey : slice(from, to).values()) {
+            count += sameKey.size();
+        }
+        return count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Every product in ascending key order
+    @Override
+    public Iterator<Product> iterator() {
+        Iterator<TreeMap<String, Product>> groups = productsByKey.values().iterator();
+        return new Iterator<Product>() {
+            private Iterator<Product> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && groups.hasNext()) {
+                    current = groups.next().values().iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Product next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    public void clear() {
+        productsByKey.clear();
+        size = 0;
+    }
+
+    private NavigableMap<K, TreeMap<String, Product>> slice(K from, K to) {
+        if (from != null && to != null) {
+            return from.compareTo(to) > 0 ? new TreeMap<>() : productsByKey.subMap(from, true, to, true);
+        } else if (from != null) {
+            return productsByKey.tailMap(from, true);
+        } else if (to != null) {
+            return productsByKey.headMap(to, true);
+        }
+        return productsByKey;
+    }
+
+    private List<Product> collect(Iterator<TreeMap<String, Product>> groups, int offset, int limit) {
+        List<Product> products = new ArrayList<>();
+        int skipped = 0;
+        while (groups.hasNext() && products.size() < limit) {
+            TreeMap<String, Product> sameKey = groups.next();
+            // Skip whole groups that lie entirely before the requested page
+            if (skipped + sameKey.size() <= offset) {
+                skipped += sameKey.size();
+                continue;
+            }
+            for (Map.Entry<String, Product> entry : sameKey.entrySet()) {
+                if (skipped < offset) {
+                    skipped++;
+                } else if (products.size() < limit) {
+                    products.add(entry.getValue());
+                } else {
+                    break;
+                }
+            }
+        }
+        return products;
+    }
+
+    private void put(K key, Product product) {
+        if (productsByKey.computeIfAbsent(key, k -> new TreeMap<>()).put(product.getProductId(), product) == null) {
+            size++;
+        }
+    }
+
+    // Removes a product filed under key
+    public void remove(K key, Product product) {
+        TreeMap<String, Product> sameKey = productsByKey.get(key);
+        if (sameKey != null && sameKey.remove(product.getProductId()) != null) {
+            size--;
+            if (sameKey.isEmpty()) {
+                productsByKey.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+// In-memory full text index over product name, brand, colour and category.
+// Each term maps to a bitmap of catalog ordinals (the inverted index) and every term is
+// also stored in a trie so prefixes can be expanded for autocomplete and search-as-you-type.
+public class ProductSearchIndex {
+    private final Map<String, BitSet> postings;
+    private final TrieNode root;
+
+    public ProductSearchIndex() {
+        this.postings = new HashMap<>();
+        this.root = new TrieNode();
+    }
+
+    public void add(int ordinal, Product product) {
+        for (String term : terms(product, null, null)) {
+            BitSet bitmap = postings.get(term);
+            if (bitmap == null) {
+                bitmap = new BitSet();
+                postings.put(term, bitmap);
+            }
+            if (!bitmap.get(ordinal)) {
+                bitmap.set(ordinal);
+                root.adjust(term, 0, 1);
+            }
+        }
+    }
+
+    public void remove(int ordinal, Product product) {
+        removeTerms(ordinal, terms(product, null, null));
+    }
+
+    // Re-indexes a product after one of its attributes changed from oldValue to its current value
+    public void attributeChanged(int ordinal, Product product, String attribute, String oldValue) {
+        removeTerms(ordinal, terms(product, attribute, oldValue));
+        add(ordinal, product);
+    }
+
+    // Ordinals of the products matching every word of the query.
+    // The last word is treated as a prefix unless the query ends with a space, so "blu sh" finds "Blue Shirt".
+    public BitSet search(String query) {
+        List<String> words = tokenize(query);
+        if (words.isEmpty()) {
+            return new BitSet();
+        }
+        boolean lastIsPrefix = !Character.isWhitespace(query.charAt(query.length() - 1));
+        BitSet result = null;
+        for (int i = 0; i < words.size(); i++) {
+            BitSet matches = (i == words.size() - 1 && lastIsPrefix) ? prefixMatches(words.get(i)) : postings.get(words.get(i));
+            if (matches == null || matches.isEmpty()) {
+                return new BitSet();
+            }
+            if (result == null) {
+                result = (BitSet) matches.clone();
+            } else {
+                result.and(matches);
+            }
+        }
+        return result;
+    }
+
+    // Up to limit indexed terms starting with the prefix, most common first
+    public List<String> autocomplete(String prefix, int limit) {
+        List<String> words = tokenize(prefix);
+        if (words.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        String word = words.get(words.size() - 1);
+        TrieNode node = root.find(word);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        // Min-heap on frequency holding the best limit terms seen so far
+        PriorityQueue<Map.Entry<String, Integer>> best = new PriorityQueue<>(
+                (a, b) -> a.getValue().equals(b.getValue()) ? b.getKey().compareTo(a.getKey()) : a.getValue() - b.getValue());
+        node.collect(new StringBuilder(word), best, limit);
+        List<String> suggestions = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            suggestions.add(best.poll().getKey());
+        }
+        Collections.reverse(suggestions);
+        return suggestions;
+    }
+
+    public void clear() {
+        postings.clear();
+        root.clear();
+    }
+
+    private BitSet prefixMatches(String prefix) {
+        TrieNode node = root.find(prefix);
+        if (node == null) {
+            return null;
+        }
+        BitSet matches = new BitSet();
+        List<String> terms = new ArrayList<>();
+        node.terms(new StringBuilder(prefix), terms);
+        for (String term : terms) {
+            matches.or(postings.get(term));
+        }
+        return matches;
+    }
+
+    private void removeTerms(int ordinal, Set<String> terms) {
+        for (String term : terms) {
+            BitSet bitmap = postings.get(term);
+            if (bitmap != null && bitmap.get(ordinal)) {
+                bitmap.clear(ordinal);
+                root.adjust(term, 0, -1);
+                if (bitmap.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+
+    // The distinct terms of a product, with one attribute optionally replaced by an earlier value
+    private static Set<String> terms(Product product, String overrideAttribute, String overrideValue) {
+        Set<String> terms = new LinkedHashSet<>();
+        terms.addAll(tokenize(product.getName()));
+        terms.addAll(tokenize(product.getCategory()));
+        if (product instanceof Electronics) {
+            String brand = ((Electronics) product).getBrand();
+            terms.addAll(tokenize(ProductAttributeIndex.BRAND.equals(overrideAttribute) ? overrideValue : brand));
+        } else if (product instanceof Clothing) {
+            String color = ((Clothing) product).getColor();
+            terms.addAll(tokenize(ProductAttributeIndex.COLOUR.equals(overrideAttribute) ? overrideValue : color));
+        }
+        return terms;
+    }
+
+    private static List<String> tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // Split on anything that isn't a letter or digit, scanning by hand since this runs for every product added
+        List<String> tokens = new ArrayList<>(4);
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // Trie node, children are kept in parallel arrays sorted by character
+    private static class TrieNode {
+        private char[] keys = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        private int frequency; // number of products containing the term that ends at this node
+
+        void adjust(String term, int depth, int delta) {
+            if (depth == term.length()) {
+                frequency += delta;
+                return;
+            }
+            char c = term.charAt(depth);
+            int index = Arrays.binarySearch(keys, c);
+            if (index < 0) {
+                if (delta < 0) {
+                    return;
+                }
+                index = -index - 1;
+                keys = insert(keys, index, c);
+                TrieNode[] grown = new TrieNode[children.length + 1];
+                System.arraycopy(children, 0, grown, 0, index);
+                System.arraycopy(children, index, grown, index + 1, children.length - index);
+                grown[index] = new TrieNode();
+                children = grown;
+            }
+            TrieNode child = children[index];
+            child.adjust(term, depth + 1, delta);
+            if (child.isEmpty()) {
+                removeChild(index);
+            }
+        }
+
+        TrieNode find(String prefix) {
+            TrieNode node = this;
+            for (int i = 0; i < prefix.length() && node != null; i++) {
+                int index = Arrays.binarySearch(node.keys, prefix.charAt(i));
+                node = index < 0 ? null : node.children[index];
+            }
+            return node;
+        }
+
+        void collect(StringBuilder path, PriorityQueue<Map.Entry<String, Integer>> best, int limit) {
+            if (frequency > 0) {
+                best.add(new AbstractMap.SimpleEntry<>(path.toString(), frequency));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+            for (int i = 0; i < keys.length; i++) {
+                path.append(keys[i]);
+                children[i].collect(path, best, limit);
+                path.setLength(path.length() - 1);
+            }
+        }
+
+        void terms(StringBuilder path, List<String> terms) {
+            if (frequency > 0) {
+                terms.add(path.toString());
+            }
+            for (int i = 0; i < keys.length; i++) {
+                path.append(keys[i]);
+                children[i].terms(path, terms);
+                path.setLength(path.length() - 1);
+            }
+        }
+
+        void clear() {
+            keys = new char[0];
+            children = new TrieNode[0];
+            frequency = 0;
+        }
+
+        private boolean isEmpty() {
+            return frequency == 0 && keys.length == 0;
+        }
+
+        private void removeChild(int index) {
+            char[] shrunkKeys = new char[keys.length - 1];
+            TrieNode[] shrunkChildren = new TrieNode[children.length - 1];
+            System.arraycopy(keys, 0, shrunkKeys, 0, index);
+            System.arraycopy(keys, index + 1, shrunkKeys, index, keys.length - index - 1);
+            System.arraycopy(children, 0, shrunkChildren, 0, index);
+            System.arraycopy(children, index + 1, shrunkChildren, index, children.length - index - 1);
+            keys = shrunkKeys;
+            children = shrunkChildren;
+        }
+
+        private static char[] insert(char[] array, int index, char value) {
+            char[] grown = new char[array.length + 1];
+            System.arraycopy(array, 0, grown, 0, index);
+            System.arraycopy(array, index, grown, index + 1, array.length - index);
+            grown[index] = value;
+            return grown;
+        }
+    }
+}
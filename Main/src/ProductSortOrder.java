@@ -0,0 +1,17 @@
+// Orders in which the catalog can list products without sorting them on every call
+public enum ProductSortOrder {
+    ID("Product ID"),
+    NAME("Name"),
+    PRICE("Price");
+
+    private final String label;
+
+    ProductSortOrder(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.regex.Pattern;
+
+// Validation rules for product fields, shared by the console add dialogue and the bulk importer
+public final class ProductValidator {
+    private static final Pattern NAME_PATTERN = Pattern.compile("[a-zA-Z ]+"); // letters and spaces
+    private static final Pattern BRAND_PATTERN = Pattern.compile("[a-zA-Z ]+");
+    private static final Pattern SIZE_PATTERN = Pattern.compile("S|M|L|XL|XXL");
+    private static final Pattern COLOR_PATTERN = Pattern.compile("[a-zA-Z]+"); // a single word
+    private static final Pattern ID_DIGITS_PATTERN = Pattern.compile("\\d{4," + ProductKey.MAX_DIGITS + "}");
+
+    private ProductValidator() {
+    }
+
+    // A prefix letter followed by 4 to 9 digits, e.g. E0001 for Electronics (doesn't check for duplicates)
+    public static boolean isValidProductId(String productId, String prefix) {
+        if (productId == null || productId.trim().isEmpty() || !productId.startsWith(prefix)) {
+            return false;
+        }
+        return ID_DIGITS_PATTERN.matcher(productId.substring(1)).matches();
+    }
+
+    public static boolean isValidName(String name) {
+        return name != null && NAME_PATTERN.matcher(name).matches();
+    }
+
+    public static boolean isValidBrand(String brand) {
+        return brand != null && BRAND_PATTERN.matcher(brand).matches();
+    }
+
+    // Expects the size already converted to upper case
+    public static boolean isValidSize(String size) {
+        return size != null && SIZE_PATTERN.matcher(size).matches();
+    }
+
+    public static boolean isValidColor(String color) {
+        return color != null && COLOR_PATTERN.matcher(color).matches();
+    }
+
+    public static boolean isValidAvailableItems(int availableItems) {
+        return availableItems >= 0;
+    }
+
+    public static boolean isValidPrice(double price) {
+        return price >= 0 && !Double.isNaN(price) && !Double.isInfinite(price);
+    }
+
+    public static boolean isValidWarrantyPeriod(int warrantyPeriod) {
+        return warrantyPeriod > 0;
+    }
+}
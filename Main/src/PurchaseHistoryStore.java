@@ -0,0 +1,201 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// Orders and purchase histories kept in the key-value store, outside the user records.
+// Users are loaded without their histories; a history is read the first time it is needed.
+//
+// Keys:
+//   "h/" + normalized username + "/" + order key   the order record, so a user's history is one range scan
+//   "o/" + order key                                 normalized username of the order's owner
+//   "m/lastOrderId"                                  highest order ID handed out
+// The order key is the order ID as 16 hex digits with the sign bit flipped, so keys sort by ID.
+// Writing an order is idempotent, replaying a journal event for an order already stored rewrites it.
+public class PurchaseHistoryStore {
+    private static final String HISTORY_PREFIX = "h/";
+    private static final String ORDER_PREFIX = "o/";
+    private static final String LAST_ORDER_ID_KEY = "m/lastOrderId";
+    // Orders moved from an old users file had no ID, they get IDs counting up from here
+    private static final long LEGACY_ORDER_ID = Long.MIN_VALUE;
+
+    private final KeyValueStore store;
+    private final Function<String, Product> catalogLookup;
+    private long lastOrderId = -1; // read from the store on first use
+
+    public PurchaseHistoryStore(KeyValueStore store, Function<String, Product> catalogLookup) {
+        this.store = store;
+        this.catalogLookup = catalogLookup;
+    }
+
+    // Hands out the next order ID, durable together with the order it is used for
+    public synchronized long nextOrderId() throws IOException {
+        long orderId = getLastOrderId() + 1;
+        noteOrderId(orderId);
+        return orderId;
+    }
+
+    // Makes sure IDs handed out later are above orderId, used when orders are replayed
+    public synchronized void noteOrderId(long orderId) throws IOException {
+        if (orderId > getLastOrderId()) {
+            lastOrderId = orderId;
+            store.put(LAST_ORDER_ID_KEY, ByteBuffer.allocate(8).putLong(orderId).array(), false);
+        }
+    }
+
+    // Stores one order in the user's history, durable after the next sync
+    public void append(String username, long orderId, Product purchase) throws IOException {
+        String normalized = UserStore.normalize(username);
+        store.put(HISTORY_PREFIX + normalized + "/" + orderKey(orderId), encode(purchase), false);
+        store.put(ORDER_PREFIX + orderKey(orderId), normalized.getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    // Stores the index-th purchase of a history read from an old users file
+    public void appendLegacy(String username, int index, Product purchase) throws IOException {
+        String normalized = UserStore.normalize(username);
+        store.put(HISTORY_PREFIX + normalized + "/" + orderKey(LEGACY_ORDER_ID + index), encode(purchase), false);
+    }
+
+    // Reads a user's history in order ID order, products still in the catalog resolve to the catalog instance
+    public List<Product> load(String username) throws IOException {
+        List<Product> history = new ArrayList<>();
+        for (byte[] record : store.scanPrefix(historyPrefix(username)).values()) {
+            history.add(decode(record));
+        }
+        return history;
+    }
+
+    // True if the user has at least one recorded purchase, only the user's own key range is read
+    public boolean hasHistory(String username) {
+        try {
+            return !store.scanPrefix(historyPrefix(username)).isEmpty();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Owner (normalized username) of an order, or null if there is no such order
+    public String findOrderOwner(long orderId) throws IOException {
+        byte[] owner = store.get(ORDER_PREFIX + orderKey(orderId));
+        return owner != null ? new String(owner, StandardCharsets.UTF_8) : null;
+    }
+
+    // Moves a history stored under an older normalized form of a username to the current one
+    public void renameUser(String oldNormalized, String newNormalized) throws IOException {
+        String oldPrefix = HISTORY_PREFIX + oldNormalized + "/";
+        for (Map.Entry<String, byte[]> order : store.scanPrefix(oldPrefix).entrySet()) {
+            String key = order.getKey().substring(oldPrefix.length());
+            store.put(HISTORY_PREFIX + newNormalized + "/" + key, order.getValue(), false);
+            if (store.contains(ORDER_PREFIX + key)) {
+                store.put(ORDER_PREFIX + key, newNormalized.getBytes(StandardCharsets.UTF_8), false);
+            }
+            store.delete(order.getKey(), false);
+        }
+    }
+
+    // Forces every stored order to disk
+    public void sync() throws IOException {
+        store.sync();
+    }
+
+    // Moves the per-user history files of the previous storage layout into the store.
+    // Their records were tagged with the journal sequence of the purchase, which becomes the order ID.
+    public int migrateFiles(Path directory) throws IOException {
+        int migrated = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.hist")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String username = fromHex(name.substring(0, name.length() - ".hist".length()));
+                int legacyIndex = 0;
+                try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+                    while (true) {
+                        long sequence;
+                        Product purchase;
+                        try {
+                            sequence = in.readLong();
+                            purchase = readLegacyPurchase(in);
+                        } catch (EOFException e) {
+                            break; // End of file, or a record cut short by a crash
+                        }
+                        if (sequence > 0) {
+                            noteOrderId(sequence);
+                            append(username, sequence, purchase);
+                        } else if (sequence < 0) {
+                            appendLegacy(username, legacyIndex++, purchase);
+                        } else {
+                            append(username, nextOrderId(), purchase);
+                        }
+                    }
+                }
+                migrated++;
+            }
+        }
+        return migrated;
+    }
+
+    private long getLastOrderId() throws IOException {
+        if (lastOrderId < 0) {
+            byte[] value = store.get(LAST_ORDER_ID_KEY);
+            lastOrderId = value != null ? ByteBuffer.wrap(value).getLong() : 0;
+        }
+        return lastOrderId;
+    }
+
+    private static String historyPrefix(String username) {
+        return HISTORY_PREFIX + UserStore.normalize(username) + "/";
+    }
+
+    private static String orderKey(long orderId) {
+        return String.format("%016x", orderId ^ Long.MIN_VALUE);
+    }
+
+    private static byte[] encode(Product purchase) {
+        return new RecordCodec.Writer().writePurchase(purchase).toByteArray();
+    }
+
+    private Product decode(byte[] record) throws IOException {
+        if (RecordCodec.isEncoded(record)) {
+            return new RecordCodec.Reader(record, catalogLookup).readPurchase();
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            return readLegacyPurchase(in);
+        }
+    }
+
+    // Purchase records written before the codec (and in the old per-user files): total, day, then
+    // ID, name, price and category of every line
+    private Product readLegacyPurchase(DataInputStream in) throws IOException {
+        double totalCost = in.readDouble();
+        LocalDate purchaseDate = LocalDate.ofEpochDay(in.readLong());
+        int count = in.readInt();
+        List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String productId = in.readUTF();
+            String name = in.readUTF();
+            double price = in.readDouble();
+            String category = in.readUTF();
+            Product product = catalogLookup.apply(productId);
+            products.add(product != null ? product
+                    : new Product(productId, name, 0, price, category.isEmpty() ? null : category));
+        }
+        return new Product(products, totalCost, purchaseDate);
+    }
+
+    private static String fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
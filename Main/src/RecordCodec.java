@@ -0,0 +1,335 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+
+// Explicit binary encoding of products, purchases and users that doesn't depend on Java serialization,
+// for files and the key-value store today and for sending records elsewhere later.
+//
+// An encoded stream starts with MAGIC and the schema version, followed by records. Every record starts
+// with a type tag. Integers are variable length (7 bits per byte, zig-zag for signed values), doubles
+// are their 8 raw bytes, dates are epoch days and times are nanoseconds of the day. Purchase totals are
+// signed cents since schema version 2; version 1 streams stored them as doubles and are still read. Dates
+// before 1970 are stored as their (negative) epoch day since version 3; earlier versions stored every
+// date as epoch day + 1, so 1969-12-31 came out as 0 and read back as no date. Strings go through
+// a dictionary kept per stream: the first occurrence is written in full and repeats (categories,
+// brands, colours, ...) as a small reference. String references: 0 null, 1 a new string (byte length
+// and UTF-8 bytes follow), n >= 2 the (n - 2)th string of the stream.
+public final class RecordCodec {
+    public static final int MAGIC = 0xC5;
+    public static final int SCHEMA_VERSION = 3;
+
+    static final int TAG_PRODUCT = 1;
+    static final int TAG_ELECTRONICS = 2;
+    static final int TAG_CLOTHING = 3;
+    static final int TAG_PURCHASE = 4;
+    static final int TAG_USER = 5;
+
+    private RecordCodec() {
+    }
+
+    // True if bytes start with a codec header rather than an older format
+    public static boolean isEncoded(byte[] bytes) {
+        return bytes.length > 0 && (bytes[0] & 0xFF) == MAGIC;
+    }
+
+    public static final class Writer {
+        private byte[] buffer = new byte[64];
+        private int size;
+        private final HashMap<String, Integer> dictionary = new HashMap<>();
+
+        public Writer() {
+            writeByte(MAGIC);
+            writeVarInt(SCHEMA_VERSION);
+        }
+
+        // A catalog product (or a line of a purchase)
+        public Writer writeProduct(Product product) {
+            if (product instanceof Electronics) {
+                Electronics electronics = (Electronics) product;
+                writeVarInt(TAG_ELECTRONICS);
+                writeProductFields(product);
+                writeString(electronics.getBrand());
+                writeSignedVarLong(electronics.getWarrantyPeriod());
+            } else if (product instanceof Clothing) {
+                Clothing clothing = (Clothing) product;
+                writeVarInt(TAG_CLOTHING);
+                writeProductFields(product);
+                writeString(clothing.getSize());
+                writeString(clothing.getColor());
+            } else {
+                writeVarInt(TAG_PRODUCT);
+                writeProductFields(product);
+                writeString(product.getCategory());
+            }
+            return this;
+        }
+
+        // A purchase record: total, date and the purchased products
+        public Writer writePurchase(Product purchase) {
+            writeVarInt(TAG_PURCHASE);
+            writeSignedVarLong(purchase.getTotalCostMinor());
+            writeDate(purchase.getPurchaseDate());
+            List<Product> products = purchase.getPurchasedProducts();
+            writeVarInt(products != null ? products.size() : 0);
+            if (products != null) {
+                for (Product product : products) {
+                    writeProduct(product);
+                }
+            }
+            return this;
+        }
+
+        // A user's account data, the purchase history is stored separately
+        public Writer writeUser(User user) {
+            writeVarInt(TAG_USER);
+            writeString(user.getUsername());
+            writeString(user.getPassword());
+            writeDate(user.getAccountCreationDate());
+            LocalTime time = user.getAccountCreationTime();
+            writeVarLong(time != null ? time.toNanoOfDay() + 1 : 0);
+            return this;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        public Writer writeVarInt(int value) {
+            return writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        // Unsigned value, 7 bits per byte with the high bit set on every byte but the last
+        public Writer writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+            return this;
+        }
+
+        // Zig-zag encoded so small negative numbers stay short
+        public Writer writeSignedVarLong(long value) {
+            return writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        public Writer writeDouble(double value) {
+            long bits = Double.doubleToLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                writeByte((int) (bits >>> shift));
+            }
+            return this;
+        }
+
+        public Writer writeString(String value) {
+            if (value == null) {
+                return writeVarInt(0);
+            }
+            Integer reference = dictionary.get(value);
+            if (reference != null) {
+                return writeVarInt(reference + 2);
+            }
+            dictionary.put(value, dictionary.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(1);
+            writeVarInt(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+            return this;
+        }
+
+        private void writeProductFields(Product product) {
+            writeString(product.getProductId());
+            writeString(product.getName());
+            writeSignedVarLong(product.getAvailableItems());
+            writeDouble(product.getPrice());
+            writeDate(product.getDateAdded());
+        }
+
+        // 0 for no date, epoch day + 1 from 1970 on, the epoch day itself before that
+        private void writeDate(LocalDate date) {
+            if (date == null) {
+                writeSignedVarLong(0);
+            } else {
+                long day = date.toEpochDay();
+                writeSignedVarLong(day >= 0 ? day + 1 : day);
+            }
+        }
+
+        private void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+
+    public static final class Reader {
+        private final byte[] bytes;
+        private final Function<String, Product> productResolver;
+        private final List<String> dictionary = new ArrayList<>();
+        private final int schemaVersion;
+        private int position;
+
+        public Reader(byte[] bytes) throws IOException {
+            this(bytes, null);
+        }
+
+        // Purchase lines whose product ID the resolver knows decode to the resolved product
+        public Reader(byte[] bytes, Function<String, Product> productResolver) throws IOException {
+            this.bytes = bytes;
+            this.productResolver = productResolver;
+            if (!isEncoded(bytes)) {
+                throw new IOException("Not an encoded record");
+            }
+            position = 1;
+            schemaVersion = readVarInt();
+            if (schemaVersion < 1 || schemaVersion > SCHEMA_VERSION) {
+                throw new IOException("Unsupported record schema version " + schemaVersion);
+            }
+        }
+
+        public int getSchemaVersion() {
+            return schemaVersion;
+        }
+
+        public boolean hasMore() {
+            return position < bytes.length;
+        }
+
+        public Product readProduct() throws IOException {
+            return readProduct(readVarInt());
+        }
+
+        public Product readPurchase() throws IOException {
+            expectTag(TAG_PURCHASE);
+            long totalCost = schemaVersion >= 2 ? readSignedVarLong() : Money.ofMajor(readDouble());
+            LocalDate purchaseDate = readDate();
+            int count = readVarInt();
+            List<Product> products = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Product product = readProduct();
+                Product resolved = productResolver != null ? productResolver.apply(product.getProductId()) : null;
+                products.add(resolved != null ? resolved : product);
+            }
+            return new Product(products, Money.toMajor(totalCost), purchaseDate);
+        }
+
+        public User readUser() throws IOException {
+            expectTag(TAG_USER);
+            String username = readString();
+            String password = readString();
+            LocalDate creationDate = readDate();
+            long time = readVarLong();
+            return new User(username, password, creationDate, time != 0 ? LocalTime.ofNanoOfDay(time - 1) : null);
+        }
+
+        public int readVarInt() throws IOException {
+            long value = readVarLong();
+            if (value > 0xFFFFFFFFL) {
+                throw new IOException("Malformed record: integer out of range");
+            }
+            return (int) value;
+        }
+
+        public long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed record: integer too long");
+        }
+
+        public long readSignedVarLong() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        public double readDouble() throws IOException {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | readByte();
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        public String readString() throws IOException {
+            int reference = readVarInt();
+            if (reference == 0) {
+                return null;
+            } else if (reference == 1) {
+                int length = readVarInt();
+                if (length > bytes.length - position) {
+                    throw new IOException("Malformed record: string runs past the end");
+                }
+                String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+                position += length;
+                dictionary.add(value);
+                return value;
+            } else if (reference - 2 < dictionary.size()) {
+                return dictionary.get(reference - 2);
+            }
+            throw new IOException("Malformed record: unknown string reference " + reference);
+        }
+
+        private Product readProduct(int tag) throws IOException {
+            if (tag != TAG_PRODUCT && tag != TAG_ELECTRONICS && tag != TAG_CLOTHING) {
+                throw new IOException("Malformed record: expected a product but found tag " + tag);
+            }
+            String productId = readString();
+            String name = readString();
+            int availableItems = (int) readSignedVarLong();
+            double price = readDouble();
+            LocalDate dateAdded = readDate();
+            Product product;
+            if (tag == TAG_ELECTRONICS) {
+                String brand = readString();
+                product = new Electronics(productId, name, availableItems, price, brand, (int) readSignedVarLong());
+            } else if (tag == TAG_CLOTHING) {
+                String size = readString();
+                product = new Clothing(productId, name, availableItems, price, size, readString());
+            } else {
+                product = new Product(productId, name, availableItems, price, readString());
+            }
+            product.setDateAdded(dateAdded);
+            return product;
+        }
+
+        private LocalDate readDate() throws IOException {
+            long day = readSignedVarLong();
+            if (day == 0) {
+                return null;
+            }
+            return LocalDate.ofEpochDay(day > 0 || schemaVersion < 3 ? day - 1 : day);
+        }
+
+        private void expectTag(int expected) throws IOException {
+            int tag = readVarInt();
+            if (tag != expected) {
+                throw new IOException("Malformed record: expected tag " + expected + " but found " + tag);
+            }
+        }
+
+        private int readByte() throws IOException {
+            if (position >= bytes.length) {
+                throw new IOException("Malformed record: unexpected end");
+            }
+            return bytes[position++] & 0xFF;
+        }
+    }
+}
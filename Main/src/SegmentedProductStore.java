@@ -0,0 +1,95 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Growable product storage split into fixed-size segments.
+// Each product gets an ordinal (its slot number) that stays the same until it is removed,
+// growing only allocates a new segment so existing products are never copied.
+public class SegmentedProductStore {
+    public static final int SEGMENT_SHIFT = 12;
+    public static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT; // 4096 products per segment
+    public static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final List<Product[]> segments;
+    private int[] freeOrdinals; // slots released by remove(), reused before growing
+    private int freeCount;
+    private int highWater; // first ordinal that has never been handed out
+    private int size;
+
+    public SegmentedProductStore() {
+        this.segments = new ArrayList<>();
+        this.freeOrdinals = new int[16];
+    }
+
+    // Stores the product and returns the ordinal it was placed at
+    public int add(Product product) {
+        int ordinal;
+        if (freeCount > 0) {
+            ordinal = freeOrdinals[--freeCount];
+        } else {
+            ordinal = highWater++;
+            if ((ordinal >>> SEGMENT_SHIFT) == segments.size()) {
+                segments.add(new Product[SEGMENT_SIZE]);
+            }
+        }
+        segments.get(ordinal >>> SEGMENT_SHIFT)[ordinal & SEGMENT_MASK] = product;
+        size++;
+        return ordinal;
+    }
+
+    public Product get(int ordinal) {
+        if (ordinal < 0 || ordinal >= highWater) {
+            return null;
+        }
+        return segments.get(ordinal >>> SEGMENT_SHIFT)[ordinal & SEGMENT_MASK];
+    }
+
+    // Clears the slot and returns the product that was in it, or null if it was already empty
+    public Product remove(int ordinal) {
+        Product product = get(ordinal);
+        if (product == null) {
+            return null;
+        }
+        segments.get(ordinal >>> SEGMENT_SHIFT)[ordinal & SEGMENT_MASK] = null;
+        if (freeCount == freeOrdinals.length) {
+            freeOrdinals = Arrays.copyOf(freeOrdinals, freeCount * 2);
+        }
+        freeOrdinals[freeCount++] = ordinal;
+        size--;
+        return product;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Upper bound (exclusive) of the ordinals handed out so far
+    public int capacity() {
+        return highWater;
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    // Visits every stored product in ordinal order
+    public void forEach(Consumer<Product> action) {
+        for (int s = 0; s < segments.size(); s++) {
+            Product[] segment = segments.get(s);
+            int limit = Math.min(SEGMENT_SIZE, highWater - (s << SEGMENT_SHIFT));
+            for (int i = 0; i < limit; i++) {
+                if (segment[i] != null) {
+                    action.accept(segment[i]);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        segments.clear();
+        freeCount = 0;
+        highWater = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,42 @@
+// One shopper's session: the logged-in user, their cart and when the session was last used.
+// Sessions are created and evicted by SessionManager; every access through it refreshes the last access time.
+public class Session {
+    private final String id;
+    private final User user;
+    private final ShoppingCart cart;
+    private volatile long lastAccessNanos;
+
+    Session(String id, User user, ShoppingCart cart) {
+        this.id = id;
+        this.user = user;
+        this.cart = cart;
+        this.lastAccessNanos = System.nanoTime();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public User getUser() {
+        touch();
+        return user;
+    }
+
+    public ShoppingCart getCart() {
+        touch();
+        return cart;
+    }
+
+    long getLastAccessNanos() {
+        return lastAccessNanos;
+    }
+
+    void touch() {
+        lastAccessNanos = System.nanoTime();
+    }
+
+    @Override
+    public String toString() {
+        return "Session " + id + " (" + user.getUsername() + ")";
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Open shopping sessions, one per logged-in shopper, keyed by a random session ID.
+//
+// Sessions live in a ConcurrentHashMap, so opening, looking up and closing them never blocks other
+// sessions. A background thread evicts sessions that haven't been used for the idle timeout; a session
+// that has timed out is also treated as gone when it is looked up before the sweep reaches it. Each
+// session's cart holds at most maxCartLines different products, which bounds the memory one shopper
+// can tie up.
+public class SessionManager implements AutoCloseable {
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final long idleTimeoutNanos;
+    private final int maxCartLines;
+    private final Supplier<PricingEngine> pricing;
+    private final ScheduledExecutorService evictor;
+
+    // Metrics
+    private final AtomicLong sessionsOpened = new AtomicLong();
+    private final AtomicLong sessionsEvicted = new AtomicLong();
+    private volatile int peakSessions;
+
+    // Carts are priced with whatever engine pricing returns at the time, so promotions can be reloaded
+    public SessionManager(long idleTimeout, TimeUnit unit, int maxCartLines, Supplier<PricingEngine> pricing) {
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        this.maxCartLines = maxCartLines;
+        this.pricing = pricing;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Sweep a few times per timeout, so sessions are gone at most a quarter of it after expiring
+        long period = Math.max(TimeUnit.SECONDS.toNanos(1), idleTimeoutNanos / 4);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    // Starts a session for a logged-in user with an empty cart
+    public Session open(User user) {
+        Session session = new Session(UUID.randomUUID().toString(), user, new ShoppingCart(maxCartLines, pricing));
+        sessions.put(session.getId(), session);
+        sessionsOpened.incrementAndGet();
+        int open = sessions.size();
+        if (open > peakSessions) {
+            peakSessions = open; // Racy maximum, only used for reporting
+        }
+        return session;
+    }
+
+    // The session with this ID, or null if it was closed or has been idle too long
+    public Session get(String id) {
+        Session session = sessions.get(id);
+        if (session == null) {
+            return null;
+        }
+        if (isIdle(session, System.nanoTime())) {
+            if (sessions.remove(id, session)) {
+                sessionsEvicted.incrementAndGet();
+            }
+            return null;
+        }
+        session.touch();
+        return session;
+    }
+
+    // True while the session is open, refreshing its last access time
+    public boolean isOpen(Session session) {
+        return get(session.getId()) == session;
+    }
+
+    public void close(Session session) {
+        sessions.remove(session.getId(), session);
+    }
+
+    // Removes every session that has been idle for longer than the timeout, returns how many
+    public int evictIdle() {
+        long now = System.nanoTime();
+        int evicted = 0;
+        for (Session session : sessions.values()) {
+            if (isIdle(session, now) && sessions.remove(session.getId(), session)) {
+                evicted++;
+            }
+        }
+        sessionsEvicted.addAndGet(evicted);
+        return evicted;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public int getMaxCartLines() {
+        return maxCartLines;
+    }
+
+    @Override
+    public String toString() {
+        return "Sessions open: " + sessions.size() + " (peak " + peakSessions + ")"
+                + ", opened: " + sessionsOpened.get() + ", evicted idle: " + sessionsEvicted.get()
+                + ", idle timeout: " + TimeUnit.NANOSECONDS.toSeconds(idleTimeoutNanos) + " s"
+                + ", max cart lines: " + maxCartLines;
+    }
+
+    @Override
+    public void close() {
+        evictor.shutdownNow();
+        sessions.clear();
+    }
+
+    private boolean isIdle(Session session, long now) {
+        return now - session.getLastAccessNanos() > idleTimeoutNanos;
+    }
+}
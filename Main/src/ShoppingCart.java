@@ -1,48 +1,104 @@
 import java.util.HashMap;
-import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
 import javax.swing.JOptionPane;
 public class ShoppingCart {
-    private Map<Product, Integer> productQuantities;
+    // One line per product in the order they were added, found by row or by ProductKey
+    private final CartLines lines = new CartLines();
+    private final List<CartChangeListener> listeners = new CopyOnWriteArrayList<>();
     private boolean isFirstPurchase;
-    private double categoryDiscount = 0.0;
-    private double firstPurchaseDiscount = 0.0;
-    private double subtotal = 0.0;
+    // In cents, kept up to date by every change to the cart. An edit adds the product's price at the
+    // time, so after a price change the sum can mix old and new prices; pricedAt is the
+    // Product.getPriceChangeCount() the sum was last made from, and reading the subtotal re-sums the
+    // lines at current prices once that count has moved.
+    private long subtotal;
+    private long pricedAt;
+    // Items per category (counts stay in the map at zero so re-adding allocates nothing), and the
+    // highest of them
+    private final HashMap<String, int[]> categoryCounts = new HashMap<>();
+    private int largestCategoryCount;
+    private final int maxLines; // different products the cart can hold
+    private final Supplier<PricingEngine> pricing; // the promotions in force, looked up at every pricing
+    private PricingEngine.Result lastPricing;
+    // Per-promotion sums under the engine last priced with, made at the first pricing and then kept up
+    // to date by every change to the cart, so the total after an edit doesn't re-read every line
+    private PricingEngine.Totals totals;
+    // Read-only view of the products in the order they were added; it follows later changes to the cart
     public List<Product> getProducts() {
-        return new ArrayList<>(productQuantities.keySet());
+        return lines.products();
     }
 
     public ShoppingCart() {
-        this.productQuantities = new HashMap<>();
+        this(Integer.MAX_VALUE);
+    }
+
+    public ShoppingCart(int maxLines) {
+        this(maxLines, PricingEngine::defaults);
+    }
+
+    public ShoppingCart(int maxLines, Supplier<PricingEngine> pricing) {
         this.isFirstPurchase = false; // Default value, change if necessary
+        this.maxLines = maxLines;
+        this.pricing = pricing;
+        this.pricedAt = Product.getPriceChangeCount();
     }
 
 
 
     public void addProduct(Product product) {
-        productQuantities.merge(product, 1, Integer::sum);
+        long key = product.getProductKey();
+        if (key == ProductKey.INVALID) {
+            throw new IllegalArgumentException("Product has no valid product ID: " + product.getProductId());
+        }
+        int row = lines.rowOf(key);
+        if (row >= 0) {
+            setQuantity(row, lines.getQuantity(row) + 1);
+        } else {
+            addLine(product, 1);
+        }
     }
 
 
     public double calculateSubtotal() {
-        subtotal = productQuantities.entrySet().stream()
-                .mapToDouble(entry -> entry.getKey().getPrice() * entry.getValue())
-                .sum();
+        return Money.toMajor(getSubtotalMinor());
+    }
+
+    // The subtotal at current prices: the running sum while no price has changed, a re-sum of the
+    // lines after one has
+    public long getSubtotalMinor() {
+        long priceChanges = Product.getPriceChangeCount();
+        if (priceChanges != pricedAt) {
+            long resummed = 0;
+            for (int row = 0; row < lines.size(); row++) {
+                resummed = Money.add(resummed, Money.times(lines.getProduct(row).getPriceMinor(), lines.getQuantity(row)));
+            }
+            subtotal = resummed;
+            pricedAt = priceChanges; // Read before the sum, so a change made during it is caught next time
+        }
         return subtotal;
     }
 
     public void clearCart() {
-        productQuantities.clear();
-        categoryDiscount = 0.0;
-        firstPurchaseDiscount = 0.0;
-        subtotal = 0.0;
+        lines.clear();
+        lastPricing = null;
+        if (totals != null) {
+            totals.clear();
+        }
+        subtotal = 0;
+        pricedAt = Product.getPriceChangeCount();
+        categoryCounts.clear();
+        largestCategoryCount = 0;
+        for (CartChangeListener listener : listeners) {
+            listener.cartCleared(this);
+        }
     }
     // Method to validate quantities in the cart
     public boolean validateCartQuantities() {
-        for (Map.Entry<Product, Integer> entry : productQuantities.entrySet()) {
-            Product product = entry.getKey();
-            int quantityInCart = entry.getValue();
+        for (int row = 0; row < lines.size(); row++) {
+            Product product = lines.getProduct(row);
+            int quantityInCart = lines.getQuantity(row);
             int availableQuantity = product.getAvailableItems();
 
             if (quantityInCart > availableQuantity) {
@@ -55,34 +111,39 @@ public class ShoppingCart {
     }
 
 
+    // Applies the promotions in force; the discounts given are available from getAppliedPromotions
     public double calculateFinalTotal(User currentUser) {
-        subtotal = calculateSubtotal();
-        double total = subtotal;
-
-        // Calculate category discount
-        if (CategoryDiscountCondition()) {
-            categoryDiscount = subtotal * 0.2; // 20% category discount
-            total -= categoryDiscount;
-        } else {
-            categoryDiscount = 0.0;
-        }
+        return Money.toMajor(calculateFinalTotalMinor(currentUser));
+    }
 
-        // Calculate first purchase discount
-        if (currentUser != null && !currentUser.hasPurchasedBefore()) {
-            firstPurchaseDiscount = subtotal * 0.1; // 10% first purchase discount
-            total -= firstPurchaseDiscount;
-        } else {
-            firstPurchaseDiscount = 0.0;
+    // The final total in cents
+    public long calculateFinalTotalMinor(User currentUser) {
+        PricingEngine engine = pricing.get();
+        if (totals == null || totals.getEngine() != engine) {
+            totals = engine.newTotals();
         }
+        lastPricing = totals.total(this, currentUser);
+        return lastPricing.getTotalMinor();
+    }
 
-        return total;
+    // Discounts given by the last calculateFinalTotal
+    public List<PricingEngine.AppliedPromotion> getAppliedPromotions() {
+        return lastPricing != null ? lastPricing.getApplied() : new ArrayList<>();
     }
 
     public int getProductQuantity(Product product) {
-        return productQuantities.getOrDefault(product, 0);
+        int row = lines.rowOf(product.getProductKey());
+        return row >= 0 ? lines.getQuantity(row) : 0;
+    }
+
+    // Quantity of the product with this ID, 0 if it isn't in the cart
+    public int getProductQuantity(String productId) {
+        int row = lines.rowOf(productId);
+        return row >= 0 ? lines.getQuantity(row) : 0;
     }
 
     public void updateProductQuantity(Product product, int quantity) {
+        int row = lines.rowOf(product.getProductKey());
         if (quantity > 0) {
             // Check if the requested quantity exceeds available stock
             int availableQuantity = product.getAvailableItems();
@@ -92,29 +153,107 @@ public class ShoppingCart {
                         "Requested quantity exceeds available stock.",
                         "Quantity Error",
                         JOptionPane.ERROR_MESSAGE);
+            } else if (row >= 0) {
+                setQuantity(row, quantity);
             } else {
-                productQuantities.put(product, quantity);
+                addLine(product, quantity);
+            }
+        } else if (row >= 0) {
+            int oldQuantity = lines.getQuantity(row);
+            Product removed = lines.remove(row);
+            applyQuantityChange(removed, oldQuantity, 0);
+            for (CartChangeListener listener : listeners) {
+                listener.lineRemoved(this, row, removed);
+            }
+        }
+    }
+
+    // Updates the quantity of the product on this row
+    public void updateQuantityAt(int row, int quantity) {
+        updateProductQuantity(lines.getProduct(row), quantity);
+    }
+
+    private void addLine(Product product, int quantity) {
+        if (lines.size() >= maxLines) {
+            throw new IllegalStateException("The cart cannot hold more than " + maxLines + " different products");
+        }
+        int row = lines.add(product, quantity);
+        applyQuantityChange(product, 0, quantity);
+        for (CartChangeListener listener : listeners) {
+            listener.lineAdded(this, row);
+        }
+    }
+
+    private void setQuantity(int row, int quantity) {
+        int oldQuantity = lines.setQuantity(row, quantity);
+        if (oldQuantity != quantity) {
+            applyQuantityChange(lines.getProduct(row), oldQuantity, quantity);
+            for (CartChangeListener listener : listeners) {
+                listener.quantityChanged(this, row, oldQuantity);
             }
-        } else {
-            productQuantities.remove(product);
         }
     }
 
-    private boolean CategoryDiscountCondition() {
-        Map<String, Integer> categoryCounts = new HashMap<>();
-        for (Product product : productQuantities.keySet()) {
-            String category = product.getCategory();
-            categoryCounts.merge(category, productQuantities.get(product), Integer::sum);
+    // Updates the running subtotal, the category counters and the promotion sums for a change of the
+    // product's quantity
+    private void applyQuantityChange(Product product, int oldQuantity, int newQuantity) {
+        int delta = newQuantity - oldQuantity;
+        if (totals != null) {
+            totals.lineChanged(product, oldQuantity, newQuantity);
+        }
+        subtotal = Money.add(subtotal, Money.times(product.getPriceMinor(), delta));
+        int[] count = categoryCounts.get(product.getCategory());
+        if (count == null) {
+            count = new int[1];
+            categoryCounts.put(product.getCategory(), count);
+        }
+        int oldCount = count[0];
+        count[0] += delta;
+        if (count[0] > largestCategoryCount) {
+            largestCategoryCount = count[0];
+        } else if (oldCount == largestCategoryCount && delta < 0) {
+            // The largest category shrank; there are only a handful of categories to look at
+            largestCategoryCount = 0;
+            for (int[] categoryCount : categoryCounts.values()) {
+                largestCategoryCount = Math.max(largestCategoryCount, categoryCount[0]);
+            }
         }
-        return categoryCounts.values().stream().anyMatch(count -> count >= 3);
     }
 
-    public double getCategoryDiscount() {
-        return categoryDiscount;
+    // Items in the category with the most items
+    public int getLargestCategoryCount() {
+        return largestCategoryCount;
+    }
+
+    // Lines in the order they were added; a line keeps its row until a line before it is removed
+    public int getLineCount() {
+        return lines.size();
+    }
+
+    public Product getLine(int row) {
+        return lines.getProduct(row);
+    }
+
+    public int getLineQuantity(int row) {
+        return lines.getQuantity(row);
+    }
+
+    // The row of the product with this ID, or -1 if it isn't in the cart
+    public int getLineRow(String productId) {
+        return lines.rowOf(productId);
+    }
+
+    // Listeners are called on the thread that changed the cart
+    public void addChangeListener(CartChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(CartChangeListener listener) {
+        listeners.remove(listener);
     }
 
-    public double getFirstPurchaseDiscount() {
-        return firstPurchaseDiscount;
+    public int getMaxLines() {
+        return maxLines;
     }
 
 }
@@ -1,33 +1,39 @@
 import javax.swing.*;
-import javax.swing.event.TableModelEvent;
-import javax.swing.event.TableModelListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableColumnModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.time.LocalDate;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.concurrent.CompletionException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 class ShoppingGUI {
     private JFrame frame;
     private JComboBox<String> categoryComboBox;
+    private JComboBox<ProductSortOrder> sortOrderComboBox;
+    private JTextField searchField;
+    private JLabel suggestionsLabel;
     private JTable productTable;
     private JTextArea productDetailsArea;
     private JButton addToCartButton, viewCartButton;
-    private ShoppingCart shoppingCart;
+    private final Session session; // the logged-in shopper and their cart
     private WestminsterShoppingManager manager;
     private JLabel totalCostLabel;
     private JTextArea totalsDiscountsArea; // Declare as a class member variable
+    private static final int MAX_SEARCH_RESULTS = 500;
+    private static final int MAX_SUGGESTIONS = 5;
 
-    public ShoppingGUI(WestminsterShoppingManager manager) {
+    public ShoppingGUI(WestminsterShoppingManager manager, Session session) {
         this.manager = manager;
-        this.shoppingCart = new ShoppingCart();
+        this.session = session;
 
         initializeUI();
         updateProductTable(manager.getProductList());
@@ -46,8 +52,18 @@ class ShoppingGUI {
         topPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
         categoryComboBox = new JComboBox<>(new String[]{"All", "Electronics", "Clothing"});
+        sortOrderComboBox = new JComboBox<>(ProductSortOrder.values());
         JPanel comboBoxPanel = new JPanel();
         comboBoxPanel.add(categoryComboBox);
+        comboBoxPanel.add(new JLabel("Sort by:"));
+        comboBoxPanel.add(sortOrderComboBox);
+
+        // Search field with autocomplete suggestions shown next to it
+        searchField = new JTextField(20);
+        suggestionsLabel = new JLabel(" ");
+        comboBoxPanel.add(new JLabel("Search:"));
+        comboBoxPanel.add(searchField);
+        comboBoxPanel.add(suggestionsLabel);
         topPanel.add(comboBoxPanel, BorderLayout.CENTER);
 
         viewCartButton = new JButton("Shopping Cart");
@@ -131,21 +147,25 @@ class ShoppingGUI {
         });
 
         // Category combo box action listener
-        categoryComboBox.addActionListener(e -> {
-            String selectedCategory = (String) categoryComboBox.getSelectedItem();
-            List<Product> filteredProducts = manager.getProductList().stream()
-                    .filter(product -> {
-                        if ("All".equals(selectedCategory)) {
-                            return true;
-                        } else if ("Electronics".equals(selectedCategory)) {
-                            return product instanceof Electronics;
-                        } else if ("Clothing".equals(selectedCategory)) {
-                            return product instanceof Clothing;
-                        }
-                        return false;
-                    })
-                    .collect(Collectors.toList());
-            updateProductTable(filteredProducts);
+        categoryComboBox.addActionListener(e -> refreshProductList());
+        sortOrderComboBox.addActionListener(e -> refreshProductList());
+
+        // Search again on every keystroke in the search field
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                refreshProductList();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                refreshProductList();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                refreshProductList();
+            }
         });
 
         // Add to Cart button action listener
@@ -156,8 +176,12 @@ class ShoppingGUI {
                 if (selectedRow != -1) {
                     Product selectedProduct = findProductById((String) productTable.getValueAt(selectedRow, 0));
                     if (selectedProduct != null) {
-                        shoppingCart.addProduct(selectedProduct);
-                        JOptionPane.showMessageDialog(frame, "Product added to cart successfully!");
+                        try {
+                            session.getCart().addProduct(selectedProduct);
+                            JOptionPane.showMessageDialog(frame, "Product added to cart successfully!");
+                        } catch (IllegalStateException ex) {
+                            JOptionPane.showMessageDialog(frame, ex.getMessage(), "Cart Full", JOptionPane.ERROR_MESSAGE);
+                        }
                     }
                 }
             }
@@ -167,53 +191,47 @@ class ShoppingGUI {
         viewCartButton.addActionListener(e -> displayShoppingCart());
     }
 
+    // Shows the products matching the selected category and the search field text
+    private void refreshProductList() {
+        String selectedCategory = (String) categoryComboBox.getSelectedItem();
+        String query = searchField.getText();
+        ProductSortOrder order = (ProductSortOrder) sortOrderComboBox.getSelectedItem();
+        Map<String, String> criteria = "All".equals(selectedCategory)
+                ? Collections.emptyMap()
+                : Collections.singletonMap(ProductAttributeIndex.CATEGORY, selectedCategory);
+
+        List<Product> filteredProducts;
+        if (!query.trim().isEmpty()) {
+            // Answered from the catalog's search index, narrowed by the category index
+            filteredProducts = manager.getCatalog().search(query, criteria, order, MAX_SEARCH_RESULTS);
+            List<String> suggestions = manager.getCatalog().autocomplete(query, MAX_SUGGESTIONS);
+            suggestionsLabel.setText(suggestions.isEmpty() ? "No matches" : String.join(", ", suggestions));
+        } else {
+            suggestionsLabel.setText(" ");
+            filteredProducts = criteria.isEmpty()
+                    ? manager.getCatalog().getSortedProducts(order)
+                    : manager.getCatalog().findByAttributes(criteria, order);
+        }
+        updateProductTable(filteredProducts);
+    }
+
     private void displayShoppingCart() {
         // Create a new dialog for displaying the shopping cart
         JDialog cartDialog = new JDialog(frame, "Shopping Cart", true);
         cartDialog.setSize(600, 400);
         cartDialog.setLayout(new BorderLayout());
+        cartDialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE); // So windowClosed fires
 
-        // Define column names for the cart table
-        String[] columnNames = {"Product Details", "Quantity", "Price"};
-
-
-        // Create the table model for the cart
-        DefaultTableModel cartModel = new DefaultTableModel(columnNames, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return column == 1;  // Only the "Quantity" column should be editable
-            }
-        };
-
-        // Fill the table model with cart items
-        for (Product product : shoppingCart.getProducts()) {
-            String productDetails = productToDetailsString(product);
-            int quantity = shoppingCart.getProductQuantity(product);
-            double price = product.getPrice() * quantity;
-            cartModel.addRow(new Object[]{productDetails, quantity, String.format("%.2f €", price)});
-        }
+        // Table model backed by the cart itself, so rows follow the cart's lines
+        CartTableModel cartModel = new CartTableModel(session.getCart(), this::productToDetailsString);
 
         // Create the cart table with the defined model
         JTable cartTable = new JTable(cartModel);
-        cartTable.getModel().addTableModelListener(new TableModelListener() {
-            public void tableChanged(TableModelEvent e) {
-                if (e.getType() == TableModelEvent.UPDATE && e.getColumn() == 1) {
-                    int row = e.getFirstRow();
-                    int newQuantity;
-                    try {
-                        newQuantity = Integer.parseInt(cartTable.getModel().getValueAt(row, 1).toString());
-                        if (newQuantity <= 0) throw new NumberFormatException();
-                    } catch (NumberFormatException ex) {
-                        JOptionPane.showMessageDialog(frame, "Please enter a valid quantity.");
-                        return;
-                    }
-
-                    Product product = shoppingCart.getProducts().get(row);
-                    double newPrice = product.getPrice() * newQuantity;
-                    cartTable.getModel().setValueAt(String.format("%.2f €", newPrice), row, 2);
-                    shoppingCart.updateProductQuantity(product, newQuantity);
-                    updateTotalCostLabel();
-                }
+        cartModel.addTableModelListener(e -> updateTotalCostLabel());
+        cartDialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                cartModel.detach();
             }
         });
 
@@ -257,7 +275,7 @@ class ShoppingGUI {
 
     private void completePurchase() {
         // Check if the cart quantities are valid before proceeding
-        if (!shoppingCart.validateCartQuantities()) {
+        if (!session.getCart().validateCartQuantities()) {
             JOptionPane.showMessageDialog(frame,
                     "One or more items in your cart exceed the available quantity.",
                     "Quantity Error",
@@ -266,84 +284,48 @@ class ShoppingGUI {
         }
 
         // Check if the cart is empty
-        if (shoppingCart.getProducts().isEmpty()) {
+        if (session.getCart().getProducts().isEmpty()) {
             JOptionPane.showMessageDialog(frame, "Your cart is empty!", "Purchase Failed", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
-        // Get the current user
-        User currentUser = manager.getCurrentUser();
-
-        // Check if a user is logged in
-        if (currentUser == null) {
-            JOptionPane.showMessageDialog(frame, "No user is currently logged in.", "Error", JOptionPane.ERROR_MESSAGE);
-            return;
-        }
-
-        // Calculate the total cost of the purchase
-        double totalCost = shoppingCart.calculateFinalTotal(currentUser);
-
-        // Get the list of products in the cart
-        List<Product> purchasedProducts = new ArrayList<>(shoppingCart.getProducts());
-
-        // Iterate over each product in the shopping cart and update their available quantities
-        for (Product cartProduct : purchasedProducts) {
-            int purchasedQuantity = shoppingCart.getProductQuantity(cartProduct);
-            Product mainListProduct = manager.findProductById(cartProduct.getProductId());
-            if (mainListProduct != null) {
-                int newAvailableQuantity = mainListProduct.getAvailableItems() - purchasedQuantity;
-                mainListProduct.setAvailableItems(Math.max(0, newAvailableQuantity));
-            }
-        }
-
-        // Create a new Purchase instance and add it to the user's purchase history
-        LocalDate purchaseDate = LocalDate.now();
-        Product newPurchase = new Product(purchasedProducts, totalCost, purchaseDate);
-        currentUser.addPurchase(newPurchase);
-
-        // Save the updated user data with the new purchase
-        manager.saveUsers();
-
-        // Clear the shopping cart after purchase
-        shoppingCart.clearCart();
+        // Update stock and the purchase history and empty the cart; the journal write finishes in
+        // the background and the result is reported back on the event thread
+        manager.checkout(session).whenComplete((result, error) ->
+                SwingUtilities.invokeLater(() -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                        JOptionPane.showMessageDialog(frame, "Purchase failed: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    } else {
+                        JOptionPane.showMessageDialog(frame, "Purchase completed successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    }
+                }));
 
         // Update the product table to reflect the new quantities
-        updateProductTable(manager.getProductList());
-
-        // Display a success message
-        JOptionPane.showMessageDialog(frame, "Purchase completed successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-
-        // Save the updated product list
-        manager.saveProducts(); // Save products after updating their quantities
+        refreshProductList();
     }
 
 
     // Update the total cost label
     private void updateTotalCostLabel() {
-        // Get the current user
-        User currentUser = manager.getCurrentUser();
+        // Get the session's user
+        User currentUser = session.getUser();
 
         // Calculate the subtotal of the items in the shopping cart
-        double subtotal = shoppingCart.calculateSubtotal();
+        long subtotal = session.getCart().getSubtotalMinor();
 
         // Calculate the final total with discounts applied, using the current user
-        double finalTotal = shoppingCart.calculateFinalTotal(currentUser);
-
-        // Get the first purchase discount percentage
-        double firstPurchaseDiscount = shoppingCart.getFirstPurchaseDiscount();
+        long finalTotal = session.getCart().calculateFinalTotalMinor(currentUser);
 
-        // Get the category discount percentage for purchasing three items in the same category
-        double categoryDiscount = shoppingCart.getCategoryDiscount();
-
-        // Create a formatted string with the calculated values
-        String totalsText = String.format("Subtotal: %.2f €\n" +
-                        "First Purchase Discount (10%%): -%.2f €\n" +
-                        "Three Items in the same Category Discount (20%%): -%.2f €\n" +
-                        "Final Total: %.2f €",
-                subtotal, firstPurchaseDiscount, categoryDiscount, finalTotal);
+        // Create a formatted string with the subtotal, every promotion applied and the final total
+        StringBuilder totalsText = new StringBuilder("Subtotal: " + Money.format(subtotal) + " €\n");
+        for (PricingEngine.AppliedPromotion promotion : session.getCart().getAppliedPromotions()) {
+            totalsText.append(promotion.getName()).append(": -").append(Money.format(promotion.getAmountMinor())).append(" €\n");
+        }
+        totalsText.append("Final Total: ").append(Money.format(finalTotal)).append(" €");
 
         // Set the formatted text to the totalsDiscountsArea JTextArea
-        totalsDiscountsArea.setText(totalsText);
+        totalsDiscountsArea.setText(totalsText.toString());
     }
 
     // Show details of the selected product
@@ -369,17 +351,8 @@ class ShoppingGUI {
 
     // Helper method to find a product by ID
     private Product findProductById(String productId) {
-        // Iterate through the list of products in the manager
-        for (Product product : manager.getProducts()) {
-            // Check if the product's ID matches the provided productId
-            if (product.getProductId().equals(productId)) {
-                // Return the found product
-                return product;
-            }
-        }
-
-        // If no product is found, return null (or handle the error as needed)
-        return null;
+        // Look the product up in the manager's catalog, returns null if no product has this ID
+        return manager.findProductById(productId);
     }
 
     // Helper method to format product details as a string
@@ -410,10 +383,9 @@ class ShoppingGUI {
         return details;
     }
 
-    // Update the product table with the provided list of products
+    // Update the product table with the provided list of products, shown in the order given.
+    // Callers pass lists read from the catalog's sorted views, so no sorting happens here.
     public void updateProductTable(List<Product> products) {
-        // Sort products alphabetically by their name
-        Collections.sort(products, Comparator.comparing(Product::getProductId));
         // Get the model of the productTable
         DefaultTableModel model = (DefaultTableModel) productTable.getModel();
 
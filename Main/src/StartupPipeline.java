@@ -0,0 +1,118 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Runs the startup phases (loading the catalog, opening the user store, replaying the journal, ...)
+// on background threads and times each of them.
+//
+// Phases are started with run() and chained through their futures, so independent phases overlap.
+// Milestones such as the first menu or the first frame are recorded with mark(); only the first mark
+// of a name counts. All times are measured from JVM start, so they include class loading before main.
+public class StartupPipeline {
+    public static final String FIRST_MENU = "first menu";
+    public static final String FIRST_FRAME = "first frame";
+    public static final String READY = "ready"; // every startup phase has finished
+
+    private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final ExecutorService executor;
+    private final List<Phase> phases = new ArrayList<>();
+    private final Map<String, Long> milestones = new LinkedHashMap<>();
+
+    // One timed phase, offsets in milliseconds since JVM start
+    public static final class Phase {
+        private final String name;
+        private final long startMillis;
+        private final long endMillis;
+        private final boolean failed;
+
+        Phase(String name, long startMillis, long endMillis, boolean failed) {
+            this.name = name;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.failed = failed;
+        }
+
+        public String getName() { return name; }
+        public long getStartMillis() { return startMillis; }
+        public long getDurationMillis() { return endMillis - startMillis; }
+        public boolean isFailed() { return failed; }
+    }
+
+    public StartupPipeline() {
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "startup");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Starts a phase on a background thread
+    public CompletableFuture<Void> run(String name, Runnable phase) {
+        return CompletableFuture.runAsync(timed(name, phase), executor);
+    }
+
+    // Starts a phase on a background thread once all of the given phases have finished
+    public CompletableFuture<Void> runAfter(String name, Runnable phase, CompletableFuture<?>... dependencies) {
+        return CompletableFuture.allOf(dependencies).thenRunAsync(timed(name, phase), executor);
+    }
+
+    // Wraps a phase so its start and duration are recorded, also when it is run by the caller
+    public Runnable timed(String name, Runnable phase) {
+        return () -> {
+            long start = now();
+            boolean failed = true;
+            try {
+                phase.run();
+                failed = false;
+            } finally {
+                synchronized (this) {
+                    phases.add(new Phase(name, start, now(), failed));
+                }
+            }
+        };
+    }
+
+    // Records a milestone the first time it is reached
+    public synchronized void mark(String milestone) {
+        milestones.putIfAbsent(milestone, now());
+    }
+
+    // Milliseconds from JVM start to the milestone, or -1 if it hasn't been reached
+    public synchronized long getMilestone(String milestone) {
+        Long millis = milestones.get(milestone);
+        return millis != null ? millis : -1;
+    }
+
+    public synchronized List<Phase> getPhases() {
+        return new ArrayList<>(phases);
+    }
+
+    // Lets the worker threads go once startup is over; threads already running finish their phase
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder report = new StringBuilder("Startup phases (ms since JVM start):");
+        for (Phase phase : phases) {
+            report.append(System.lineSeparator())
+                    .append(String.format("  %-22s start %6d, took %6d%s", phase.getName(), phase.getStartMillis(),
+                            phase.getDurationMillis(), phase.isFailed() ? " (failed)" : ""));
+        }
+        for (Map.Entry<String, Long> milestone : milestones.entrySet()) {
+            report.append(System.lineSeparator())
+                    .append(String.format("  time to %-14s %6d", milestone.getKey() + ":", milestone.getValue()));
+        }
+        return report.toString();
+    }
+
+    private long now() {
+        return System.currentTimeMillis() - jvmStartMillis;
+    }
+}
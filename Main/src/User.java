@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.time.LocalTime;
@@ -8,11 +11,15 @@ public class User implements Serializable {
     private static final long serialVersionUID = 1L;
 
     private String username;
-    private String password;
+    private volatile String password; // PBKDF2 hash, plain text in accounts created before hashing
     private LocalDate accountCreationDate;
     private LocalTime accountCreationTime;
-    // Add a list to track user purchases
-    private List<Product> purchaseHistory;
+    // Purchases are kept in a PurchaseHistoryStore, not in the users file, and read on first use.
+    // Null until then for users loaded from the users file.
+    private transient List<Product> purchaseHistory;
+    private transient PurchaseHistoryStore historyStore;
+    // History read from a users file written before histories moved out, until it is migrated
+    private transient List<Product> legacyPurchaseHistory;
 
     public User(String username, String password) {
         this.username = username;
@@ -21,16 +28,45 @@ public class User implements Serializable {
         this.accountCreationTime = LocalTime.now();
         this.purchaseHistory = new ArrayList<>();
     }
-    // Getter for purchaseHistory
-    public List<Product> getPurchaseHistory() {
+
+    // Recreates a user from a journal record, keeping the original creation date and time
+    User(String username, String password, LocalDate accountCreationDate, LocalTime accountCreationTime) {
+        this.username = username;
+        this.password = password;
+        this.accountCreationDate = accountCreationDate;
+        this.accountCreationTime = accountCreationTime;
+    }
+    // Getter for purchaseHistory, reads it from the history store the first time
+    public synchronized List<Product> getPurchaseHistory() {
+        if (purchaseHistory == null) {
+            purchaseHistory = new ArrayList<>();
+            if (historyStore != null) {
+                try {
+                    purchaseHistory = historyStore.load(username);
+                } catch (IOException e) {
+                    System.out.println("Error loading purchase history for " + username + ": " + e.getMessage());
+                }
+            }
+        }
         return purchaseHistory;
     }
 
     // Setter for purchaseHistory
-    public void setPurchaseHistory(List<Product> purchaseHistory) {
+    public synchronized void setPurchaseHistory(List<Product> purchaseHistory) {
         this.purchaseHistory = purchaseHistory;
     }
 
+    void setHistoryStore(PurchaseHistoryStore historyStore) {
+        this.historyStore = historyStore;
+    }
+
+    // Returns the history found in an old users file (once), or null if there was none
+    List<Product> takeLegacyPurchaseHistory() {
+        List<Product> legacy = legacyPurchaseHistory;
+        legacyPurchaseHistory = null;
+        return legacy;
+    }
+
 
 
     public String getUsername() {
@@ -49,21 +85,49 @@ public class User implements Serializable {
         this.password = password;
     }
 
-    // Method to add a purchase to the user's history
-    public void addPurchase(Product purchase) {
-        purchaseHistory.add(purchase);
+    public LocalDate getAccountCreationDate() {
+        return accountCreationDate;
+    }
+
+    public LocalTime getAccountCreationTime() {
+        return accountCreationTime;
+    }
+
+    // Method to add a purchase to the user's history.
+    // Only updates a history already in memory, the store is written by the shopping manager.
+    public synchronized void addPurchase(Product purchase) {
+        if (purchaseHistory != null) {
+            purchaseHistory.add(purchase);
+        }
+    }
+
+    // Method to check if the user has purchased before, answered by the store without reading the history
+    public synchronized boolean hasPurchasedBefore() {
+        if (purchaseHistory != null) {
+            return !purchaseHistory.isEmpty();
+        }
+        return historyStore != null && historyStore.hasHistory(username);
     }
 
-    // Method to check if the user has purchased before
-    public boolean hasPurchasedBefore() {
-        return purchaseHistory != null && !purchaseHistory.isEmpty();
+    // Reads users files from before and after histories moved out; an embedded history is kept
+    // aside so the shopping manager can move it into the history store
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        username = (String) fields.get("username", null);
+        password = (String) fields.get("password", null);
+        accountCreationDate = (LocalDate) fields.get("accountCreationDate", null);
+        accountCreationTime = (LocalTime) fields.get("accountCreationTime", null);
+        ObjectStreamClass streamClass = fields.getObjectStreamClass();
+        if (streamClass.getField("purchaseHistory") != null) {
+            legacyPurchaseHistory = (List<Product>) fields.get("purchaseHistory", null);
+        }
     }
 
     @Override
     public String toString() {
         return "User{" +
                 "username='" + username + '\'' +
-                ", password='" + password + '\'' +
                 ", accountCreationDate=" + accountCreationDate +
                 ", accountCreationTime=" + accountCreationTime +
                 '}';
@@ -2,6 +2,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.concurrent.CompletionException;
 
 public class UserGUI {
     private JFrame frame;
@@ -37,6 +38,7 @@ public class UserGUI {
 
         // Initial visibility
         frame.setVisible(true);
+        manager.getStartup().mark(StartupPipeline.FIRST_FRAME);
     }
 
     private JPanel createLoginPanel(Font labelFont) {
@@ -133,24 +135,33 @@ public class UserGUI {
         String username = loginUsernameField.getText();
         String password = new String(loginPasswordField.getPassword());
 
-        if (manager.validateUser(username, password)) {
-            // User validation successful
-            JOptionPane.showMessageDialog(frame, "Login Successful", "Success", JOptionPane.INFORMATION_MESSAGE);
-
-            // Set the current user in the manager
-            User loggedInUser = manager.getUserByUsername(username);
-            manager.setCurrentUser(loggedInUser);
-
-
-            // Close the current login window
-            frame.dispose();
-
-            // Open the ShoppingCartGUI
-            SwingUtilities.invokeLater(() -> new ShoppingGUI(manager));
-        } else {
-            // User validation failed
-            JOptionPane.showMessageDialog(frame, "Invalid username or password", "Login Failed", JOptionPane.ERROR_MESSAGE);
-        }
+        // The password is checked on the manager's verifier pool, the result comes back on the event thread
+        loginButton.setEnabled(false);
+        manager.login(username, password).whenComplete((loggedInUser, error) ->
+                SwingUtilities.invokeLater(() -> {
+                    loginButton.setEnabled(true);
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                        JOptionPane.showMessageDialog(frame, "Could not log in: " + cause.getMessage(), "Login Failed", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    if (loggedInUser == null) {
+                        // User validation failed
+                        JOptionPane.showMessageDialog(frame, "Invalid username or password", "Login Failed", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    // User validation successful
+                    JOptionPane.showMessageDialog(frame, "Login Successful", "Success", JOptionPane.INFORMATION_MESSAGE);
+
+                    // Start a shopping session for the user, the shopping window works on its cart
+                    Session session = manager.openSession(loggedInUser);
+
+                    // Close the current login window
+                    frame.dispose();
+
+                    // Open the ShoppingCartGUI
+                    new ShoppingGUI(manager, session);
+                }));
     }
 
 
@@ -172,15 +183,21 @@ public class UserGUI {
             return;
         }
 
-        // Add the new user
-        manager.addUser(new User(username, password));
-        manager.saveUsers(); // Save the updated user list
-        JOptionPane.showMessageDialog(frame, "User created successfully", "Success", JOptionPane.INFORMATION_MESSAGE);
-
-        // Clear the fields and switch back to login panel
-        addUserUsernameField.setText("");
-        addUserPasswordField.setText("");
-        switchPanel("Login");
+        // Add the new user, it is written in the background and the result comes back on the event thread
+        manager.registerUser(new User(username, password)).whenComplete((result, error) ->
+                SwingUtilities.invokeLater(() -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                        JOptionPane.showMessageDialog(frame, "Could not create the user: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    JOptionPane.showMessageDialog(frame, "User created successfully", "Success", JOptionPane.INFORMATION_MESSAGE);
+
+                    // Clear the fields and switch back to login panel
+                    addUserUsernameField.setText("");
+                    addUserPasswordField.setText("");
+                    switchPanel("Login");
+                }));
     }
 
 }
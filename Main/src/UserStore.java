@@ -0,0 +1,153 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Map;
+
+// User accounts kept in the key-value store under "u/" + normalized username.
+// Users are read one at a time when they are first looked up and then kept in the username index, so
+// every caller (login, checkout, journal replay) works with the same User instance. The index's Bloom
+// filter is filled with every stored username when the store is opened.
+public class UserStore {
+    private static final String USER_PREFIX = "u/";
+    private static final long NO_VALUE = Long.MIN_VALUE; // missing date or time in records written before the codec
+
+    private final KeyValueStore store;
+    private final PurchaseHistoryStore historyStore;
+    private final UsernameIndex index;
+
+    public UserStore(KeyValueStore store, PurchaseHistoryStore historyStore) throws IOException {
+        this.store = store;
+        this.historyStore = historyStore;
+        Map<String, byte[]> records = store.scanPrefix(USER_PREFIX);
+        this.index = new UsernameIndex(records.size() * 2);
+        for (Map.Entry<String, byte[]> record : records.entrySet()) {
+            String stored = record.getKey().substring(USER_PREFIX.length());
+            String normalized = normalize(stored);
+            if (!normalized.equals(stored)) {
+                renormalize(stored, normalized, record.getValue());
+            }
+            index.addName(normalized);
+        }
+    }
+
+    // Usernames are case-insensitive, see UsernameIndex for the normalized form
+    public static String normalize(String username) {
+        return UsernameIndex.normalize(username);
+    }
+
+    // The user with this username, or null if there is none
+    public User get(String username) throws IOException {
+        String normalized = normalize(username);
+        if (!index.mightExist(normalized)) {
+            return null;
+        }
+        User user = index.get(normalized);
+        if (user != null) {
+            return user;
+        }
+        byte[] record = store.get(USER_PREFIX + normalized);
+        if (record == null) {
+            return null;
+        }
+        user = decode(record);
+        user.setHistoryStore(historyStore);
+        User cached = index.putIfAbsent(normalized, user);
+        return cached != null ? cached : user;
+    }
+
+    // Answered from the Bloom filter alone for names that were never registered
+    public boolean exists(String username) throws IOException {
+        String normalized = normalize(username);
+        return index.mightExist(normalized)
+                && (index.get(normalized) != null || store.contains(USER_PREFIX + normalized));
+    }
+
+    // Stores a new user unless the username is taken, as one atomic step: of two concurrent
+    // registrations of the same name exactly one succeeds. With sync=false it is durable after the next sync.
+    public boolean putIfAbsent(User user, boolean sync) throws IOException {
+        String normalized = normalize(user.getUsername());
+        if (index.mightExist(normalized) && store.contains(USER_PREFIX + normalized)) {
+            return false;
+        }
+        user.setHistoryStore(historyStore);
+        if (index.putIfAbsent(normalized, user) != null) {
+            return false;
+        }
+        try {
+            store.put(USER_PREFIX + normalized, encode(user), sync);
+        } catch (IOException e) {
+            index.remove(normalized, user);
+            throw e;
+        }
+        index.addName(normalized); // Only now, so a filter rebuild scanning the store finds it
+        growIndexIfNeeded();
+        return true;
+    }
+
+    // Stores (or replaces) the user's account record; with sync=false it is durable after the next sync
+    public void put(User user, boolean sync) throws IOException {
+        String normalized = normalize(user.getUsername());
+        user.setHistoryStore(historyStore);
+        store.put(USER_PREFIX + normalized, encode(user), sync);
+        index.put(normalized, user);
+        growIndexIfNeeded();
+    }
+
+    // Writes every user read or added so far back to the store
+    public void putAll() throws IOException {
+        for (User user : index.getLoadedUsers()) {
+            store.put(USER_PREFIX + normalize(user.getUsername()), encode(user), false);
+        }
+    }
+
+    // Number of usernames in the index's Bloom filter, and how many it is sized for
+    public String getIndexStatistics() {
+        return index.getFilterSize() + " names (filter sized for " + index.getFilterCapacity() + ")";
+    }
+
+    // Rebuilds the Bloom filter at twice the size once it holds more names than it was sized for,
+    // so the false positive rate stays near 1% as users are added
+    private void growIndexIfNeeded() throws IOException {
+        if (index.isOverfull()) {
+            index.rebuild(index.getFilterSize() * 2, names -> {
+                for (String key : store.scanPrefix(USER_PREFIX).keySet()) {
+                    names.accept(key.substring(USER_PREFIX.length()));
+                }
+            });
+        }
+    }
+
+    // Moves a user (and their purchase history) stored under an older normalized form of the name.
+    // If another user already holds the new form the record is left where it is and reported.
+    private void renormalize(String stored, String normalized, byte[] record) throws IOException {
+        if (store.contains(USER_PREFIX + normalized)) {
+            System.out.println("User '" + stored + "' clashes with '" + normalized + "' and cannot be moved.");
+            return;
+        }
+        store.put(USER_PREFIX + normalized, record, false);
+        historyStore.renameUser(stored, normalized);
+        store.delete(USER_PREFIX + stored, true);
+    }
+
+    private static byte[] encode(User user) {
+        return new RecordCodec.Writer().writeUser(user).toByteArray();
+    }
+
+    private static User decode(byte[] record) throws IOException {
+        if (RecordCodec.isEncoded(record)) {
+            return new RecordCodec.Reader(record).readUser();
+        }
+        // Records written before the codec: username, password, creation day and time as plain fields
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            String username = in.readUTF();
+            String password = in.readUTF();
+            long creationDate = in.readLong();
+            long creationTime = in.readLong();
+            return new User(username, password,
+                    creationDate != NO_VALUE ? LocalDate.ofEpochDay(creationDate) : null,
+                    creationTime != NO_VALUE ? LocalTime.ofNanoOfDay(creationTime) : null);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+// Case-insensitive index of usernames.
+//
+// Usernames are compared in a normalized form: NFKC, so full-width and other compatibility characters
+// match their plain forms, then lower case in the root locale, so the result doesn't depend on the
+// default locale (Turkish dotless i and the like). Loaded users are kept in a ConcurrentHashMap keyed
+// by that form, and putIfAbsent makes "check the name is free, then take it" a single atomic step.
+//
+// Every username known to the store also goes into a Bloom filter. A name the filter has never seen
+// is certainly free, so most "is this name taken?" checks for new names never reach the map or the
+// store. The filter only answers "maybe" for names it has seen (and for about 1% of the others).
+// A name goes into the filter only once its user is in the store, so a rebuild scanning the store
+// can't miss it.
+public class UsernameIndex {
+    private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
+    private volatile BloomFilter filter;
+    private volatile BloomFilter rebuilding; // filled in parallel with filter while it is replaced, guarded by this
+
+    // Supplies every username in the store, used to fill a new filter
+    public interface NameScanner {
+        void scan(Consumer<String> names) throws IOException;
+    }
+
+    public UsernameIndex(int expectedNames) {
+        filter = new BloomFilter(expectedNames);
+    }
+
+    public static String normalize(String username) {
+        if (isLowerCaseAscii(username)) {
+            return username; // Nothing for NFKC or lower-casing to change
+        }
+        // Lower-casing can produce characters NFKC would have composed, so normalize again afterwards
+        String folded = Normalizer.normalize(username, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        return Normalizer.normalize(folded, Normalizer.Form.NFKC);
+    }
+
+    // The loaded user with this normalized name, or null
+    public User get(String normalized) {
+        return users.get(normalized);
+    }
+
+    // Adds the user unless the name is already taken; returns the user holding the name, or null if
+    // this user got it. The name isn't added to the filter, call addName once the user is stored.
+    public User putIfAbsent(String normalized, User user) {
+        return users.putIfAbsent(normalized, user);
+    }
+
+    // For a user already in the store
+    public void put(String normalized, User user) {
+        users.put(normalized, user);
+        addName(normalized);
+    }
+
+    // Undoes a putIfAbsent whose store write failed
+    public void remove(String normalized, User user) {
+        users.remove(normalized, user);
+    }
+
+    public Collection<User> getLoadedUsers() {
+        return users.values();
+    }
+
+    // False if no user with this normalized name has ever been added
+    public boolean mightExist(String normalized) {
+        return filter.mightContain(normalized);
+    }
+
+    // Records a name that exists in the store without loading its user. Under the same lock that
+    // starts and ends a rebuild, so the name reaches the filter that ends up in use.
+    public synchronized void addName(String normalized) {
+        filter.add(normalized);
+        if (rebuilding != null) {
+            rebuilding.add(normalized);
+        }
+    }
+
+    // True once more names were added than the filter was sized for, so false positives get frequent
+    public boolean isOverfull() {
+        return filter.size() > filter.capacity;
+    }
+
+    // Replaces the filter with one sized for expectedNames and filled from the scanner. A name added
+    // before the rebuild starts is already in the store the scan reads, and one added later goes into
+    // both filters, so none are lost when the new one takes over. The scan runs without the lock, so
+    // registrations carry on meanwhile; a rebuild started while another runs does nothing.
+    public void rebuild(int expectedNames, NameScanner scanner) throws IOException {
+        BloomFilter next = new BloomFilter(expectedNames);
+        synchronized (this) {
+            if (rebuilding != null) {
+                return;
+            }
+            rebuilding = next;
+        }
+        boolean scanned = false;
+        try {
+            scanner.scan(next::add);
+            scanned = true;
+        } finally {
+            synchronized (this) {
+                if (scanned) {
+                    filter = next;
+                }
+                rebuilding = null;
+            }
+        }
+    }
+
+    public int getFilterCapacity() {
+        return filter.capacity;
+    }
+
+    public int getFilterSize() {
+        return filter.size();
+    }
+
+    private static boolean isLowerCaseAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80 || (c >= 'A' && c <= 'Z')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Lock-free Bloom filter on an AtomicLongArray: 10 bits and 7 probes per name for about 1% false
+    // positives at capacity. Probe positions come from two halves of one 64-bit hash (double hashing).
+    static final class BloomFilter {
+        private static final int BITS_PER_NAME = 10;
+        private static final int PROBES = 7;
+
+        private final AtomicLongArray words;
+        private final long bitCount;
+        private final int capacity;
+        private final AtomicInteger size = new AtomicInteger();
+
+        BloomFilter(int expectedNames) {
+            capacity = Math.max(1024, expectedNames);
+            int wordCount = (int) Math.min(Integer.MAX_VALUE, ((long) capacity * BITS_PER_NAME + 63) / 64);
+            words = new AtomicLongArray(wordCount);
+            bitCount = (long) wordCount * 64;
+        }
+
+        // Counted in size only if it set a bit, so adding a name again (a rebuild scan meeting a name
+        // added meanwhile, or a user stored again) doesn't count it twice. That also leaves out the ~1%
+        // of new names whose bits were all set already, which is what the false positive rate depends on.
+        void add(String name) {
+            long hash = hash(name);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1; // odd, so the probes never all coincide
+            boolean changed = false;
+            for (int i = 0; i < PROBES; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+                int index = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long word;
+                do {
+                    word = words.get(index);
+                    if ((word & mask) != 0) {
+                        break; // Already set, no write needed
+                    }
+                } while (!words.compareAndSet(index, word, word | mask));
+                changed |= (word & mask) == 0;
+            }
+            if (changed) {
+                size.incrementAndGet();
+            }
+        }
+
+        boolean mightContain(String name) {
+            long hash = hash(name);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < PROBES; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int size() {
+            return size.get();
+        }
+
+        // FNV-1a over the characters, then the MurmurHash3 finalizer to spread the bits
+        private static long hash(String name) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < name.length(); i++) {
+                hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+            }
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
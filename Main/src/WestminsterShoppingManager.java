@@ -1,43 +1,207 @@
 import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.GraphicsEnvironment;
+import java.awt.GridLayout;
 import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 public class WestminsterShoppingManager implements ShoppingManager {
-    private List<Product> productList;
-    private List<User> userList;
-    private final int MAX_PRODUCTS = 50;
-    private static final String PRODUCT_FILE_NAME = "products.txt";
-    private static final String USER_FILE_NAME = "users.txt";
-    private User currentUser;
+    private ProductCatalog catalog;
+    private static final String PRODUCT_FILE_NAME = "products.dat";
+    private static final String LEGACY_PRODUCT_FILE_NAME = "products.txt"; // Java serialization, converted on first load
+    private static final String LEGACY_USER_FILE_NAME = "users.txt"; // Java serialization, moved into the user store on first load
+    private static final String USER_STORE_DIRECTORY_NAME = "userdb";
+    private static final String PASSWORD_ITERATIONS_KEY = "m/passwordIterations"; // in the user store
+    private static final String JOURNAL_FILE_NAME = "shop.journal";
+    private static final String PROMOTIONS_FILE_NAME = "promotions.txt"; // without it the built-in discounts apply
+    private static final String HISTORY_DIRECTORY_NAME = "histories"; // per-user history files, moved into the user store
+    private static final int COMPACT_AFTER_EVENTS = 1000; // journal events before they are folded into the snapshots
+    private static final int REPORT_PAGE_SIZE = 20; // products per page of a price range report
+    private static final int REPORT_TOP_N = 5;
+    private EventJournal journal;
+    private PersistenceService persistence;
+    private KeyValueStore userDatabase;
+    private UserStore userStore;
+    private PurchaseHistoryStore historyStore;
+    // Held while applying an event and appending it, so a snapshot never sees a change without its journal entry
+    private final Object stateLock = new Object();
+    private final StartupPipeline startup = new StartupPipeline();
+    private final CompletableFuture<Void> ready; // completes when every startup phase has finished
+    // Run with -Dshopping.sessionIdleMinutes=N and -Dshopping.maxCartLines=N to change the session limits
+    private final SessionManager sessions = new SessionManager(Long.getLong("shopping.sessionIdleMinutes", 30),
+            TimeUnit.MINUTES, Integer.getInteger("shopping.maxCartLines", 100), () -> getPricingEngine());
+    private volatile PricingEngine pricingEngine = PricingEngine.defaults(); // replaced once the promotions file is read
+    // Run with -Dshopping.reservationHoldSeconds=N to change how long a checkout can hold stock
+    private final InventoryEngine inventory = new InventoryEngine(Long.getLong("shopping.reservationHoldSeconds", 60),
+            TimeUnit.SECONDS);
+    private final PasswordHasher passwordHasher = new PasswordHasher();
+    // Hashing and checking passwords takes tens of milliseconds on purpose, so it never runs on the event thread
+    private final LoginVerifier loginVerifier = new LoginVerifier(Runtime.getRuntime().availableProcessors(), 64);
+    private CompletableFuture<Void> passwordsCalibrated;
+    private volatile String unknownUserHash; // checked against for unknown usernames, so they take as long as known ones
+
+    // Starts a shopping session for a user who has logged in
+    public Session openSession(User user) {
+        return sessions.open(user);
+    }
 
-    public User getCurrentUser() {
-        return currentUser;
+    // The open session with this ID, or null if it was closed or timed out
+    public Session getSession(String sessionId) {
+        return sessions.get(sessionId);
     }
 
-    public void setCurrentUser(User currentUser) {
-        this.currentUser = currentUser;
+    public void closeSession(Session session) {
+        sessions.close(session);
     }
     // When retrieving a user
     public User getUserByUsername(String username) {
-        for (User user : userList) {
-            if (user.getUsername().equalsIgnoreCase(username)) {
-                if (user.getPurchaseHistory() == null) {
-                    user.setPurchaseHistory(new ArrayList<>()); // Initialize if null
-                }
-                return user;
-            }
+        try {
+            return userStore.get(username); // The purchase history is read on first use
+        } catch (IOException e) {
+            System.out.println("Error reading user " + username + ": " + e.getMessage());
+            return null;
         }
-        return null;
     }
 
     private ShoppingGUI guiInstance;
     public WestminsterShoppingManager() {
-        productList = new ArrayList<>();
-        userList = new ArrayList<>();
-        loadProducts();
-        loadUsers();
+        catalog = new ProductCatalog();
+        // Run with -Dshopping.columnarCatalog=true to keep the hot numeric fields in primitive columns
+        if (Boolean.getBoolean("shopping.columnarCatalog")) {
+            catalog.enableColumnarLayout();
+        }
+        // The catalog (decoding and indexing) and the user store don't depend on each other, so they
+        // load in parallel; the journal replay touches both and runs after them. The menu is shown
+        // meanwhile and its actions wait for startup to finish before touching any data.
+        CompletableFuture<Void> products = startup.run("load products", this::loadProducts);
+        CompletableFuture<Void> users = startup.run("open user store", this::openUserStore);
+        CompletableFuture<Void> migratedUsers = startup.runAfter("load users", this::loadUsers, users);
+        CompletableFuture<Void> promotions = startup.run("load promotions", this::loadPromotions);
+        CompletableFuture<Void> replayed = startup.runAfter("replay journal", this::openJournal, products, migratedUsers);
+        // Timed on its own once loading is over, so the other phases don't slow the measurement. Only
+        // logins and registrations wait for it. Run with -Dshopping.passwordHashMillis=N to change the
+        // target verification time.
+        passwordsCalibrated = startup.runAfter("calibrate passwords", () -> {
+            calibratePasswords(Long.getLong("shopping.passwordHashMillis", 100));
+            unknownUserHash = passwordHasher.hash("");
+        }, replayed);
+        persistence = new PersistenceService(this::captureSnapshot);
+        // Run with -Dshopping.prewarmGui=false to skip loading the Swing classes in the background
+        if (!GraphicsEnvironment.isHeadless() && !"false".equals(System.getProperty("shopping.prewarmGui"))) {
+            startup.run("warm up GUI", this::prewarmGui);
+        }
+        ready = CompletableFuture.allOf(replayed, promotions).whenComplete((result, error) -> {
+            startup.mark(StartupPipeline.READY);
+            if (error == null) {
+                System.out.println("Startup finished in " + startup.getMilestone(StartupPipeline.READY) + " ms.");
+            }
+        });
+        CompletableFuture.allOf(ready, passwordsCalibrated).whenComplete((result, error) -> startup.shutdown());
+    }
+
+    public void loadPromotions() {
+        File file = new File(PROMOTIONS_FILE_NAME);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            pricingEngine = PricingEngine.load(file.toPath());
+            System.out.println("Promotions loaded successfully.");
+        } catch (IOException e) {
+            System.out.println("Error loading promotions, using the built-in discounts: " + e.getMessage());
+        }
+    }
+
+    public PricingEngine getPricingEngine() {
+        return pricingEngine;
+    }
+
+    private void openUserStore() {
+        try {
+            userDatabase = new KeyValueStore(new File(USER_STORE_DIRECTORY_NAME).toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error opening the user store", e);
+        }
+        historyStore = new PurchaseHistoryStore(userDatabase, this::findProductById);
+        try {
+            userStore = new UserStore(userDatabase, historyStore);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading the usernames", e);
+        }
+    }
+
+    // The iteration count is kept in the user store, so a restart goes on hashing with the count the
+    // stored hashes were written with unless the machine has become clearly faster
+    private void calibratePasswords(long targetMillis) {
+        int previous = 0;
+        try {
+            byte[] value = userDatabase.get(PASSWORD_ITERATIONS_KEY);
+            previous = value != null ? ByteBuffer.wrap(value).getInt() : 0;
+        } catch (IOException e) {
+            System.out.println("Error reading the password iteration count: " + e.getMessage());
+        }
+        int iterations = passwordHasher.calibrate(targetMillis, previous);
+        if (iterations != previous) {
+            try {
+                userDatabase.put(PASSWORD_ITERATIONS_KEY, ByteBuffer.allocate(4).putInt(iterations).array(), true);
+            } catch (IOException e) {
+                System.out.println("Error saving the password iteration count: " + e.getMessage());
+            }
+        }
+    }
+
+    // Blocks until startup has finished, the menu is usable before that but its actions are not
+    private void awaitStartup() {
+        if (!ready.isDone()) {
+            System.out.println("Still loading, please wait...");
+        }
+        try {
+            ready.join();
+        } catch (CompletionException e) {
+            System.out.println("Startup failed: " + e.getCause().getMessage());
+            System.exit(1);
+        }
+    }
+
+    // Builds (without showing) a window with the components the login and shopping windows use, so
+    // the Swing classes, look and feel and fonts are loaded before the first invokeGUI
+    private void prewarmGui() {
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                JFrame frame = new JFrame();
+                JPanel panel = new JPanel(new GridLayout(0, 1));
+                panel.add(new JLabel("Username:"));
+                panel.add(new JTextField(20));
+                panel.add(new JPasswordField(20));
+                panel.add(new JButton("Login"));
+                panel.add(new JComboBox<String>());
+                panel.add(new JScrollPane(new JTable(new DefaultTableModel(1, 1))));
+                panel.add(new JScrollPane(new JTextArea()));
+                frame.add(panel);
+                frame.pack();
+                frame.dispose();
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            System.out.println("Error warming up the GUI: " + e.getCause());
+        }
+    }
+
+    public StartupPipeline getStartup() {
+        return startup;
     }
     public void displayMenu() {
+        startup.mark(StartupPipeline.FIRST_MENU);
         Scanner scanner = new Scanner(System.in);
         System.out.println("-------------------------------------------------");
         System.out.println("Product Management Menu:");
@@ -46,7 +210,10 @@ public class WestminsterShoppingManager implements ShoppingManager {
         System.out.println("3. Display Products");
         System.out.println("4. Save");
         System.out.println("5. GUI ");
-        System.out.println("6. Exit");
+        System.out.println("6. Import Products (CSV/JSONL)");
+        System.out.println("7. Diagnostics");
+        System.out.println("8. Price and Stock Reports");
+        System.out.println("9. Exit");
         System.out.println("-------------------------------------------------");
         System.out.print("Enter your selection: ");
 
@@ -65,6 +232,9 @@ public class WestminsterShoppingManager implements ShoppingManager {
 
 
     private void handleMenuSelection(int selection) {
+        if (selection != 7) {
+            awaitStartup(); // Diagnostics also work while loading
+        }
         switch (selection) {
             case 1:
                 addProduct();
@@ -76,15 +246,35 @@ public class WestminsterShoppingManager implements ShoppingManager {
                 displayProducts();
                 break;
             case 4:
-                saveProducts();
-                saveUsers();
+                waitForSave(saveSnapshot());
                 break;
             case 5:
                 invokeGUI();
                 break;
             case 6:
+                importProducts();
+                break;
+            case 7:
+                displayDiagnostics();
+                break;
+            case 8:
+                displayPriceAndStockReports();
+                break;
+            case 9:
                 System.out.println("Exiting...");
-                saveUsers();
+                waitForSave(saveSnapshot());
+                sessions.close();
+                inventory.close();
+                loginVerifier.close();
+                persistence.close();
+                if (journal != null) {
+                    journal.close();
+                }
+                try {
+                    userDatabase.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing the user store: " + e.getMessage());
+                }
                 System.exit(0);
                 break;
 
@@ -96,42 +286,66 @@ public class WestminsterShoppingManager implements ShoppingManager {
     }
     private void invokeGUI() {
         WestminsterShoppingManager manager = this;
-        SwingUtilities.invokeLater(new Runnable() {
+        Runnable openGui = new Runnable() {
             @Override
             public void run() {
                 new UserGUI(manager); // Open the user login GUI
             }
-        });
+        };
+        // The first window's construction is timed, UserGUI marks the first frame once it is visible
+        boolean first = startup.getMilestone(StartupPipeline.FIRST_FRAME) < 0;
+        SwingUtilities.invokeLater(first ? startup.timed("open first window", openGui) : openGui);
     }
 
 
-    // Inside WestminsterShoppingManager class
-public boolean validateUser(String username, String password) {
-        for (User user : userList) {
-            if (user.getUsername().equalsIgnoreCase(username) && user.getPassword().equals(password)) {
-                return true;
+    // Checks a login on the verifier pool. Completes with the user, or with null if the username or the
+    // password is wrong. A plain-text password from before hashing, or a hash with fewer iterations than
+    // the current calibration, is replaced by a fresh hash once the password has been checked.
+    public CompletableFuture<User> login(String username, String password) {
+        return passwordsCalibrated.thenCompose(calibrated -> loginVerifier.submit(() -> {
+            User user = getUserByUsername(username);
+            if (user == null) {
+                passwordHasher.verify(password, unknownUserHash);
+                return null;
+            }
+            String stored = user.getPassword();
+            if (!passwordHasher.verify(password, stored)) {
+                return null;
+            }
+            if (passwordHasher.needsRehash(stored)) {
+                upgradePassword(user, stored, passwordHasher.hash(password));
+            }
+            return user;
+        }));
+    }
+
+    // Durable with the next snapshot; if that is lost the old credential still works and is upgraded again
+    private void upgradePassword(User user, String oldCredential, String newHash) {
+        synchronized (stateLock) {
+            if (!oldCredential.equals(user.getPassword())) {
+                return; // Another login upgraded it first
+            }
+            user.setPassword(newHash);
+            try {
+                userStore.put(user, false);
+            } catch (IOException e) {
+                System.out.println("Error storing the password hash of " + user.getUsername() + ": " + e.getMessage());
             }
         }
-        return false;
     }
 
 
 
     public boolean usernameExists(String username) {
-        for (User user : userList) {
-            if (user.getUsername().equalsIgnoreCase(username)) {
-                return true;
-            }
+        try {
+            return userStore.exists(username);
+        } catch (IOException e) {
+            System.out.println("Error reading user " + username + ": " + e.getMessage());
+            return false;
         }
-        return false;
     }
 
     public void addProduct() {
-        if (productList.size() >= MAX_PRODUCTS) {
-            System.out.println("The system can't hold more than " + MAX_PRODUCTS + " products.");
-            return;
-        }
-
         Scanner scanner = new Scanner(System.in);
         System.out.println("Select product type to add:");
         System.out.println("1. Electronics");
@@ -174,7 +388,7 @@ public boolean validateUser(String username, String password) {
         System.out.print("Enter Product Name: ");
         while (true) {
             name = scanner.nextLine().trim(); // Trim leading and trailing spaces
-            if (name.matches("[a-zA-Z ]+")) { // Regex to check if the name contains only letters and spaces
+            if (ProductValidator.isValidName(name)) { // Check if the name contains only letters and spaces
                 break; // Valid input, exit the loop
             } else {
                 System.out.println("Invalid product name. Please enter a name using only letters and spaces.");
@@ -191,7 +405,7 @@ public boolean validateUser(String username, String password) {
             try {
                 String availableItemsInput = scanner.nextLine();
                 availableItems = Integer.parseInt(availableItemsInput.replaceAll("\\s+", ""));
-                if (availableItems < 0) {
+                if (!ProductValidator.isValidAvailableItems(availableItems)) {
                     System.out.println("Number of available items cannot be negative. Please enter a valid number.");
                 } else {
                     validInput = true; // Valid input, break the loop
@@ -210,7 +424,7 @@ public boolean validateUser(String username, String password) {
                 String priceInput = scanner.nextLine();
                 // Removing all spaces and parsing the input as a double
                 price = Double.parseDouble(priceInput.replaceAll("\\s+", ""));
-                if (price < 0) {
+                if (!ProductValidator.isValidPrice(price)) {
                     System.out.println("Price cannot be negative. Please enter a valid number.");
                 } else {
                     validPriceInput = true; // Valid input, break the loop
@@ -228,7 +442,7 @@ public boolean validateUser(String username, String password) {
                 System.out.print("Enter Brand: ");
                 while (true) {
                     brand = scanner.nextLine().trim();
-                    if (brand.matches("[a-zA-Z ]+")) { // Regex for letters and spaces
+                    if (ProductValidator.isValidBrand(brand)) { // Letters and spaces
                         break;
                     } else {
                         System.out.println("Invalid brand. Please enter a valid brand name.");
@@ -241,7 +455,7 @@ public boolean validateUser(String username, String password) {
                     try {
                         String warrantyPeriodInput = scanner.nextLine().trim();
                         warrantyPeriod = Integer.parseInt(warrantyPeriodInput);
-                        if (warrantyPeriod > 0) {
+                        if (ProductValidator.isValidWarrantyPeriod(warrantyPeriod)) {
                             System.out.println("-------------------------------------------------");
                             break;
                         } else {
@@ -259,7 +473,7 @@ public boolean validateUser(String username, String password) {
 
                 while (true) {
                     size = scanner.nextLine().trim().toUpperCase(); // Convert input to uppercase
-                    if (size.matches("S|M|L|XL|XXL")) { // Validation against uppercase values
+                    if (ProductValidator.isValidSize(size)) { // Validation against uppercase values
 
                         break;
                     } else {
@@ -271,7 +485,7 @@ public boolean validateUser(String username, String password) {
 
                 while (true) {
                     color = scanner.nextLine().trim();
-                    if (color.matches("[a-zA-Z]+")) { // Simple check to ensure color is a word
+                    if (ProductValidator.isValidColor(color)) { // Simple check to ensure color is a word
                         System.out.println("-------------------------------------------------");
                         break;
                     } else {
@@ -287,35 +501,51 @@ public boolean validateUser(String username, String password) {
         }
 
         if (product != null) {
-            productList.add(product);
+            catalog.add(product);
             System.out.println("Product added successfully: " + product);
 
             // Now update the GUI with the new product details
             if (guiInstance != null) { // guiInstance is an instance of ShoppingGUI
-                guiInstance.updateProductTable(productList);
+                List<Product> products = catalog.getProducts();
+                SwingUtilities.invokeLater(() -> guiInstance.updateProductTable(products));
 
             }
         }
     }
 
-    private boolean isValidProductId(String productId, String prefix) {
-        // Check if productId is non-null and not empty, and starts with the correct prefix
-        if (productId == null || productId.trim().isEmpty() || !productId.startsWith(prefix)) {
-            return false;
+    // Bulk loads products from a CSV or JSON-lines file, rejected rows are written next to it
+    public void importProducts() {
+        Scanner scanner = new Scanner(System.in);
+        System.out.print("Enter the path of the CSV or JSONL file to import: ");
+        String fileName = scanner.nextLine().trim();
+        File file = new File(fileName);
+        if (!file.isFile()) {
+            System.out.println("File not found: " + fileName);
+            return;
+        }
+
+        File rejectsFile = new File(fileName + ".rejected");
+        try {
+            ProductImporter.ImportResult result = new ProductImporter(catalog).importFile(file.toPath(), rejectsFile.toPath());
+            System.out.println(result);
+            if (result.getRejected() > 0) {
+                System.out.println("Rejected rows were written to " + rejectsFile.getPath());
+            }
+        } catch (IOException e) {
+            System.out.println("Error importing products: " + e.getMessage());
         }
+    }
 
-        // Check if the rest of the productId (excluding the prefix) consists of exactly 4 digits
-        String numericPart = productId.substring(1); // Extract part after the prefix
-        if (!numericPart.matches("\\d{4}")) { // Regex to check for exactly 4 digits
+    private boolean isValidProductId(String productId, String prefix) {
+        // Check the prefix and that it is followed by 4 to 9 digits
+        if (!ProductValidator.isValidProductId(productId, prefix)) {
             return false;
         }
 
         // Check if a product with this ID already exists
-        for (Product p : productList) {
-            if (p.getProductId().equals(productId)) {
-                System.out.println("A product with this ID already exists.");
-                return false;
-            }
+        if (catalog.contains(productId)) {
+            System.out.println("A product with this ID already exists.");
+            return false;
         }
 
         return true; // productId is valid
@@ -327,37 +557,56 @@ public boolean validateUser(String username, String password) {
     }
 
 
+    // Users are read from the user store one at a time when they are looked up, so loading only
+    // moves data left over from older versions (the serialized users file and the per-user history
+    // files) into the store
     public void loadUsers() {
-    try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(USER_FILE_NAME))) {
-        userList = (List<User>) ois.readObject();
-        System.out.println("Users loaded successfully.");
-    } catch (IOException | ClassNotFoundException e) {
-        System.out.println("Error loading users: " + e.getMessage());
-    }
-}
-
-    public void addUser(User newUser) {
-        // Check if a user with the same username already exists
-        for (User user : userList) {
-            if (user.getUsername().equalsIgnoreCase(newUser.getUsername())) {
-                System.out.println("A user with the username '" + newUser.getUsername() + "' already exists.");
-                return;
+        try {
+            File legacyFile = new File(LEGACY_USER_FILE_NAME);
+            if (legacyFile.exists()) {
+                int migrated = migrateLegacyUsers(legacyFile);
+                System.out.println("Moved " + migrated + " users from " + LEGACY_USER_FILE_NAME + " to the user store");
+            }
+            File historyDirectory = new File(HISTORY_DIRECTORY_NAME);
+            if (historyDirectory.isDirectory()) {
+                int migrated = historyStore.migrateFiles(historyDirectory.toPath());
+                userDatabase.sync();
+                Files.move(historyDirectory.toPath(), new File(HISTORY_DIRECTORY_NAME + ".migrated").toPath(), StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("Moved " + migrated + " purchase histories to the user store");
             }
+            System.out.println("Users loaded successfully.");
+        } catch (IOException | ClassNotFoundException e) {
+            System.out.println("Error loading users: " + e.getMessage());
         }
-
-        // Add the new user to the list
-        newUser.setPurchaseHistory(new ArrayList<>()); // Initialize purchase history
-        userList.add(newUser);
-        System.out.println("New user added successfully: " + newUser);
     }
 
-    public Product findProductById(String productId) {
-        for (Product product : productList) {
-            if (product.getProductId().equals(productId)) {
-                return product;
+    // Copies every user, and any purchase history embedded in the file, into the user store and then
+    // renames the file. Legacy history records get fixed IDs, so an interrupted migration can run again.
+    @SuppressWarnings("unchecked")
+    private int migrateLegacyUsers(File legacyFile) throws IOException, ClassNotFoundException {
+        List<User> users;
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(legacyFile))) {
+            users = (List<User>) ois.readObject();
+        }
+        for (User user : users) {
+            userStore.put(user, false);
+            List<Product> legacy = user.takeLegacyPurchaseHistory();
+            if (legacy != null) {
+                for (int i = 0; i < legacy.size(); i++) {
+                    Product purchase = legacy.get(i);
+                    if (purchase.getPurchasedProducts() != null && purchase.getPurchaseDate() != null) {
+                        historyStore.appendLegacy(user.getUsername(), i, purchase);
+                    }
+                }
             }
         }
-        return null;
+        userDatabase.sync();
+        Files.move(legacyFile.toPath(), new File(LEGACY_USER_FILE_NAME + ".migrated").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return users.size();
+    }
+
+    public Product findProductById(String productId) {
+        return catalog.findById(productId);
     }
 
     public void deleteProduct() {
@@ -371,58 +620,418 @@ public boolean validateUser(String username, String password) {
             return;
         }
 
-        // Find the product with the given ID
-        Optional<Product> productToRemove = productList.stream()
-                .filter(product -> product.getProductId().equals(productId))
-                .findFirst();
-
         // Remove the product if it exists
-        if (productToRemove.isPresent()) {
-            productList.remove(productToRemove.get());
+        Product removedProduct = catalog.remove(productId);
+        if (removedProduct != null) {
             System.out.println("Product with ID " + productId + " has been deleted.");
-            System.out.println("Total number of products now: " + productList.size());
+            System.out.println("Total number of products now: " + catalog.size());
         } else {
             System.out.println("Product with ID " + productId + " not found.");
         }
     }
 
 
+    // Answered from the catalog's price and stock indexes, so none of these scan the catalog
+    public void displayPriceAndStockReports() {
+        Scanner scanner = new Scanner(System.in);
+        System.out.println("1. Products in a price range");
+        System.out.println("2. Cheapest and most expensive products");
+        System.out.println("3. Products in a stock range");
+        System.out.println("4. Low stock");
+        System.out.print("Enter your selection: ");
+        try {
+            switch (Integer.parseInt(scanner.nextLine().trim())) {
+                case 1: {
+                    System.out.print("Minimum price (blank for none): ");
+                    Double minPrice = parseOptionalDouble(scanner.nextLine());
+                    System.out.print("Maximum price (blank for none): ");
+                    Double maxPrice = parseOptionalDouble(scanner.nextLine());
+                    int total = catalog.countByPriceRange(minPrice, maxPrice);
+                    System.out.println(total + " products, cheapest first");
+                    // One page at a time, so a wide range doesn't flood the console
+                    for (int offset = 0; offset < total; offset += REPORT_PAGE_SIZE) {
+                        catalog.findByPriceRange(minPrice, maxPrice, offset, REPORT_PAGE_SIZE).forEach(System.out::println);
+                        if (offset + REPORT_PAGE_SIZE < total) {
+                            System.out.print("Press Enter for more, or type q to stop: ");
+                            if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                                break;
+                            }
+                        }
+                    }
+                    break;
+                }
+                case 2:
+                    System.out.println("Cheapest:");
+                    catalog.findCheapest(REPORT_TOP_N).forEach(System.out::println);
+                    System.out.println("Most expensive:");
+                    catalog.findMostExpensive(REPORT_TOP_N).forEach(System.out::println);
+                    break;
+                case 3: {
+                    System.out.print("Minimum stock (blank for none): ");
+                    Integer minStock = parseOptionalInteger(scanner.nextLine());
+                    System.out.print("Maximum stock (blank for none): ");
+                    Integer maxStock = parseOptionalInteger(scanner.nextLine());
+                    System.out.println(catalog.countByStockRange(minStock, maxStock) + " products, lowest stock first");
+                    catalog.findByStockRange(minStock, maxStock).forEach(System.out::println);
+                    break;
+                }
+                case 4: {
+                    System.out.print("Show products with fewer items than: ");
+                    int threshold = Integer.parseInt(scanner.nextLine().trim());
+                    System.out.println(catalog.countLowStock(threshold) + " products with fewer than " + threshold + " items:");
+                    catalog.findLowStock(threshold).forEach(System.out::println);
+                    break;
+                }
+                default:
+                    System.out.println("Invalid selection.");
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number.");
+        }
+    }
+
+    private static Double parseOptionalDouble(String input) {
+        return input.trim().isEmpty() ? null : Double.valueOf(input.trim());
+    }
+
+    private static Integer parseOptionalInteger(String input) {
+        return input.trim().isEmpty() ? null : Integer.valueOf(input.trim());
+    }
+
     public void displayProducts() {
         // Logic to display all products, sorted alphabetically by product ID.
-        productList.stream()
-                .sorted(Comparator.comparing(Product::getProductId))
-                .forEach(System.out::println);
+        // The catalog keeps an ID-ordered view up to date, so nothing needs sorting here
+        catalog.getSortedProducts(ProductSortOrder.ID).forEach(System.out::println);
     }
 
+    // Goes through the background snapshot writer like every other save: it copies the products under
+    // the state lock, so the file gets the stock on hand (including items held by checkouts) and the
+    // journal is only checkpointed up to what the file contains
     public void saveProducts() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(PRODUCT_FILE_NAME))) {
-            oos.writeObject(productList);
+        try {
+            saveSnapshot().join();
             System.out.println("Products saved successfully.");
-        } catch (IOException e) {
-            System.out.println("Error saving products: " + e.getMessage());
+        } catch (CompletionException e) {
+            System.out.println("Error saving products: " + e.getCause().getMessage());
         }
     }
 
     public void loadProducts() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(PRODUCT_FILE_NAME))) {
-            productList = (List<Product>) ois.readObject();
+        try {
+            File productFile = new File(PRODUCT_FILE_NAME);
+            File legacyFile = new File(LEGACY_PRODUCT_FILE_NAME);
+            if (!productFile.exists() && legacyFile.exists()) {
+                // One-off conversion of the old serialized products file
+                int converted = CatalogFile.convertLegacy(legacyFile.toPath(), productFile.toPath());
+                System.out.println("Converted " + converted + " products to " + PRODUCT_FILE_NAME);
+            }
+
+            List<Product> products = CatalogFile.read(productFile.toPath());
+            catalog.clear();
+            // Index the products one segment-sized batch at a time
+            for (int first = 0; first < products.size(); first += SegmentedProductStore.SEGMENT_SIZE) {
+                int last = Math.min(products.size(), first + SegmentedProductStore.SEGMENT_SIZE);
+                catalog.addAll(products.subList(first, last));
+            }
             System.out.println("Products loaded successfully.");
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             System.out.println("Error loading products: " + e.getMessage());
         }
     }
 
     public void saveUsers() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(USER_FILE_NAME))) {
-            oos.writeObject(userList);
+        try {
+            userStore.putAll();
+            userDatabase.sync();
             System.out.println("Users saved successfully.");
         } catch (IOException e) {
             e.printStackTrace(); // This will print the stack trace to help identify the issue
             System.out.println("Error saving users: " + e.getMessage());
         }
     }
+
+    // Checks out the session's cart at its discounted total and empties the cart. The returned future
+    // completes once the purchase is on disk; it fails if the session has been closed or timed out.
+    public CompletableFuture<Void> checkout(Session session) {
+        if (!sessions.isOpen(session)) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Your session has expired, please log in again"));
+        }
+        // One checkout at a time per session, so a double click can't buy the cart twice
+        synchronized (session) {
+            ShoppingCart cart = session.getCart();
+            if (cart.getProducts().isEmpty()) {
+                return CompletableFuture.failedFuture(new IllegalStateException("The cart is empty"));
+            }
+            User user = session.getUser();
+            long totalCost = cart.calculateFinalTotalMinor(user);
+            // Take the stock first, all lines or none, so concurrent buyers can't sell the same items
+            Product[] products = new Product[cart.getLineCount()];
+            int[] quantities = new int[products.length];
+            for (int row = 0; row < products.length; row++) {
+                products[row] = findProductById(cart.getLine(row).getProductId());
+                quantities[row] = cart.getLineQuantity(row);
+                if (products[row] == null) {
+                    return CompletableFuture.failedFuture(new IllegalStateException(
+                            cart.getLine(row).getName() + " is no longer sold"));
+                }
+            }
+            InventoryEngine.Reservation reservation = inventory.reserve(products, quantities);
+            if (reservation == null) {
+                return CompletableFuture.failedFuture(new IllegalStateException(describeShortage(products, quantities)));
+            }
+            CompletableFuture<Void> durable = recordPurchase(user, cart, totalCost, reservation);
+            if (!durable.isCompletedExceptionally()) {
+                cart.clearCart();
+            }
+            return durable;
+        }
+    }
+
+    private static String describeShortage(Product[] products, int[] quantities) {
+        for (int line = 0; line < products.length; line++) {
+            int available = products[line].getAvailableItems();
+            if (available < quantities[line]) {
+                return "Only " + available + " of " + products[line].getName() + " left";
+            }
+        }
+        return "Not enough stock, please try again"; // Another checkout gave its items back meanwhile
+    }
+
+    // Records a checkout: adds it to the user's purchase history, then appends the changes to the journal.
+    // The returned future completes once they are on disk. The total is in cents.
+    // The stock has already been taken by the reservation. It is committed before anything is recorded,
+    // so it can't expire halfway, and released again if the purchase can't be recorded. The commit is
+    // under the state lock with the writes, so a snapshot never sees the stock of a sale whose events
+    // aren't in the journal yet; it only updates counters, the catalog indexes catch up later.
+    private CompletableFuture<Void> recordPurchase(User user, ShoppingCart cart, long totalCost,
+                                                   InventoryEngine.Reservation reservation) {
+        CompletableFuture<Long> durable;
+        synchronized (stateLock) {
+            if (!inventory.commit(reservation)) {
+                return CompletableFuture.failedFuture(new IllegalStateException("The checkout took too long, please try again"));
+            }
+            try {
+                durable = applyPurchase(user, cart, totalCost);
+            } catch (IOException e) {
+                inventory.release(reservation); // Back on hand before anyone else can persist the stock
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        if (journal == null) {
+            return saveSnapshot();
+        }
+        if (journal.getEventsSinceCheckpoint() >= COMPACT_AFTER_EVENTS) {
+            saveSnapshot(); // Fold the journal into the snapshots in the background
+        }
+        return durable.thenApply(sequence -> null);
+    }
+
+    // Registers a new user and appends the registration to the journal. The password is replaced by
+    // its hash on the verifier pool first. The returned future completes once the user is on disk.
+    public CompletableFuture<Void> registerUser(User newUser) {
+        return passwordsCalibrated.thenCompose(calibrated -> loginVerifier.submit(() -> passwordHasher.hash(newUser.getPassword())))
+                .thenCompose(hash -> {
+                    newUser.setPassword(hash);
+                    return storeNewUser(newUser);
+                });
+    }
+
+    private CompletableFuture<Void> storeNewUser(User newUser) {
+        CompletableFuture<Long> durable;
+        synchronized (stateLock) {
+            try {
+                if (!userStore.putIfAbsent(newUser, journal == null)) {
+                    return CompletableFuture.failedFuture(new IllegalArgumentException("Username already exists"));
+                }
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            if (journal == null) {
+                return saveSnapshot();
+            }
+            durable = journal.append(EventJournal.REGISTRATION, out -> {
+                out.writeUTF(newUser.getUsername());
+                out.writeUTF(newUser.getPassword());
+                out.writeLong(newUser.getAccountCreationDate().toEpochDay());
+                out.writeLong(newUser.getAccountCreationTime().toNanoOfDay());
+            });
+        }
+        return durable.thenApply(sequence -> null);
+    }
+
+    // Asks the background writer for a product snapshot and a sync of the user store; once both are
+    // on disk the journal events they contain are dropped. Bursts of requests are coalesced into one write.
+    public CompletableFuture<Void> saveSnapshot() {
+        return persistence.requestSave();
+    }
+
+    // Copies the catalog under the state lock, the copy is written out without it
+    private PersistenceService.Snapshot captureSnapshot() throws IOException {
+        List<Product> products;
+        long sequence;
+        synchronized (stateLock) {
+            List<Product> current = catalog.getSnapshot().getProducts();
+            products = new ArrayList<>(current.size());
+            for (Product product : current) {
+                products.add(product.snapshotCopy());
+            }
+            sequence = journal != null ? journal.getLastSequence() : 0;
+        }
+        return () -> {
+            // Each step returns once its data is durable, and the journal is only cut back after both,
+            // so a crash at any point leaves the events needed to rebuild what didn't reach disk
+            CatalogFile.write(new File(PRODUCT_FILE_NAME).toPath(), products);
+            userDatabase.sync(); // Users and orders written since the last snapshot
+            if (journal != null) {
+                journal.checkpoint(sequence);
+            }
+        };
+    }
+
+    private void waitForSave(CompletableFuture<Void> save) {
+        try {
+            save.join();
+            System.out.println("Products and users saved successfully.");
+        } catch (CompletionException e) {
+            System.out.println("Error saving products and users: " + e.getCause().getMessage());
+        }
+    }
+
+    private void displayDiagnostics() {
+        System.out.println("-------------------------------------------------");
+        System.out.println(startup);
+        if (!ready.isDone() || ready.isCompletedExceptionally()) {
+            System.out.println("Startup has not finished.");
+            System.out.println("-------------------------------------------------");
+            return;
+        }
+        System.out.println("Products: " + catalog.size());
+        System.out.println("Usernames: " + userStore.getIndexStatistics());
+        System.out.println("User store tables: " + userDatabase.getTableCount()
+                + ", memtable: " + userDatabase.getMemtableBytes() / 1024 + " KB");
+        if (journal != null) {
+            System.out.println("Journal sequence: " + journal.getLastSequence()
+                    + ", events since last snapshot: " + journal.getEventsSinceCheckpoint());
+        }
+        System.out.println(persistence);
+        System.out.println(sessions);
+        System.out.println(inventory);
+        System.out.println(pricingEngine);
+        System.out.println(loginVerifier + ", PBKDF2 iterations: " + passwordHasher.getIterations());
+        System.out.println("-------------------------------------------------");
+    }
+
+    // Adds the purchase to the user's history; the stock was taken when the cart was reserved.
+    // With a journal, one stock event per line and the purchase event are appended; the returned
+    // future completes when the last of them is durable. Must be called with the state lock held.
+    private CompletableFuture<Long> applyPurchase(User user, ShoppingCart cart, long totalCost) throws IOException {
+        List<Product> purchasedProducts = new ArrayList<>(cart.getProducts());
+        CompletableFuture<Long> durable = null;
+        LocalDate purchaseDate = LocalDate.now();
+        Product purchase = new Product(purchasedProducts, Money.toMajor(totalCost), purchaseDate);
+        long orderId = historyStore.nextOrderId();
+        // The only step that can fail, so it goes first and a failure leaves nothing to undo.
+        // Not synced here, the next snapshot syncs the user store before checkpointing the journal.
+        historyStore.append(user.getUsername(), orderId, purchase);
+        user.addPurchase(purchase);
+
+        journalStock(purchasedProducts);
+        if (journal != null) {
+            durable = journal.append(EventJournal.ORDER, out -> {
+                out.writeLong(orderId);
+                out.writeUTF(user.getUsername());
+                out.writeDouble(Money.toMajor(totalCost)); // Converts back to the same cents exactly
+                out.writeLong(purchaseDate.toEpochDay());
+                out.writeInt(purchasedProducts.size());
+                for (Product product : purchasedProducts) {
+                    out.writeUTF(product.getProductId());
+                }
+            });
+        }
+        return durable;
+    }
+
+    // Appends the stock on hand of each product to the journal. The stock is read under the state lock,
+    // so whichever checkout appends last also read last, and replay ends on the latest stock.
+    private void journalStock(List<Product> products) {
+        if (journal == null) {
+            return;
+        }
+        for (Product cartProduct : products) {
+            Product mainListProduct = findProductById(cartProduct.getProductId());
+            if (mainListProduct != null) {
+                // Including items other checkouts still hold, which replay can't know about
+                int stockOnHand = mainListProduct.getStockOnHand();
+                journal.append(EventJournal.STOCK_CHANGE, out -> {
+                    out.writeUTF(mainListProduct.getProductId());
+                    out.writeInt(stockOnHand);
+                });
+            }
+        }
+    }
+
+    private void openJournal() {
+        try {
+            journal = new EventJournal(new File(JOURNAL_FILE_NAME).toPath());
+            journal.replay(this::applyEvent);
+            if (journal.getEventsSinceCheckpoint() > 0) {
+                System.out.println("Replayed " + journal.getEventsSinceCheckpoint() + " journal events.");
+            }
+        } catch (IOException e) {
+            journal = null;
+            System.out.println("Error opening journal, changes will be saved in full: " + e.getMessage());
+        }
+    }
+
+    // Re-applies one journal event written after the last snapshot
+    private void applyEvent(long sequence, byte type, DataInputStream in) throws IOException {
+        switch (type) {
+            case EventJournal.STOCK_CHANGE: {
+                Product product = findProductById(in.readUTF());
+                int availableItems = in.readInt();
+                if (product != null) {
+                    product.setAvailableItems(availableItems);
+                }
+                break;
+            }
+            case EventJournal.PURCHASE:
+            case EventJournal.ORDER: {
+                long orderId = type == EventJournal.ORDER ? in.readLong() : sequence;
+                User user = getUserByUsername(in.readUTF());
+                double totalCost = in.readDouble();
+                LocalDate purchaseDate = LocalDate.ofEpochDay(in.readLong());
+                int count = in.readInt();
+                List<Product> purchasedProducts = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    Product product = findProductById(in.readUTF());
+                    if (product != null) {
+                        purchasedProducts.add(product);
+                    }
+                }
+                if (user != null) {
+                    // Idempotent: the order may already be in the user store from before a crash
+                    Product purchase = new Product(purchasedProducts, totalCost, purchaseDate);
+                    user.addPurchase(purchase);
+                    historyStore.noteOrderId(orderId);
+                    historyStore.append(user.getUsername(), orderId, purchase);
+                }
+                break;
+            }
+            case EventJournal.REGISTRATION: {
+                String username = in.readUTF();
+                String password = in.readUTF();
+                LocalDate creationDate = LocalDate.ofEpochDay(in.readLong());
+                LocalTime creationTime = LocalTime.ofNanoOfDay(in.readLong());
+                userStore.putIfAbsent(new User(username, password, creationDate, creationTime), false);
+                break;
+            }
+            default:
+                throw new IOException("Unknown journal event type " + type + " at sequence " + sequence);
+        }
+    }
+
     public List<Product> getProducts() {
-        return productList;
+        return catalog.getProducts();
     }
 
 
@@ -430,7 +1039,11 @@ public boolean validateUser(String username, String password) {
 
 
     public List<Product> getProductList() {
-        return productList;
+        return catalog.getProducts();
+    }
+
+    public ProductCatalog getCatalog() {
+        return catalog;
     }
 
 }
\ No newline at end of file
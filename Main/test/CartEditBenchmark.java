@@ -0,0 +1,120 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Rapid quantity edits on a large cart, with the subtotal read after every edit as the shopping
+// window does, and separately with the discounted total.
+//
+//   java -cp out CartEditBenchmark [lines] [edits]
+//
+// Defaults are 5,000 lines and 10^6 edits. The running subtotal is checked against a sum of the
+// lines at current prices every few thousand edits, and again after prices change between edits,
+// when it must follow the new prices rather than keep the ones the items were added at.
+//
+// The discounted total comes from per-promotion sums the cart keeps up to date, so it should cost about
+// as much as the subtotal. On a smaller cart with a mix of percent, buy-n, bundle, brand and size rules,
+// it is checked after every edit against pricing the cart from scratch, through edits that remove
+// lines, price changes, and brand and size changes that move a line to other rules.
+public class CartEditBenchmark {
+    private static final int CHECK_EVERY = 4_096;
+
+    public static void main(String[] args) {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        Product[] products = new Product[lineCount];
+        ShoppingCart cart = new ShoppingCart();
+        User user = new User("shopper", "hash");
+        for (int number = 0; number < lineCount; number++) {
+            products[number] = number % 2 == 0
+                    ? new Clothing(Harness.productId('C', number), "Shirt", 1_000, 5 + number % 100 / 4.0, "M", "Red")
+                    : new Electronics(Harness.productId('E', number), "Cable", 1_000, 2.99 + number % 50, "Acme", 12);
+            cart.addProduct(products[number]);
+        }
+
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        for (int edit = 1; edit <= edits; edit++) {
+            cart.updateProductQuantity(products[random.nextInt(lineCount)], 1 + random.nextInt(9));
+            Harness.sink = cart.calculateSubtotal();
+            if (edit % CHECK_EVERY == 0) {
+                checkSubtotal(cart, "after " + edit + " edits");
+            }
+        }
+        long editNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int edit = 0; edit < edits; edit++) {
+            cart.updateProductQuantity(products[random.nextInt(lineCount)], 1 + random.nextInt(9));
+            Harness.sink = cart.calculateFinalTotalMinor(user);
+        }
+        long pricedNanos = System.nanoTime() - start;
+
+        // Prices change while the items are in the cart; the next read must use the new prices
+        for (int number = 0; number < lineCount; number += 3) {
+            products[number].setPrice(products[number].getPrice() + 1.01);
+        }
+        checkSubtotal(cart, "after a price change");
+        cart.updateProductQuantity(products[1], 7); // An edit straight after the change
+        products[0].setPrice(0.5);
+        checkSubtotal(cart, "after a price change followed by an edit");
+
+        long resumStart = System.nanoTime();
+        products[2].setPrice(products[2].getPrice() + 0.01);
+        Harness.sink = cart.getSubtotalMinor();
+        long resumNanos = System.nanoTime() - resumStart;
+
+        System.out.printf("%d lines, %d edits%n", lineCount, edits);
+        System.out.printf("edit plus subtotal: %.0f ns%n", (double) editNanos / edits);
+        System.out.printf("edit plus discounted total: %.0f ns%n", (double) pricedNanos / edits);
+        System.out.printf("first subtotal after a price change: %.1f us%n", resumNanos / 1e3);
+        System.out.printf("discounted total matched a full pricing after %d edits%n", checkTotals());
+    }
+
+    // Returns how many edits were checked
+    private static int checkTotals() {
+        int lineCount = 200;
+        Product[] products = new Product[lineCount];
+        for (int number = 0; number < lineCount; number++) {
+            products[number] = number % 2 == 0
+                    ? new Clothing(Harness.productId('C', number), "Shirt", 1_000, 5 + number % 7, number % 4 == 0 ? "M" : "L", "Red")
+                    : new Electronics(Harness.productId('E', number), "Cable", 1_000, 2.99 + number % 5, number % 3 == 0 ? "Acme" : "Other", 12);
+        }
+        List<String> rules = new ArrayList<>(PricingEngine.DEFAULT_RULES);
+        rules.add("name=\"Acme week\" type=percent brand=Acme percent=15 priority=50 group=brand");
+        rules.add("name=\"Other week\" type=percent brand=Other min-items=40 percent=5 priority=40 group=brand");
+        rules.add("name=\"Medium 3 for 2\" type=buy-n size=M buy=2 free=1 priority=30");
+        rules.add("name=\"Pair\" type=bundle product=" + products[0].getProductId() + "," + products[1].getProductId() + " percent=25 priority=60");
+        rules.add("name=\"Shirt pile\" type=percent category=Clothing min-items=300 applies-to=cart percent=3 priority=25");
+        rules.add("name=\"Big spender\" type=percent product=" + products[7].getProductId() + " min-items=5 percent=50 priority=70 exclusive=true");
+        PricingEngine engine = PricingEngine.parse(rules, "checked rules");
+        ShoppingCart cart = new ShoppingCart(lineCount, () -> engine);
+        User user = new User("first", "hash");
+        Random random = new Random(7);
+        int edits = 20_000;
+        for (int edit = 0; edit < edits; edit++) {
+            Product product = products[random.nextInt(lineCount)];
+            int change = random.nextInt(100);
+            if (change == 0) {
+                product.setPrice(1 + random.nextInt(20) + 0.25);
+            } else if (change == 1 && product instanceof Electronics) {
+                ((Electronics) product).setBrand(random.nextBoolean() ? "Acme" : "Other");
+            } else if (change == 1) {
+                ((Clothing) product).setSize(random.nextBoolean() ? "m" : "L");
+            } else {
+                cart.updateProductQuantity(product, random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(9));
+            }
+            long total = cart.calculateFinalTotalMinor(user);
+            PricingEngine.Result expected = engine.evaluate(cart, user);
+            Harness.check(total == expected.getTotalMinor() && cart.getAppliedPromotions().size() == expected.getApplied().size(),
+                    "total " + total + " after " + edit + " edits, pricing from scratch gives " + expected.getTotalMinor());
+        }
+        return edits;
+    }
+
+    private static void checkSubtotal(ShoppingCart cart, String when) {
+        long expected = 0;
+        for (int row = 0; row < cart.getLineCount(); row++) {
+            expected += cart.getLine(row).getPriceMinor() * cart.getLineQuantity(row);
+        }
+        Harness.check(cart.getSubtotalMinor() == expected, "subtotal " + cart.getSubtotalMinor() + " " + when + ", lines add up to " + expected);
+    }
+}
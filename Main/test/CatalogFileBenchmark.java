@@ -0,0 +1,108 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+// Saving and loading the catalog as a CatalogFile against Java serialization of the product list,
+// for the number of products given as the first argument (default 10^6).
+//
+//   java -cp out CatalogFileBenchmark 1000000
+//
+// Every product read back from the catalog file is first checked field by field against the one
+// written, including a file written over an existing one. Times are best of a few runs.
+public class CatalogFileBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<Product> products = new ArrayList<>(size);
+        for (int number = 0; number < size; number++) {
+            products.add(product(number));
+        }
+        Path directory = Files.createTempDirectory("catalog-file-benchmark");
+        Path binaryFile = directory.resolve("products.bin");
+        Path serializedFile = directory.resolve("products.ser");
+        try {
+            CatalogFile.write(binaryFile, products.subList(0, Math.min(size, 100)));
+            CatalogFile.write(binaryFile, products); // Replaces the smaller file
+            checkSame(products, CatalogFile.read(binaryFile));
+            writeSerialized(serializedFile, products);
+            checkSame(products, readSerialized(serializedFile));
+
+            System.out.printf("%d products, best of %d runs%n", size, ROUNDS);
+            System.out.printf("%-20s %12s %10s %10s%n", "format", "bytes", "save ms", "load ms");
+            report("catalog file", Files.size(binaryFile),
+                    Harness.bestOf(ROUNDS, Harness.unchecked(() -> CatalogFile.write(binaryFile, products))),
+                    Harness.bestOf(ROUNDS, Harness.unchecked(() -> Harness.sink = CatalogFile.read(binaryFile))));
+            report("serialization", Files.size(serializedFile),
+                    Harness.bestOf(ROUNDS, Harness.unchecked(() -> writeSerialized(serializedFile, products))),
+                    Harness.bestOf(ROUNDS, Harness.unchecked(() -> Harness.sink = readSerialized(serializedFile))));
+        } finally {
+            Files.deleteIfExists(binaryFile);
+            Files.deleteIfExists(serializedFile);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static void checkSame(List<Product> expected, List<Product> actual) {
+        Harness.check(expected.size() == actual.size(), "read " + actual.size() + " products, wrote " + expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Product written = expected.get(i);
+            Product read = actual.get(i);
+            String id = written.getProductId();
+            Harness.check(written.getClass() == read.getClass(), "type of " + id);
+            Harness.check(id.equals(read.getProductId()), "ID of record " + i);
+            Harness.check(Objects.equals(written.getName(), read.getName()), "name of " + id);
+            Harness.check(written.getPrice() == read.getPrice(), "price of " + id);
+            Harness.check(written.getAvailableItems() == read.getAvailableItems(), "stock of " + id);
+            Harness.check(Objects.equals(written.getDateAdded(), read.getDateAdded()), "date added of " + id);
+            if (written instanceof Electronics) {
+                Electronics electronics = (Electronics) read;
+                Harness.check(Objects.equals(((Electronics) written).getBrand(), electronics.getBrand()), "brand of " + id);
+                Harness.check(((Electronics) written).getWarrantyPeriod() == electronics.getWarrantyPeriod(), "warranty of " + id);
+            } else {
+                Clothing clothing = (Clothing) read;
+                Harness.check(Objects.equals(((Clothing) written).getSize(), clothing.getSize()), "size of " + id);
+                Harness.check(Objects.equals(((Clothing) written).getColor(), clothing.getColor()), "colour of " + id);
+            }
+        }
+    }
+
+    private static void writeSerialized(Path file, List<Product> products) throws IOException {
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeObject(new ArrayList<>(products));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Product> readSerialized(Path file) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            return (List<Product>) in.readObject();
+        }
+    }
+
+    private static void report(String format, long bytes, long saveNanos, long loadNanos) {
+        System.out.printf("%-20s %12d %10.0f %10.0f%n", format, bytes, saveNanos / 1e6, loadNanos / 1e6);
+    }
+
+    // Even numbers are Clothing, odd numbers Electronics, with names that repeat like a real catalog's
+    private static Product product(int number) {
+        Product product;
+        if (number % 2 == 0) {
+            product = new Clothing(Harness.productId('C', number), "Shirt " + number % 500, 1 + number % 50,
+                    5 + number % 1000 / 10.0, number % 3 == 0 ? "XL" : "M", number % 5 == 0 ? "Grün" : "Red");
+        } else {
+            product = new Electronics(Harness.productId('E', number), "Phone " + number % 200, number % 40,
+                    99.99 + number % 700, number % 7 == 0 ? null : "Acme", 12 + number % 24);
+        }
+        product.setDateAdded(LocalDate.of(2023, 1, 1).plusDays(number % 400));
+        return product;
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.Random;
+
+// Add, lookup and delete latency of ProductCatalog as it grows from 10^3 products to the size given
+// as the first argument (default 10^6; 10^7 needs about -Xmx8g, since every index is kept).
+//
+//   java -Xmx8g -cp out CatalogScalingBenchmark 10000000
+//
+// Adds are averaged over the products added to reach each size; lookups, deletes and re-adds of
+// random existing products are timed one by one and reported as median and 99th percentile.
+public class CatalogScalingBenchmark {
+    private static final String[] NAMES = {"Shirt", "Jeans", "Jacket", "Socks", "Scarf", "Phone", "Laptop", "Camera"};
+    private static final String[] COLOURS = {"Red", "Blue", "Black", "White"};
+    private static final String[] SIZES = {"S", "M", "L", "XL"};
+    private static final int SAMPLES = 10_000;
+
+    public static void main(String[] args) {
+        int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        ProductCatalog catalog = new ProductCatalog();
+        Random random = new Random(42);
+        System.out.printf("%10s %12s %22s %22s %22s%n", "products", "add ns/op", "lookup p50/p99 ns", "delete p50/p99 ns", "re-add p50/p99 ns");
+        int size = 0;
+        for (int target = 1_000; target <= maxSize; target *= 10) {
+            int from = size;
+            long start = System.nanoTime();
+            for (; size < target; size++) {
+                Harness.check(catalog.add(product(size)), "duplicate ID " + size);
+            }
+            double addNanos = (double) (System.nanoTime() - start) / (target - from);
+
+            long[] lookups = new long[SAMPLES];
+            for (int i = 0; i < SAMPLES; i++) {
+                String id = Harness.productId('C', random.nextInt(size));
+                long t = System.nanoTime();
+                Product found = catalog.findById(id);
+                lookups[i] = System.nanoTime() - t;
+                Harness.check(found != null && found.getProductId().equals(id), "lookup missed " + id);
+            }
+
+            int churn = Math.min(SAMPLES, size / 10);
+            long[] deletes = new long[churn];
+            long[] readds = new long[churn];
+            for (int i = 0; i < churn; i++) {
+                int number = random.nextInt(size);
+                String id = Harness.productId('C', number);
+                long t = System.nanoTime();
+                Product removed = catalog.remove(id);
+                deletes[i] = System.nanoTime() - t;
+                Harness.check(removed != null, "delete missed " + id);
+                t = System.nanoTime();
+                catalog.add(removed);
+                readds[i] = System.nanoTime() - t;
+            }
+            Harness.check(catalog.size() == size, "catalog has " + catalog.size() + " products, expected " + size);
+
+            System.out.printf("%10d %12.0f %22s %22s %22s%n", size, addNanos,
+                    Harness.percentile(lookups, 50) + " / " + Harness.percentile(lookups, 99),
+                    Harness.percentile(deletes, 50) + " / " + Harness.percentile(deletes, 99),
+                    Harness.percentile(readds, 50) + " / " + Harness.percentile(readds, 99));
+        }
+    }
+
+    private static Product product(int number) {
+        return new Clothing(Harness.productId('C', number), NAMES[number % NAMES.length], 1 + number % 50,
+                5 + number % 1000 / 10.0, SIZES[number % SIZES.length], COLOURS[number % COLOURS.length]);
+    }
+}
@@ -0,0 +1,256 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Many writer and reader threads on one ProductCatalog, checking that no update is lost and no
+// reader ever sees a half-applied write.
+//
+//   java -cp out CatalogStressTest [seconds]
+//
+// Writers each own a range of product IDs. They add products in pairs with addAll, which publishes
+// both as one catalog version; delete and re-add single products; and flip prices between two
+// values. Readers meanwhile take snapshots and query the indexes and check that:
+//   - the snapshot is in strictly increasing ID order, and snapshot versions never go backwards
+//   - a pair is either wholly in a snapshot or wholly absent
+//   - every price read is one of the two values written, never a torn mix of them
+// Afterwards every product a writer added and didn't delete is in the catalog, and the snapshot,
+// the ID lookups and the category index agree on the count.
+//
+// A second run races removes against setters: one thread flips prices and colours while another removes
+// products and adds them back. A remove must clear the entries the product is filed under, even if a
+// setter has already changed the field, so afterwards the price index, the name view, the colour index
+// and the search index each hold every remaining product exactly once, under its current values.
+// The window is a few instructions wide, so the interleaving is also set up on purpose: a large addAll
+// holds the write lock while a remove queues for it, then a price change queues behind the remove.
+public class CatalogStressTest {
+    private static final double LOW_PRICE = 1.25;
+    private static final double HIGH_PRICE = 987654321.75; // differs from LOW_PRICE in both 32-bit halves
+    private static final int IDS_PER_WRITER = 100_000;
+    private static final int RACED_PRODUCTS = 64;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int writers = 4;
+        int readers = 4;
+        ProductCatalog catalog = new ProductCatalog();
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong snapshotsChecked = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(writers + readers);
+
+        List<Future<List<String>>> writerResults = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            writerResults.add(pool.submit(() -> {
+                start.await();
+                return write(catalog, writer, stop);
+            }));
+        }
+        List<Future<?>> readerResults = new ArrayList<>();
+        for (int r = 0; r < readers; r++) {
+            readerResults.add(pool.submit(() -> {
+                start.await();
+                read(catalog, stop, snapshotsChecked);
+                return null;
+            }));
+        }
+        start.countDown();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        stop.set(true);
+
+        List<String> expected = new ArrayList<>();
+        for (Future<List<String>> result : writerResults) {
+            expected.addAll(result.get());
+        }
+        for (Future<?> result : readerResults) {
+            result.get(); // Rethrows a reader's AssertionError
+        }
+        pool.shutdown();
+
+        Collections.sort(expected);
+        List<String> actual = new ArrayList<>();
+        for (Product product : catalog.getSnapshot().getProducts()) {
+            actual.add(product.getProductId());
+        }
+        Harness.check(actual.equals(expected), "lost update: catalog holds " + actual.size() + " products, writers left " + expected.size());
+        for (String id : expected) {
+            Harness.check(catalog.findById(id) != null, "lookup lost " + id);
+        }
+        int indexed = catalog.findByAttributes(Collections.singletonMap(ProductAttributeIndex.CATEGORY, "Clothing")).size();
+        Harness.check(indexed == expected.size(), "category index holds " + indexed + " products, expected " + expected.size());
+        long raced = raceRemovesWithSetters(seconds);
+        removeQueuedBeforeSetter();
+        System.out.printf("OK: %d products after %d s, %d snapshots checked by %d readers, %d removes raced setters%n",
+                expected.size(), seconds, snapshotsChecked.get(), readers, raced);
+    }
+
+    private static void removeQueuedBeforeSetter() throws Exception {
+        ProductCatalog catalog = new ProductCatalog();
+        Product product = product(0);
+        catalog.add(product);
+        List<Product> bulk = new ArrayList<>();
+        for (int number = 1; number <= 500_000; number++) {
+            bulk.add(product(number));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        Future<Integer> adder = pool.submit(() -> catalog.addAll(bulk));
+        Thread.sleep(50); // The lock is handed to queued threads in order
+        Future<Product> remover = pool.submit(() -> catalog.remove(product.getProductId()));
+        Thread.sleep(50);
+        Future<?> setter = pool.submit(() -> product.setPrice(HIGH_PRICE)); // The field changes now, the index later
+        Harness.check(adder.get() == bulk.size() && remover.get() == product, "queued writes failed");
+        setter.get();
+        pool.shutdown();
+        Harness.check(catalog.findByPriceRange(LOW_PRICE, LOW_PRICE).size() == bulk.size()
+                        && catalog.findByPriceRange(HIGH_PRICE, HIGH_PRICE).isEmpty(),
+                "removed product left in the price index at the price it had when the setter started");
+    }
+
+    // Returns how many removes were made
+    private static long raceRemovesWithSetters(int seconds) throws Exception {
+        ProductCatalog catalog = new ProductCatalog();
+        List<Clothing> products = new ArrayList<>();
+        for (int number = 0; number < RACED_PRODUCTS; number++) {
+            Clothing product = (Clothing) product(number);
+            products.add(product);
+            catalog.add(product);
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        Future<?> setter = pool.submit(() -> {
+            Random random = new Random(1);
+            while (!stop.get()) {
+                Clothing product = products.get(random.nextInt(RACED_PRODUCTS));
+                product.setPrice(product.getPrice() == LOW_PRICE ? HIGH_PRICE : LOW_PRICE);
+                product.setColor(product.getColor().equals("Red") ? "Blue" : "Red");
+            }
+            return null;
+        });
+        Future<Long> remover = pool.submit(() -> {
+            Random random = new Random(2);
+            long removes = 0;
+            while (!stop.get()) {
+                Product product = products.get(random.nextInt(RACED_PRODUCTS));
+                Harness.check(catalog.remove(product.getProductId()) == product, "raced product not removed");
+                Harness.check(catalog.add(product), "raced product not re-added");
+                removes++;
+            }
+            return removes;
+        });
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        stop.set(true);
+        setter.get();
+        long removes = remover.get();
+        pool.shutdown();
+        for (int number = 0; number < RACED_PRODUCTS; number += 2) {
+            catalog.remove(products.get(number).getProductId());
+        }
+
+        int size = catalog.size();
+        Harness.check(catalog.findByPriceRange(null, null).size() == size,
+                "price index holds " + catalog.findByPriceRange(null, null).size() + " entries for " + size + " products");
+        Harness.check(catalog.getSortedProducts(ProductSortOrder.NAME).size() == size, "name view doesn't match the catalog");
+        int red = catalog.findByAttributes(Map.of(ProductAttributeIndex.COLOUR, "Red")).size();
+        int blue = catalog.findByAttributes(Map.of(ProductAttributeIndex.COLOUR, "Blue")).size();
+        Harness.check(red + blue == size, "colour index holds " + red + " red and " + blue + " blue of " + size + " products");
+        int searchRed = catalog.search("red ", Collections.emptyMap(), Integer.MAX_VALUE).size();
+        int searchBlue = catalog.search("blue ", Collections.emptyMap(), Integer.MAX_VALUE).size();
+        Harness.check(searchRed + searchBlue == size, "search finds " + searchRed + " red and " + searchBlue + " blue of " + size + " products");
+        for (Product product : catalog.getProducts()) {
+            Harness.check(catalog.findByPriceRange(product.getPrice(), product.getPrice()).contains(product),
+                    product.getProductId() + " not under its current price");
+        }
+        return removes;
+    }
+
+    // Returns the IDs this writer left in the catalog
+    private static List<String> write(ProductCatalog catalog, int writer, AtomicBoolean stop) {
+        int base = writer * IDS_PER_WRITER;
+        List<Product> live = new ArrayList<>();
+        List<String> singles = new ArrayList<>();
+        int next = 0;
+        while (!stop.get() && next + 3 <= IDS_PER_WRITER) {
+            // A pair, published together
+            Product first = product(base + next++);
+            Product second = product(base + next++);
+            Harness.check(catalog.addAll(Arrays.asList(first, second)) == 2, "pair not added");
+            live.add(first);
+            live.add(second);
+            // A single product that is deleted and re-added
+            Product single = product(base + next++);
+            Harness.check(catalog.add(single), "single not added");
+            Harness.check(catalog.remove(single.getProductId()) == single, "single not removed");
+            Harness.check(catalog.add(single), "single not re-added");
+            singles.add(single.getProductId());
+            // Price flips on a product readers may be looking at
+            Product flipped = live.get(next % live.size());
+            flipped.setPrice(flipped.getPrice() == LOW_PRICE ? HIGH_PRICE : LOW_PRICE);
+        }
+        List<String> ids = new ArrayList<>(singles);
+        for (Product product : live) {
+            ids.add(product.getProductId());
+        }
+        return ids;
+    }
+
+    private static void read(ProductCatalog catalog, AtomicBoolean stop, AtomicLong snapshotsChecked) {
+        long lastVersion = -1;
+        while (!stop.get()) {
+            CatalogSnapshot snapshot = catalog.getSnapshot();
+            Harness.check(snapshot.getVersion() >= lastVersion, "snapshot version went back from " + lastVersion + " to " + snapshot.getVersion());
+            lastVersion = snapshot.getVersion();
+            List<Product> products = snapshot.getProducts();
+            String previous = null;
+            for (Product product : products) {
+                String id = product.getProductId();
+                Harness.check(previous == null || previous.compareTo(id) < 0, "snapshot out of order at " + id);
+                previous = id;
+                double price = product.getPrice();
+                Harness.check(price == LOW_PRICE || price == HIGH_PRICE, "torn price " + price + " on " + id);
+                int number = Integer.parseInt(id.substring(1));
+                int slot = number % IDS_PER_WRITER % 3;
+                if (slot < 2) {
+                    // The other half of the pair must be in the same snapshot
+                    String partner = Harness.productId('C', slot == 0 ? number + 1 : number - 1);
+                    Harness.check(contains(products, partner), "torn pair: " + id + " without " + partner);
+                }
+            }
+            // An index query sees whole writes too: no product twice, however prices move meanwhile
+            List<Product> cheap = catalog.findByPriceRange(LOW_PRICE, LOW_PRICE, 0, 100);
+            Harness.check(cheap.stream().map(Product::getProductId).distinct().count() == cheap.size(), "duplicate in price index");
+            snapshotsChecked.incrementAndGet();
+        }
+    }
+
+    // The snapshot is in ID order, so a binary search finds the partner
+    private static boolean contains(List<Product> products, String id) {
+        int low = 0;
+        int high = products.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = products.get(middle).getProductId().compareTo(id);
+            if (comparison == 0) {
+                return true;
+            } else if (comparison < 0) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return false;
+    }
+
+    private static Product product(int number) {
+        return new Clothing(Harness.productId('C', number), "Shirt", 10, LOW_PRICE, "M", "Red");
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.Map;
+
+// Aggregate queries on the object graph against the same queries on the columnar layout
+// (ProductCatalog.enableColumnarLayout), for a catalog of the size given as the first argument
+// (default 10^6).
+//
+//   java -cp out ColumnarLayoutBenchmark 1000000
+//
+// Both catalogs hold the same products and must return the same answers. That is checked before
+// timing, and again after every Electronics product has been removed, when the category must drop
+// out of the inventory value in both layouts.
+public class ColumnarLayoutBenchmark {
+    private static final int ROUNDS = 20;
+    private static final int LOW_STOCK = 5;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        ProductCatalog objects = new ProductCatalog();
+        ProductCatalog columnar = new ProductCatalog();
+        columnar.enableColumnarLayout();
+        for (int number = 0; number < size; number++) {
+            objects.add(product(number));
+            columnar.add(product(number));
+        }
+        checkSameAnswers(objects, columnar);
+
+        System.out.printf("%d products, best of %d runs%n", size, ROUNDS);
+        System.out.printf("%-28s %14s %14s%n", "query", "objects ms", "columnar ms");
+        report("inventoryValueByCategory",
+                Harness.bestOf(ROUNDS, () -> Harness.sink = objects.inventoryValueByCategory()),
+                Harness.bestOf(ROUNDS, () -> Harness.sink = columnar.inventoryValueByCategory()));
+        report("countLowStock",
+                Harness.bestOf(ROUNDS, () -> Harness.sink = objects.countLowStock(LOW_STOCK)),
+                Harness.bestOf(ROUNDS, () -> Harness.sink = columnar.countLowStock(LOW_STOCK)));
+
+        for (int number = 1; number < size; number += 2) {
+            objects.remove(Harness.productId('E', number));
+            columnar.remove(Harness.productId('E', number));
+        }
+        checkSameAnswers(objects, columnar);
+        Harness.check(!columnar.inventoryValueByCategory().containsKey("Electronics"), "emptied category still reported");
+    }
+
+    private static void checkSameAnswers(ProductCatalog objects, ProductCatalog columnar) {
+        Map<String, Double> expected = objects.inventoryValueByCategory();
+        Map<String, Double> actual = columnar.inventoryValueByCategory();
+        Harness.check(expected.keySet().equals(actual.keySet()), "categories differ: " + expected.keySet() + " and " + actual.keySet());
+        for (Map.Entry<String, Double> entry : expected.entrySet()) {
+            // Summed in a different order, so allow for rounding
+            double difference = Math.abs(entry.getValue() - actual.get(entry.getKey()));
+            Harness.check(difference <= 1e-9 * Math.abs(entry.getValue()), "value of " + entry.getKey() + " differs by " + difference);
+        }
+        Harness.check(objects.countLowStock(LOW_STOCK) == columnar.countLowStock(LOW_STOCK), "low stock counts differ");
+    }
+
+    private static void report(String query, long objectNanos, long columnarNanos) {
+        System.out.printf("%-28s %14.2f %14.2f%n", query, objectNanos / 1e6, columnarNanos / 1e6);
+    }
+
+    // Even numbers are Clothing, odd numbers Electronics
+    private static Product product(int number) {
+        int stock = number % 40;
+        double price = 5 + number % 1000 / 10.0;
+        if (number % 2 == 0) {
+            return new Clothing(Harness.productId('C', number), "Shirt", stock, price, "M", "Red");
+        }
+        return new Electronics(Harness.productId('E', number), "Phone", stock, price, "Acme", 12);
+    }
+}
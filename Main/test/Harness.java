@@ -0,0 +1,63 @@
+import java.util.Arrays;
+
+// Helpers shared by the stress tests and benchmarks in this directory. Each of them is a plain main
+// class, so they run without a test framework or a build tool:
+//
+//   javac -d out src/*.java test/*.java
+//   java -cp out CatalogScalingBenchmark
+//
+// Checks throw AssertionError, so a failed run ends with a stack trace and a non-zero exit code.
+// Timings are best-of-N after warm-up rounds; they are for comparing layouts on one machine, not
+// absolute numbers.
+final class Harness {
+    private Harness() {
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    // Runs the body rounds times and returns the fastest run in nanoseconds
+    static long bestOf(int rounds, Runnable body) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            body.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    // A timed body that may throw, such as file or stream I/O
+    interface Body {
+        void run() throws Exception;
+    }
+
+    // Wraps a body for bestOf, rethrowing its exceptions unchecked
+    static Runnable unchecked(Body body) {
+        return () -> {
+            try {
+                body.run();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    // The given percentile (0-100) of the samples, which are sorted in place
+    static long percentile(long[] samples, double percentile) {
+        Arrays.sort(samples);
+        int index = (int) Math.min(samples.length - 1, Math.round(percentile / 100 * (samples.length - 1)));
+        return samples[index];
+    }
+
+    // Product ID for a sequence number: a prefix letter and nine digits, valid for ProductKey
+    static String productId(char prefix, int number) {
+        return prefix + String.format("%09d", number);
+    }
+
+    // Keeps results alive so the JIT can't drop the work that produced them
+    static volatile Object sink;
+}
@@ -0,0 +1,152 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Checkouts racing for one hot product, as in a flash sale.
+//
+//   java -cp out InventoryContentionBenchmark [stock]
+//
+// Default stock is 10^6 items. At 1, 4, 16 and 64 buyer threads, every buyer reserves 1 to 3 items,
+// abandons one reservation in ten and commits the rest, until the product is sold out. One more
+// thread keeps querying the stock indexes meanwhile, as the low stock report does. Checks that:
+//   - the available stock is never seen below zero
+//   - the stock on hand, which is what gets persisted, only ever goes down: reserving and abandoning
+//     move items between available and held, and must never show them twice
+//   - the items committed add up to exactly the stock, so nothing was sold twice or lost
+//   - nothing is left reserved, and the stock indexes and columns show the product sold out
+// Also checks that releasing a committed reservation, as a checkout does when its purchase can't be
+// recorded, puts the items back.
+public class InventoryContentionBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 4, 16, 64};
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int stock = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        InventoryEngine inventory = new InventoryEngine(30, TimeUnit.SECONDS);
+        checkReleaseAfterCommit(inventory);
+
+        System.out.printf("one product, %d items, best of %d runs%n", stock, ROUNDS);
+        System.out.printf("%8s %16s %16s %14s%n", "threads", "items sold/s", "checkouts/s", "index reads");
+        for (int threads : THREAD_COUNTS) {
+            double bestItems = 0;
+            double bestCheckouts = 0;
+            long indexReads = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long[] result = sellOut(inventory, stock, threads);
+                double seconds = result[2] / 1e9;
+                if (result[0] / seconds > bestItems) {
+                    bestItems = result[0] / seconds;
+                    bestCheckouts = result[1] / seconds;
+                    indexReads = result[3];
+                }
+            }
+            System.out.printf("%8d %16.0f %16.0f %14d%n", threads, bestItems, bestCheckouts, indexReads);
+        }
+        System.out.println(inventory);
+        inventory.close();
+    }
+
+    // Sells the whole stock of a new product; returns items sold, checkouts, nanoseconds and index reads
+    private static long[] sellOut(InventoryEngine inventory, int stock, int threads) throws Exception {
+        ProductCatalog catalog = new ProductCatalog();
+        catalog.enableColumnarLayout();
+        Product hot = new Clothing(Harness.productId('C', 1), "Hot socks", stock, 2.5, "M", "Red");
+        catalog.add(hot);
+        Product[] products = {hot};
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        List<Future<long[]>> buyers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            buyers.add(pool.submit(() -> {
+                start.await();
+                return buy(inventory, products, new Random(thread));
+            }));
+        }
+        Future<Long> reader = pool.submit(() -> {
+            start.await();
+            long reads = 0;
+            int lastOnHand = stock;
+            while (!stop.get()) {
+                int onHand = hot.getStockOnHand();
+                Harness.check(onHand <= lastOnHand, "stock on hand went up from " + lastOnHand + " to " + onHand);
+                lastOnHand = onHand;
+                Harness.check(catalog.countLowStock(stock + 1) == 1, "product missing from the low stock count");
+                Harness.sink = catalog.findByStockRange(0, stock);
+                reads++;
+            }
+            return reads;
+        });
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        long sold = 0;
+        long checkouts = 0;
+        for (Future<long[]> buyer : buyers) {
+            long[] bought = buyer.get();
+            sold += bought[0];
+            checkouts += bought[1];
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        stop.set(true);
+        long reads = reader.get();
+        pool.shutdown();
+
+        Harness.check(sold == stock, threads + " threads sold " + sold + " items of " + stock);
+        Harness.check(hot.getAvailableItems() == 0, hot.getAvailableItems() + " items left after selling out");
+        Harness.check(hot.getStockOnHand() == 0, hot.getStockOnHand() + " items still reserved");
+        Harness.check(catalog.findByStockRange(0, 0).contains(hot) && catalog.findByStockRange(1, null).isEmpty(),
+                "stock index doesn't show the product sold out");
+        Harness.check(catalog.findByAttributes(Collections.singletonMap(ProductAttributeIndex.STOCK_STATUS,
+                ProductAttributeIndex.OUT_OF_STOCK)).contains(hot), "stock status index doesn't show the product sold out");
+        Harness.check(catalog.countLowStock(1) == 1, "stock column doesn't show the product sold out");
+        Harness.check(catalog.inventoryValueByCategory().getOrDefault(hot.getCategory(), 0.0) == 0.0,
+                "inventory value left after selling out");
+        return new long[]{sold, checkouts, elapsed, reads};
+    }
+
+    // Buys until the product is sold out; returns the items and checkouts committed
+    private static long[] buy(InventoryEngine inventory, Product[] products, Random random) {
+        long sold = 0;
+        long checkouts = 0;
+        int[] quantities = new int[1];
+        while (true) {
+            quantities[0] = 1 + random.nextInt(3);
+            InventoryEngine.Reservation reservation = inventory.reserve(products, quantities);
+            int available = products[0].getAvailableItems();
+            Harness.check(available >= 0, "available stock went down to " + available);
+            if (reservation == null) {
+                if (available == 0) {
+                    return new long[]{sold, checkouts};
+                }
+                continue; // Fewer left than wanted, a smaller order may still get them
+            }
+            if (random.nextInt(10) == 0) {
+                inventory.release(reservation); // Abandoned at checkout
+            } else if (inventory.commit(reservation)) {
+                sold += quantities[0];
+                checkouts++;
+            }
+        }
+    }
+
+    private static void checkReleaseAfterCommit(InventoryEngine inventory) {
+        Product product = new Clothing(Harness.productId('C', 2), "Socks", 10, 2.5, "M", "Red");
+        InventoryEngine.Reservation reservation = inventory.reserve(new Product[]{product}, new int[]{4});
+        Harness.check(inventory.commit(reservation), "commit of a held reservation failed");
+        Harness.check(product.getStockOnHand() == 6, "stock on hand after commit is " + product.getStockOnHand());
+        inventory.release(reservation);
+        inventory.release(reservation);
+        Harness.check(product.getAvailableItems() == 10 && product.getStockOnHand() == 10,
+                "stock after releasing a committed reservation twice is " + product.getAvailableItems());
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+// Round trips through the key-value store, checked against a TreeMap holding what it should contain.
+//
+//   java -cp out KeyValueStoreTest [operations]
+//
+// Random puts, overwrites and deletes (default 40,000, about 40 MB of values) push the memtable out to
+// tables many times and trigger compactions. The contents are compared key by key and with prefix
+// scans after the writes, after a clean reopen, after a reopen without close (the log is replayed), and
+// after garbage is appended to the log as a torn write would leave it. Finally the directory must hold
+// only the log, the MANIFEST and the tables it names: no temporary files and no orphaned tables.
+public class KeyValueStoreTest {
+    private static final int KEYS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 40_000;
+        Path directory = Files.createTempDirectory("kv-store");
+        try {
+            TreeMap<String, byte[]> expected = new TreeMap<>();
+            Random random = new Random(42);
+            KeyValueStore store = new KeyValueStore(directory);
+            long start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                String key = key(random.nextInt(KEYS));
+                if (random.nextInt(5) == 0) {
+                    store.delete(key, false);
+                    expected.remove(key);
+                } else {
+                    byte[] value = value(random, i);
+                    store.put(key, value, i % 1_000 == 0);
+                    expected.put(key, value);
+                }
+            }
+            double writeSeconds = (System.nanoTime() - start) / 1e9;
+            Harness.check(store.getTableCount() > 0 && store.getTableCount() <= 5, store.getTableCount() + " tables");
+            checkContents(store, expected, "after the writes");
+            store.close();
+
+            store = new KeyValueStore(directory);
+            checkContents(store, expected, "after reopening");
+            store.put("k/last", "synced".getBytes(StandardCharsets.UTF_8), true);
+            expected.put("k/last", "synced".getBytes(StandardCharsets.UTF_8));
+            store.delete(key(0), false);
+            expected.remove(key(0));
+            store.sync();
+            // Not closed, as if the process had died: the next open replays the log
+            KeyValueStore abandoned = store;
+            store = new KeyValueStore(directory);
+            checkContents(store, expected, "after reopening without close");
+            store.close();
+            abandoned.close();
+
+            // A record cut off halfway is dropped, and writing carries on after it
+            Files.write(directory.resolve("wal.log"), new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+            store = new KeyValueStore(directory);
+            checkContents(store, expected, "after a torn log record");
+            store.put(key(1), new byte[]{7}, true);
+            expected.put(key(1), new byte[]{7});
+            store.close();
+            store = new KeyValueStore(directory);
+            checkContents(store, expected, "after writing past a torn log record");
+            store.close();
+
+            checkFiles(directory);
+            System.out.printf("OK: %d operations, %d live keys, %.0f writes/s%n", operations, expected.size(),
+                    operations / writeSeconds);
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    private static String key(int number) {
+        return String.format("k/%05d", number);
+    }
+
+    // About 1 KB, with the operation number in it so an older value of the key can't pass for the newer
+    private static byte[] value(Random random, int operation) {
+        byte[] value = new byte[512 + random.nextInt(1_024)];
+        random.nextBytes(value);
+        value[0] = (byte) operation;
+        value[1] = (byte) (operation >>> 8);
+        value[2] = (byte) (operation >>> 16);
+        return value;
+    }
+
+    private static void checkContents(KeyValueStore store, TreeMap<String, byte[]> expected, String when) throws IOException {
+        for (int number = 0; number < KEYS; number++) {
+            String key = key(number);
+            Harness.check(Arrays.equals(store.get(key), expected.get(key)), key + " differs " + when);
+            Harness.check(store.contains(key) == expected.containsKey(key), "contains(" + key + ") " + when);
+        }
+        TreeMap<String, byte[]> scanned = store.scanPrefix("k/");
+        Harness.check(scanned.keySet().equals(expected.keySet()), "prefix scan keys differ " + when);
+        for (Map.Entry<String, byte[]> entry : scanned.entrySet()) {
+            Harness.check(Arrays.equals(entry.getValue(), expected.get(entry.getKey())), "prefix scan value of " + entry.getKey() + " " + when);
+        }
+        TreeMap<String, byte[]> range = store.scan(key(100), key(200));
+        Harness.check(range.keySet().equals(expected.subMap(key(100), key(200)).keySet()), "range scan differs " + when);
+    }
+
+    private static void checkFiles(Path directory) throws IOException {
+        List<String> manifest = Files.readAllLines(directory.resolve("MANIFEST"), StandardCharsets.UTF_8);
+        Set<String> allowed = new HashSet<>(manifest);
+        allowed.add("MANIFEST");
+        allowed.add("wal.log");
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                Harness.check(allowed.contains(name), "unexpected file " + name + " next to tables " + manifest);
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+// Fixed-point Money against double and BigDecimal, summing the discounted totals of many orders.
+//
+//   java -cp out MoneyBenchmark [orders]
+//
+// Default 5 * 10^6 orders, each with a 10% discount rounded half up to the cent. Before timing,
+// Money.divide is checked against BigDecimal for every rounding mode, and Money.format against
+// BigDecimal.toPlainString, including Long.MIN_VALUE and Long.MAX_VALUE. The long and BigDecimal
+// sums must agree exactly; the double sum rounds each discount to the cent as well, and is printed
+// with how far it drifted from the exact sum.
+public class MoneyBenchmark {
+    private static final long DISCOUNT_BASIS_POINTS = 1_000; // 10%
+    private static final RoundingMode[] MODES = {RoundingMode.UP, RoundingMode.DOWN, RoundingMode.CEILING,
+            RoundingMode.FLOOR, RoundingMode.HALF_UP, RoundingMode.HALF_DOWN, RoundingMode.HALF_EVEN};
+
+    public static void main(String[] args) {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        Random random = new Random(1);
+        checkRounding(random);
+        checkFormat(random);
+
+        long[] cents = new long[orders];
+        double[] doubles = new double[orders];
+        BigDecimal[] decimals = new BigDecimal[orders];
+        for (int i = 0; i < orders; i++) {
+            cents[i] = 1 + random.nextInt(100_000);
+            doubles[i] = cents[i] / 100.0;
+            decimals[i] = BigDecimal.valueOf(cents[i], 2);
+        }
+
+        double[] doubleSum = new double[1];
+        long[] longSum = new long[1];
+        BigDecimal[] decimalSum = new BigDecimal[1];
+        BigDecimal discount = new BigDecimal("0.10");
+        long doubleNanos = Harness.bestOf(5, () -> {
+            double sum = 0;
+            for (double total : doubles) {
+                sum += total - Math.round(total * 0.1 * 100) / 100.0; // Discount rounded to the cent
+            }
+            doubleSum[0] = sum;
+        });
+        long longNanos = Harness.bestOf(5, () -> {
+            long sum = 0;
+            for (long total : cents) {
+                sum = Money.add(sum, total - Money.percentage(total, DISCOUNT_BASIS_POINTS, RoundingMode.HALF_UP));
+            }
+            longSum[0] = sum;
+        });
+        long decimalNanos = Harness.bestOf(5, () -> {
+            BigDecimal sum = BigDecimal.ZERO;
+            for (BigDecimal total : decimals) {
+                sum = sum.add(total.subtract(total.multiply(discount).setScale(2, RoundingMode.HALF_UP)));
+            }
+            decimalSum[0] = sum;
+        });
+        Harness.check(Money.format(longSum[0]).equals(decimalSum[0].toPlainString()),
+                "long sum " + Money.format(longSum[0]) + " differs from BigDecimal sum " + decimalSum[0].toPlainString());
+
+        System.out.printf("%d orders, best of 5 runs%n", orders);
+        System.out.printf("%-12s %8s  %s%n", "type", "ns/op", "sum");
+        System.out.printf("%-12s %8.1f  %.2f (off by %s)%n", "double", (double) doubleNanos / orders, doubleSum[0],
+                BigDecimal.valueOf(doubleSum[0]).subtract(decimalSum[0]).setScale(2, RoundingMode.HALF_UP).toPlainString());
+        System.out.printf("%-12s %8.1f  %s%n", "Money", (double) longNanos / orders, Money.format(longSum[0]));
+        System.out.printf("%-12s %8.1f  %s%n", "BigDecimal", (double) decimalNanos / orders, decimalSum[0].toPlainString());
+    }
+
+    private static void checkRounding(Random random) {
+        long[] samples = new long[1_000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = i < 20 ? i * 5 - 50 : random.nextLong() / 1_000; // Exact ties first, then anything
+        }
+        for (RoundingMode mode : MODES) {
+            for (long dividend : samples) {
+                for (long divisor : new long[]{10, 100, 7}) {
+                    long expected = BigDecimal.valueOf(dividend).divide(BigDecimal.valueOf(divisor), 0, mode).longValueExact();
+                    Harness.check(Money.divide(dividend, divisor, mode) == expected, mode + " " + dividend + " / " + divisor);
+                }
+            }
+        }
+    }
+
+    private static void checkFormat(Random random) {
+        long[] samples = {0, 1, -1, 5, -5, 10, -10, 99, -99, 100, -100, 12345, -12345, Long.MAX_VALUE, Long.MIN_VALUE,
+                Long.MIN_VALUE + 1, random.nextLong(), random.nextLong(), random.nextLong()};
+        for (long minor : samples) {
+            String expected = BigDecimal.valueOf(minor, 2).toPlainString();
+            Harness.check(Money.format(minor).equals(expected), "format(" + minor + ") is " + Money.format(minor) + ", expected " + expected);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Cart pricing time as the number of active promotions grows from 10 to 10^4.
+//
+//   java -cp out PromotionScalingBenchmark
+//
+// Two sets of rules at each size, on the same 20-line cart:
+//   untouched  rules on products and brands that aren't in the cart. Compiled lookups should never
+//              visit them, so the total must equal the one with only the built-in rules, and the
+//              time should stay flat.
+//   mixed      percent, buy-n and bundle rules on random products and brands, some of which the
+//              cart triggers.
+public class PromotionScalingBenchmark {
+    private static final int PRODUCTS = 2_000;
+    private static final int IN_CART = 1_000; // The cart only holds products below this number
+    private static final int EVALUATIONS = 200_000;
+
+    public static void main(String[] args) {
+        Product[] products = new Product[PRODUCTS];
+        for (int number = 0; number < PRODUCTS; number++) {
+            products[number] = number % 2 == 0
+                    ? new Electronics(Harness.productId('E', number), "Cable", 1_000, 10 + number % 7, "Brand" + number % 40, 12)
+                    : new Clothing(Harness.productId('C', number), "Shirt", 1_000, 5 + number % 5, new String[]{"S", "M", "L", "XL"}[number % 4], "Red");
+        }
+        User user = new User("shopper", "hash");
+        Random random = new Random(42);
+        List<Product> cartProducts = new ArrayList<>();
+        for (int line = 0; line < 20; line++) {
+            Product product = products[random.nextInt(IN_CART)];
+            for (int item = 0; item <= line % 3; item++) {
+                cartProducts.add(product);
+            }
+        }
+        long baseline = cart(PricingEngine.defaults(), cartProducts).calculateFinalTotalMinor(user);
+
+        System.out.printf("%8s %18s %18s%n", "rules", "untouched ns/eval", "mixed ns/eval");
+        for (int ruleCount = 10; ruleCount <= 10_000; ruleCount *= 10) {
+            PricingEngine untouched = PricingEngine.parse(untouchedRules(ruleCount, products), "untouched");
+            ShoppingCart untouchedCart = cart(untouched, cartProducts);
+            long total = untouchedCart.calculateFinalTotalMinor(user);
+            Harness.check(total == baseline, ruleCount + " rules the cart doesn't trigger changed its total from " + baseline + " to " + total);
+
+            PricingEngine mixed = PricingEngine.parse(mixedRules(ruleCount, products, random), "mixed");
+            ShoppingCart mixedCart = cart(mixed, cartProducts);
+            Harness.check(mixedCart.calculateFinalTotalMinor(user) >= 0, "negative total");
+
+            System.out.printf("%8d %18.0f %18.0f%n", ruleCount, nanosPerEvaluation(untouchedCart, user), nanosPerEvaluation(mixedCart, user));
+        }
+    }
+
+    private static double nanosPerEvaluation(ShoppingCart cart, User user) {
+        long best = Harness.bestOf(5, () -> {
+            long sum = 0;
+            for (int i = 0; i < EVALUATIONS; i++) {
+                sum += cart.calculateFinalTotalMinor(user);
+            }
+            Harness.sink = sum;
+        });
+        return (double) best / EVALUATIONS;
+    }
+
+    private static ShoppingCart cart(PricingEngine engine, List<Product> items) {
+        ShoppingCart cart = new ShoppingCart(1_000, () -> engine);
+        for (Product product : items) {
+            cart.addProduct(product);
+        }
+        return cart;
+    }
+
+    private static List<String> untouchedRules(int ruleCount, Product[] products) {
+        List<String> lines = new ArrayList<>(PricingEngine.DEFAULT_RULES);
+        for (int i = 0; i < ruleCount; i++) {
+            String outside = products[IN_CART + i % (PRODUCTS - IN_CART)].getProductId();
+            switch (i % 3) {
+                case 0:
+                    lines.add("name=p" + i + " type=percent product=" + outside + " percent=5 priority=" + i % 100);
+                    break;
+                case 1:
+                    lines.add("name=b" + i + " type=percent brand=Other" + i + " percent=5 priority=" + i % 100);
+                    break;
+                default:
+                    lines.add("name=n" + i + " type=buy-n product=" + outside + " buy=2 free=1");
+                    break;
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> mixedRules(int ruleCount, Product[] products, Random random) {
+        List<String> lines = new ArrayList<>(PricingEngine.DEFAULT_RULES);
+        for (int i = 0; i < ruleCount; i++) {
+            String product = products[random.nextInt(PRODUCTS)].getProductId();
+            switch (i % 4) {
+                case 0:
+                    lines.add("name=p" + i + " type=percent product=" + product + " percent=5 priority=" + random.nextInt(100));
+                    break;
+                case 1:
+                    lines.add("name=b" + i + " type=percent brand=Brand" + random.nextInt(4_000) + " percent=5 priority=" + random.nextInt(100));
+                    break;
+                case 2:
+                    lines.add("name=n" + i + " type=buy-n product=" + product + " buy=2 free=1");
+                    break;
+                default:
+                    lines.add("name=s" + i + " type=bundle product=" + product + "," + products[random.nextInt(PRODUCTS)].getProductId()
+                            + " percent=10 group=bundles");
+                    break;
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+// RecordCodec against Java serialization, one record per product as the user store keeps them.
+//
+//   java -cp out RecordCodecBenchmark [records]
+//
+// First every kind of record is round-tripped and compared field by field, including null and
+// non-ASCII strings, negative numbers, repeated strings (stored as dictionary references) and a
+// record cut short, which must fail with an IOException rather than decode to something else.
+// Then the given number of product records (default 10^5) is encoded and decoded both ways.
+public class RecordCodecBenchmark {
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        checkRoundTrips();
+
+        List<Product> products = new ArrayList<>(count);
+        for (int number = 0; number < count; number++) {
+            products.add(product(number));
+        }
+        byte[][] encoded = new byte[count][];
+        byte[][] serialized = new byte[count][];
+        long encodedBytes = 0;
+        long serializedBytes = 0;
+        for (int i = 0; i < count; i++) {
+            encoded[i] = new RecordCodec.Writer().writeProduct(products.get(i)).toByteArray();
+            serialized[i] = serialize(products.get(i));
+            encodedBytes += encoded[i].length;
+            serializedBytes += serialized[i].length;
+        }
+
+        System.out.printf("%d product records, best of %d runs%n", count, ROUNDS);
+        System.out.printf("%-16s %14s %14s %14s%n", "format", "bytes/record", "encode ns", "decode ns");
+        report("RecordCodec", encodedBytes, count,
+                Harness.bestOf(ROUNDS, () -> {
+                    for (Product product : products) {
+                        Harness.sink = new RecordCodec.Writer().writeProduct(product).toByteArray();
+                    }
+                }),
+                Harness.bestOf(ROUNDS, Harness.unchecked(() -> {
+                    for (byte[] bytes : encoded) {
+                        Harness.sink = new RecordCodec.Reader(bytes).readProduct();
+                    }
+                })));
+        report("serialization", serializedBytes, count,
+                Harness.bestOf(ROUNDS, Harness.unchecked(() -> {
+                    for (Product product : products) {
+                        Harness.sink = serialize(product);
+                    }
+                })),
+                Harness.bestOf(ROUNDS, Harness.unchecked(() -> {
+                    for (byte[] bytes : serialized) {
+                        Harness.sink = deserialize(bytes);
+                    }
+                })));
+    }
+
+    private static void checkRoundTrips() throws IOException {
+        Product clothing = new Clothing("C000000001", "Jumper", 3, 19.99, "XL", "Grün");
+        Product electronics = new Electronics("E000000002", "Phone", -2, 1e9 + 0.01, null, 24);
+        Product plain = new Product("P000000003", null, 0, -0.5, "Misc");
+        // Dates either side of the epoch, the day before it used to collide with "no date"
+        clothing.setDateAdded(LocalDate.of(1969, 12, 31));
+        electronics.setDateAdded(LocalDate.of(1970, 1, 1));
+        plain.setDateAdded(LocalDate.of(1900, 1, 1));
+        for (Product product : Arrays.asList(clothing, electronics, plain)) {
+            Product read = new RecordCodec.Reader(new RecordCodec.Writer().writeProduct(product).toByteArray()).readProduct();
+            checkSame(product, read);
+        }
+
+        // The same product twice, so its strings are written once and then referenced
+        Product purchase = new Product(Arrays.asList(clothing, electronics, clothing), 12345.67, LocalDate.of(2024, 2, 29));
+        byte[] purchaseBytes = new RecordCodec.Writer().writePurchase(purchase).toByteArray();
+        Product readPurchase = new RecordCodec.Reader(purchaseBytes).readPurchase();
+        Harness.check(readPurchase.getTotalCostMinor() == purchase.getTotalCostMinor(), "purchase total");
+        Harness.check(Objects.equals(readPurchase.getPurchaseDate(), purchase.getPurchaseDate()), "purchase date");
+        Harness.check(readPurchase.getPurchasedProducts().size() == 3, "purchase lines");
+        for (int i = 0; i < 3; i++) {
+            checkSame(purchase.getPurchasedProducts().get(i), readPurchase.getPurchasedProducts().get(i));
+        }
+
+        // Purchase lines resolve to the catalog's product when the resolver knows the ID
+        Product resolved = new RecordCodec.Reader(purchaseBytes, id -> id.equals(clothing.getProductId()) ? clothing : null)
+                .readPurchase().getPurchasedProducts().get(0);
+        Harness.check(resolved == clothing, "purchase line not resolved to the catalog product");
+
+        User user = new User("ana.lópez", "pbkdf2$hash");
+        User readUser = new RecordCodec.Reader(new RecordCodec.Writer().writeUser(user).toByteArray()).readUser();
+        Harness.check(user.getUsername().equals(readUser.getUsername()), "username");
+        Harness.check(user.getPassword().equals(readUser.getPassword()), "password");
+        Harness.check(Objects.equals(user.getAccountCreationDate(), readUser.getAccountCreationDate()), "creation date");
+        Harness.check(Objects.equals(user.getAccountCreationTime(), readUser.getAccountCreationTime()), "creation time");
+
+        for (int length = 1; length < purchaseBytes.length; length++) {
+            byte[] truncated = Arrays.copyOf(purchaseBytes, length);
+            try {
+                new RecordCodec.Reader(truncated).readPurchase();
+                Harness.check(false, "record cut to " + length + " bytes decoded");
+            } catch (IOException expected) {
+                // A truncated record must be reported, never half decoded
+            }
+        }
+    }
+
+    private static void checkSame(Product written, Product read) {
+        String id = written.getProductId();
+        Harness.check(written.getClass() == read.getClass(), "type of " + id);
+        Harness.check(id.equals(read.getProductId()), "ID of " + id);
+        Harness.check(Objects.equals(written.getName(), read.getName()), "name of " + id);
+        Harness.check(Objects.equals(written.getCategory(), read.getCategory()), "category of " + id);
+        Harness.check(Double.compare(written.getPrice(), read.getPrice()) == 0, "price of " + id);
+        Harness.check(written.getAvailableItems() == read.getAvailableItems(), "stock of " + id);
+        Harness.check(Objects.equals(written.getDateAdded(), read.getDateAdded()), "date added of " + id);
+        if (written instanceof Electronics) {
+            Harness.check(Objects.equals(((Electronics) written).getBrand(), ((Electronics) read).getBrand()), "brand of " + id);
+            Harness.check(((Electronics) written).getWarrantyPeriod() == ((Electronics) read).getWarrantyPeriod(), "warranty of " + id);
+        } else if (written instanceof Clothing) {
+            Harness.check(Objects.equals(((Clothing) written).getSize(), ((Clothing) read).getSize()), "size of " + id);
+            Harness.check(Objects.equals(((Clothing) written).getColor(), ((Clothing) read).getColor()), "colour of " + id);
+        }
+    }
+
+    private static byte[] serialize(Product product) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(product);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    private static void report(String format, long bytes, int count, long encodeNanos, long decodeNanos) {
+        System.out.printf("%-16s %14.1f %14.0f %14.0f%n", format, (double) bytes / count,
+                (double) encodeNanos / count, (double) decodeNanos / count);
+    }
+
+    private static Product product(int number) {
+        Product product;
+        if (number % 2 == 0) {
+            product = new Clothing(Harness.productId('C', number), "Shirt " + number % 500, 1 + number % 50,
+                    5 + number % 1000 / 10.0, "M", "Red");
+        } else {
+            product = new Electronics(Harness.productId('E', number), "Phone " + number % 200, number % 40,
+                    99.99 + number % 700, "Acme", 12);
+        }
+        product.setDateAdded(LocalDate.of(2023, 1, 1).plusDays(number % 400));
+        return product;
+    }
+}
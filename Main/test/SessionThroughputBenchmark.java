@@ -0,0 +1,147 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Many simulated shoppers, each with their own session, working on their carts at the same time.
+//
+//   java -cp out SessionThroughputBenchmark [sessions] [threads] [seconds]
+//
+// Defaults are 10^4 sessions on 16 threads for 5 seconds. Every request looks its session up by ID,
+// as a front end would, then adds a product, changes a quantity or prices the cart. Each session is
+// driven by one thread at a time, as the shopping window drives its own cart. Afterwards it checks
+// that no session was lost, that each cart holds exactly what its shopper put in, that the cart line
+// limit holds, and times one sweep that evicts every session once they have all gone idle.
+public class SessionThroughputBenchmark {
+    private static final int PRODUCTS = 1_000;
+    private static final int MAX_CART_LINES = 100;
+
+    public static void main(String[] args) throws Exception {
+        int sessionCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        Product[] products = new Product[PRODUCTS];
+        for (int number = 0; number < PRODUCTS; number++) {
+            products[number] = new Clothing(Harness.productId('C', number), "Shirt", 1_000, 5 + number % 100, "M", "Red");
+        }
+
+        SessionManager sessions = new SessionManager(30, TimeUnit.MINUTES, MAX_CART_LINES, PricingEngine::defaults);
+        String[] ids = new String[sessionCount];
+        long start = System.nanoTime();
+        for (int i = 0; i < sessionCount; i++) {
+            ids[i] = sessions.open(new User("shopper" + i, "hash")).getId();
+        }
+        double openNanos = (double) (System.nanoTime() - start) / sessionCount;
+
+        // Each thread drives the sessions i with i % threads == its number, and keeps the quantities
+        // it expects in each cart
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch go = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> results = new ArrayList<>();
+        List<int[][]> expectedByThread = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            int[][] expected = new int[sessionCount][];
+            expectedByThread.add(expected);
+            results.add(pool.submit(() -> {
+                go.await();
+                return shop(sessions, ids, products, thread, threads, expected, stop);
+            }));
+        }
+        start = System.nanoTime();
+        go.countDown();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        stop.set(true);
+        long requests = 0;
+        for (Future<Long> result : results) {
+            requests += result.get();
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        Harness.check(sessions.size() == sessionCount, sessions.size() + " sessions open, expected " + sessionCount);
+        for (int i = 0; i < sessionCount; i++) {
+            Session session = sessions.get(ids[i]);
+            Harness.check(session != null, "session " + i + " lost");
+            int[] expected = expectedByThread.get(i % threads)[i];
+            ShoppingCart cart = session.getCart();
+            Harness.check(cart.getLineCount() <= MAX_CART_LINES, "cart " + i + " has " + cart.getLineCount() + " lines");
+            for (int number = 0; expected != null && number < PRODUCTS; number++) {
+                Harness.check(cart.getProductQuantity(products[number]) == expected[number], "cart " + i + " has the wrong quantity of " + number);
+            }
+        }
+
+        // A full cart refuses a new product
+        ShoppingCart full = sessions.open(new User("full", "hash")).getCart();
+        for (int number = 0; number < MAX_CART_LINES; number++) {
+            full.addProduct(products[number]);
+        }
+        try {
+            full.addProduct(products[MAX_CART_LINES]);
+            Harness.check(false, "cart took more than " + MAX_CART_LINES + " lines");
+        } catch (IllegalStateException expected) {
+            // The limit is reported to the shopper
+        }
+        sessions.close();
+
+        // Eviction of idle sessions, with a timeout short enough that they are all idle by the sweep
+        SessionManager idle = new SessionManager(1, TimeUnit.MILLISECONDS, MAX_CART_LINES, PricingEngine::defaults);
+        for (int i = 0; i < sessionCount; i++) {
+            idle.open(new User("idle" + i, "hash"));
+        }
+        Thread.sleep(10);
+        start = System.nanoTime();
+        int evicted = idle.evictIdle();
+        long evictNanos = System.nanoTime() - start;
+        Harness.check(evicted == sessionCount && idle.size() == 0, "evicted " + evicted + " of " + sessionCount + " idle sessions");
+        idle.close();
+
+        System.out.printf("%d sessions on %d threads for %.1f s%n", sessionCount, threads, elapsedSeconds);
+        System.out.printf("open:      %.0f ns per session%n", openNanos);
+        System.out.printf("requests:  %.0f per second (lookup plus one cart operation)%n", requests / elapsedSeconds);
+        System.out.printf("eviction:  %.1f ms to sweep %d idle sessions%n", evictNanos / 1e6, sessionCount);
+    }
+
+    // Runs requests against this thread's sessions until stopped, returns how many it made
+    private static long shop(SessionManager sessions, String[] ids, Product[] products, int thread, int threads,
+                             int[][] expected, AtomicBoolean stop) {
+        Random random = new Random(thread);
+        int owned = (ids.length - thread + threads - 1) / threads;
+        long requests = 0;
+        while (!stop.get() && owned > 0) {
+            int i = thread + random.nextInt(owned) * threads;
+            Session session = sessions.get(ids[i]);
+            Harness.check(session != null, "session " + i + " not found");
+            ShoppingCart cart = session.getCart();
+            if (expected[i] == null) {
+                expected[i] = new int[products.length];
+            }
+            int number = random.nextInt(MAX_CART_LINES * 2);
+            int operation = random.nextInt(10);
+            if (operation < 5) {
+                if (cart.getLineCount() < MAX_CART_LINES || expected[i][number] > 0) {
+                    cart.addProduct(products[number]);
+                    expected[i][number]++;
+                }
+            } else if (operation < 8) {
+                int row = cart.getLineCount() > 0 ? random.nextInt(cart.getLineCount()) : -1;
+                if (row >= 0) {
+                    Product product = cart.getLine(row);
+                    int quantity = random.nextInt(5); // 0 removes the line
+                    cart.updateProductQuantity(product, quantity);
+                    expected[i][Integer.parseInt(product.getProductId().substring(1))] = quantity;
+                }
+            } else {
+                Harness.sink = cart.calculateFinalTotalMinor(session.getUser());
+            }
+            requests++;
+        }
+        return requests;
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Sorted search results against the catalog size. A search that matches ten products should cost
+// about the same in a catalog of 10^4 products as in one of 10^6 (the largest size, given as the
+// first argument); a broad one that matches a fixed share of the catalog grows with its matches.
+//
+//   java -cp out SortedSearchBenchmark 1000000
+//
+// At each size the sorted results of a narrow and a broad query are first checked against the full
+// sorted listing filtered down to the matches, for every order and a few limits, then timed.
+public class SortedSearchBenchmark {
+    private static final String[] NAMES = {"Shirt", "Jeans", "Jacket", "Socks", "Scarf", "Coat", "Dress", "Hat"};
+    private static final String[] COLOURS = {"Red", "Blue", "Black", "White"};
+    private static final String[] SIZES = {"S", "M", "L", "XL"};
+    private static final int RARE_STRIDE = 997; // Ten "Parka" products, spread over the first 10^4
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) {
+        int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        ProductCatalog catalog = new ProductCatalog();
+        Map<String, String> redXl = Map.of(ProductAttributeIndex.COLOUR, "Red", ProductAttributeIndex.SIZE, "XL");
+        System.out.printf("%10s %8s %24s %24s%n", "products", "order", "narrow search us (hits)", "broad top-20 us (hits)");
+        int size = 0;
+        for (int target = 10_000; target <= maxSize; target *= 10) {
+            for (; size < target; size++) {
+                catalog.add(product(size));
+            }
+            for (ProductSortOrder order : ProductSortOrder.values()) {
+                for (int limit : new int[]{1, 20, Integer.MAX_VALUE}) {
+                    checkSorted(catalog, "parka", Collections.emptyMap(), order, limit);
+                    checkSorted(catalog, "jacket", redXl, order, limit);
+                }
+                int narrowHits = catalog.search("parka", Collections.emptyMap(), order, Integer.MAX_VALUE).size();
+                int broadHits = catalog.search("jacket", redXl, order, Integer.MAX_VALUE).size();
+                long narrow = Harness.bestOf(ROUNDS, () -> Harness.sink = catalog.search("parka", Collections.emptyMap(), order, Integer.MAX_VALUE));
+                long broad = Harness.bestOf(ROUNDS, () -> Harness.sink = catalog.search("jacket", redXl, order, 20));
+                System.out.printf("%10d %8s %24s %24s%n", size, order.name(),
+                        String.format("%.1f (%d)", narrow / 1e3, narrowHits), String.format("%.1f (%d)", broad / 1e3, broadHits));
+            }
+        }
+    }
+
+    // The results must be the first limit products of the full sorted listing that match
+    private static void checkSorted(ProductCatalog catalog, String query, Map<String, String> criteria, ProductSortOrder order, int limit) {
+        List<Product> actual = catalog.search(query, criteria, order, limit);
+        Set<Product> matches = new HashSet<>(catalog.search(query, criteria, Integer.MAX_VALUE));
+        List<Product> expected = new ArrayList<>();
+        for (Product product : catalog.getSortedProducts(order)) {
+            if (expected.size() < limit && matches.contains(product)) {
+                expected.add(product);
+            }
+        }
+        Harness.check(!expected.isEmpty(), "no matches for " + query);
+        Harness.check(actual.equals(expected), order + " results for " + query + " with limit " + limit + " are not the sorted matches");
+    }
+
+    private static Product product(int number) {
+        String name = number % RARE_STRIDE == 7 && number < 10 * RARE_STRIDE ? "Parka" : NAMES[number % NAMES.length];
+        // Prices repeat, so ties fall back to product ID order
+        return new Clothing(Harness.productId('C', number), name, 1 + number % 50, 5 + number % 300 / 4.0,
+                SIZES[number / 3 % SIZES.length], COLOURS[number / 5 % COLOURS.length]);
+    }
+}
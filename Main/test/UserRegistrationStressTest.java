@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+// Registrations on many threads while the username index's Bloom filter grows, checking that no new
+// user is lost from the filter when it is rebuilt.
+//
+//   java -cp out UserRegistrationStressTest [users per thread]
+//
+// The store starts empty, so the filter is sized for 1,024 names and is rebuilt several times as the
+// threads register their users (default 5,000 per thread on 8 threads). Each thread also stores some of
+// its users again, as a password upgrade does. Afterwards every user must be found by name, in any
+// letter case, the filter must count each name once, and a second registration of a taken name must
+// fail. The store is then reopened and every user must still be there.
+public class UserRegistrationStressTest {
+    private static final int THREADS = 8;
+
+    public static void main(String[] args) throws Exception {
+        int usersPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int userCount = usersPerThread * THREADS;
+        Path directory = Files.createTempDirectory("user-store");
+        try {
+            KeyValueStore database = new KeyValueStore(directory);
+            UserStore users = new UserStore(database, new PurchaseHistoryStore(database, id -> null));
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+            List<Future<?>> registrations = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                registrations.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < usersPerThread; i++) {
+                        User user = new User(username(thread * usersPerThread + i), "hash");
+                        Harness.check(users.putIfAbsent(user, false), user.getUsername() + " already taken");
+                        if (i % 4 == 0) {
+                            user.setPassword("rehashed");
+                            users.put(user, false);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> registration : registrations) {
+                registration.get();
+            }
+            pool.shutdown();
+
+            checkAllFound(users, userCount);
+            String statistics = users.getIndexStatistics();
+            int filterSize = Integer.parseInt(statistics.substring(0, statistics.indexOf(' ')));
+            // Names whose bits were all set already aren't counted, about 1% at most
+            Harness.check(filterSize <= userCount && filterSize >= userCount * 0.98,
+                    "filter counts " + filterSize + " names for " + userCount + " users");
+            Harness.check(!users.putIfAbsent(new User(username(0).toUpperCase(), "hash"), false),
+                    "a taken name registered again in upper case");
+            Harness.check(users.get("nobody") == null && !users.exists("nobody"), "a name never registered was found");
+            database.close();
+
+            KeyValueStore reopened = new KeyValueStore(directory);
+            checkAllFound(new UserStore(reopened, new PurchaseHistoryStore(reopened, id -> null)), userCount);
+            reopened.close();
+            System.out.println("OK: " + userCount + " users registered on " + THREADS + " threads, " + statistics);
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    private static String username(int number) {
+        return "Shopper" + number;
+    }
+
+    private static void checkAllFound(UserStore users, int userCount) throws IOException {
+        for (int number = 0; number < userCount; number++) {
+            String name = username(number);
+            User user = users.get(number % 2 == 0 ? name : name.toLowerCase());
+            Harness.check(user != null && user.getUsername().equals(name), name + " not found");
+            Harness.check(users.exists(name), name + " reported as free");
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}